@@ -2,15 +2,41 @@ package jenkins.plugins.asynchttpclient;
 
 import com.ning.http.client.AsyncHttpClient;
 import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.AsyncHttpClientConfigDefaults;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.Extension;
 import hudson.ProxyConfiguration;
+import hudson.XmlFile;
 import hudson.model.Describable;
 import hudson.model.Descriptor;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
 import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
 import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.StaplerRequest;
 
+import java.io.File;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManager;
+import jenkins.plugins.asynchttpclient.util.TunedSSLContext;
+import jenkins.util.Timer;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 
@@ -18,8 +44,15 @@ import org.kohsuke.accmod.restrictions.NoExternalUse;
  * Provides a global shared {@link AsyncHttpClient} instance, for use from the master,
  * configured with the master's proxy settings.
  * This shared instance will be gracefully closed when Jenkins is terminating, and will be recycled if the proxy
- * settings change or if somebody closes it by accident.
+ * settings change or if somebody closes it by accident. A recycled instance is replaced immediately but is only closed
+ * once its requests in flight have completed (or {@link #drainTimeoutSeconds} have elapsed).
  * The recommendation is not to cache the instance longer than a user's request.
+ * The connection pool and timeouts of the shared instance can be tuned from the global configuration page, changes
+ * are picked up without a restart. The requests of every instance are recorded in its {@link ClientMetrics}, and
+ * failed idempotent requests are retried according to a {@link RetryPolicy}. The shared instance and the named
+ * instances whose {@link ClientProfile} opts in stop sending requests to failing hosts with a {@link CircuitBreaker}.
+ * Every generation of the shared instance opens connections to the configured hot hosts with a
+ * {@link ConnectionWarmer}. The shared and named instances resolve host names through a {@link DnsCache}.
  *
  * @since 1.7.8
  */
@@ -36,20 +69,194 @@ public class AHC extends Descriptor<AHC> implements Describable<AHC> {
     @Restricted(NoExternalUse.class) // no direct linking against this field please
     public static boolean acceptAnyCertificate = Boolean.getBoolean(AHC.class.getName() + ".acceptAnyCertificate");
 
+    /**
+     * How long a replaced shared instance is given to complete its requests in flight before it is closed anyway.
+     * @since 1.9.40.1
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "Allow runtime modification")
+    @Restricted(NoExternalUse.class) // no direct linking against this field please
+    public static long drainTimeoutSeconds = Long.getLong(AHC.class.getName() + ".drainTimeoutSeconds", 120L);
+
     /**
      * Our logger.
      */
-    private Logger logger = Logger.getLogger(AHC.class.getName());
+    private transient Logger logger = Logger.getLogger(AHC.class.getName());
+
+    /**
+     * The last resolved {@link AHC} descriptor, so that {@link #instance()} does not have to scan the descriptor
+     * list on every call.
+     */
+    private static volatile Lookup lookup;
+
+    /**
+     * The shared instance.
+     */
+    private final transient Pool shared = new Pool(null);
+
+    /**
+     * The named instances.
+     */
+    private final transient ConcurrentMap<String, Pool> pools = new ConcurrentHashMap<String, Pool>();
+
+    /**
+     * Bumped whenever something the shared instance was built from changes, forcing the next caller to rebuild.
+     */
+    private final transient AtomicLong version = new AtomicLong();
+
+    /**
+     * Replaced instances that may still be completing their requests in flight.
+     */
+    private final transient Set<ManagedAsyncHttpClient> draining =
+            Collections.newSetFromMap(new ConcurrentHashMap<ManagedAsyncHttpClient, Boolean>());
+
+    /**
+     * The maximum number of connections of the shared instance, {@code -1} for no limit.
+     */
+    private int maxConnections = AsyncHttpClientConfigDefaults.defaultMaxConnections();
+
+    /**
+     * The maximum number of connections to a single host of the shared instance, {@code -1} for no limit.
+     */
+    private int maxConnectionsPerHost = AsyncHttpClientConfigDefaults.defaultMaxConnectionsPerHost();
 
     /**
-     * Our instance.
+     * How long, in milliseconds, a connection may stay idle in the pool.
      */
-    private AsyncHttpClient instance;
+    private int pooledConnectionIdleTimeout = AsyncHttpClientConfigDefaults.defaultPooledConnectionIdleTimeout();
 
     /**
-     * A memo instance of the proxy settings.
+     * The connect timeout, in milliseconds.
      */
-    private ProxyConfiguration memo;
+    private int connectTimeout = AsyncHttpClientConfigDefaults.defaultConnectTimeout();
+
+    /**
+     * The read timeout, in milliseconds.
+     */
+    private int readTimeout = AsyncHttpClientConfigDefaults.defaultReadTimeout();
+
+    /**
+     * The request timeout, in milliseconds.
+     */
+    private int requestTimeout = AsyncHttpClientConfigDefaults.defaultRequestTimeout();
+
+    /**
+     * Whether plain connections are kept in a pool for reuse.
+     */
+    private boolean allowPoolingConnections = AsyncHttpClientConfigDefaults.defaultAllowPoolingConnections();
+
+    /**
+     * Whether TLS connections are kept in a pool for reuse.
+     */
+    private boolean allowPoolingSslConnections = AsyncHttpClientConfigDefaults.defaultAllowPoolingSslConnections();
+
+    /**
+     * The maximum number of requests in flight to a single host, {@code -1} for no limit.
+     */
+    private int maxRequestsPerHost = -1;
+
+    /**
+     * The maximum number of requests waiting for a single host when {@link #maxRequestsPerHost} is reached.
+     */
+    private int maxQueuedRequestsPerHost = 100;
+
+    /**
+     * The maximum number of retries of a request, {@code 0} to never retry.
+     */
+    private int maxRetries = 2;
+
+    /**
+     * The delay before the first retry, in milliseconds, doubled for every retry.
+     */
+    private int retryBackoff = 100;
+
+    /**
+     * The percentage of the requests that may be retried, across all the instances.
+     */
+    private int retryBudgetPercent = 20;
+
+    /**
+     * Whether the shared instance has a circuit breaker, with the default {@link CircuitBreakerSettings}.
+     */
+    private boolean circuitBreaker;
+
+    /**
+     * The hosts the shared instance opens connections to whenever it is (re)created, separated by commas or white
+     * space, each either a URL or a {@code host[:port]} reached over HTTPS.
+     */
+    private String preWarmHosts = "";
+
+    /**
+     * The number of connections opened to each of the {@link #preWarmHosts}.
+     */
+    private int preWarmConnections = 2;
+
+    /**
+     * How long, in seconds, host addresses are cached, {@code 0} to let the client resolve the hosts itself.
+     */
+    private int dnsCacheTtl = 60;
+
+    /**
+     * How long, in seconds, failed host name lookups are cached.
+     */
+    private int dnsNegativeCacheTtl = 5;
+
+    /**
+     * Whether the shared and named instances read and write through chunked direct buffers rather than heap buffers.
+     */
+    private boolean directBuffers;
+
+    /**
+     * The host name cache shared by all the instances.
+     */
+    private final transient DnsCache dnsCache = new DnsCache(DnsCache.SYSTEM, DnsCache.newLookupExecutor());
+
+    /**
+     * The opt-in response cache, created on demand.
+     */
+    private transient volatile ResponseCache responseCache;
+
+    /**
+     * The opt-in request coalescer, created on demand.
+     */
+    private transient volatile RequestCoalescer coalescer;
+
+    /**
+     * The retry budget shared by all the instances.
+     */
+    private final transient RetryBudget retryBudget = new RetryBudget(20);
+
+    /**
+     * The maximum number of TLS sessions kept for resumption, {@code 0} for no limit and {@code -1} for the JVM
+     * default.
+     */
+    private int sslSessionCacheSize = -1;
+
+    /**
+     * How long, in seconds, a TLS session may be resumed, {@code -1} for the JVM default.
+     */
+    private int sslSessionTimeout = -1;
+
+    /**
+     * The TLS protocols to enable, separated by commas or spaces, empty for the JVM default.
+     */
+    private String sslProtocols = "";
+
+    /**
+     * The TLS cipher suites to enable, separated by commas or spaces, empty for the JVM default.
+     */
+    private String sslCipherSuites = "";
+
+    /**
+     * The plugin owned {@link SSLContext}, created on demand.
+     */
+    private transient volatile SSLContext sslContext;
+
+    /**
+     * The trust managers of the plugin owned {@link SSLContext}, {@code null} for those of the JVM. Only set by the
+     * tests, which trust the certificates of their own servers.
+     */
+    @CheckForNull
+    private transient volatile TrustManager[] trustManagers;
 
     /**
      * Our constructor.
@@ -57,6 +264,7 @@ public class AHC extends Descriptor<AHC> implements Describable<AHC> {
     @SuppressWarnings("unused") // used by Jenkins
     public AHC() {
         super(AHC.class);
+        load();
     }
 
     /**
@@ -66,41 +274,402 @@ public class AHC extends Descriptor<AHC> implements Describable<AHC> {
      * @throws IllegalStateException if executed on a slave JVM.
      */
     public static AsyncHttpClient instance() {
-        Jenkins master = Jenkins.getInstance();
-        if (master == null) {
+        return lookup().shared.getInstance();
+    }
+
+    /**
+     * Returns the named {@link AsyncHttpClient} instance. Named instances have their own connection pool, limits and
+     * metrics, so that a consumer flooding a slow endpoint cannot starve the other consumers of connections, but they
+     * share the I/O threads of the {@link SharedNettyResources} with the shared instance. They are configured like the
+     * shared instance, then tuned by the {@link ClientProfile} with the same name, if any, and follow the same
+     * lifecycle.
+     *
+     * @param name the name of the instance, {@code null} or empty for the shared instance.
+     * @return the named {@link AsyncHttpClient} instance.
+     * @throws IllegalStateException if executed on a slave JVM.
+     * @since 1.9.40.1
+     */
+    public static AsyncHttpClient instance(@CheckForNull String name) {
+        if (StringUtils.isEmpty(name)) {
+            return instance();
+        }
+        return lookup().pool(name).getInstance();
+    }
+
+    /**
+     * Returns the opt-in cache that revalidates stored {@code GET} responses with conditional requests, for consumers
+     * that poll the same URLs over and over.
+     *
+     * @return the response cache.
+     * @throws IllegalStateException if executed on a slave JVM.
+     * @since 1.9.40.1
+     */
+    public static ResponseCache responseCache() {
+        return lookup().getResponseCache();
+    }
+
+    /**
+     * Returns the opt-in layer that collapses identical concurrent {@code GET} and {@code HEAD} requests into a single
+     * upstream request, for consumers that many builds call at the same moment.
+     *
+     * @return the request coalescer.
+     * @throws IllegalStateException if executed on a slave JVM.
+     * @since 1.9.40.1
+     */
+    public static RequestCoalescer coalescer() {
+        return lookup().getCoalescer();
+    }
+
+    /**
+     * Returns the {@link AHC} descriptor of the current master.
+     *
+     * @return the {@link AHC} descriptor.
+     * @throws IllegalStateException if executed on a slave JVM.
+     */
+    private static AHC lookup() {
+        AHC ahc = lookupOrNull();
+        if (ahc == null) {
             throw new IllegalStateException("The shared AsyncHttpClient instance is only available on the master");
         }
-        return AHC.class.cast(master.getDescriptorOrDie(AHC.class)).getInstance();
+        return ahc;
     }
 
     /**
-     * Get the instance, refreshing if needed and creating on demand.
+     * Returns the {@link AHC} descriptor of the current master, if any.
      *
-     * @return the instance.
+     * @return the {@link AHC} descriptor or {@code null} if not on the master or if it is not loaded yet.
      */
-    @SuppressFBWarnings(value = "NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE", justification = "https://github.com/jenkinsci/jenkins/pull/2094")
-    private synchronized AsyncHttpClient getInstance() {
-        if (instance != null) {
-            ProxyConfiguration proxy = Jenkins.getInstance().proxy;
-            if (!equals(proxy, memo)) {
-                logger.fine("Proxy configuration changed, recycling shared AsyncHttpClient instance");
-                if (instance != null) {
-                    instance.close();
+    @CheckForNull
+    static AHC lookupOrNull() {
+        Jenkins master = Jenkins.getInstanceOrNull();
+        if (master == null) {
+            return null;
+        }
+        Lookup l = lookup;
+        if (l == null || l.master != master) {
+            AHC ahc = master.getDescriptorByType(AHC.class);
+            if (ahc == null) {
+                return null;
+            }
+            l = new Lookup(master, ahc);
+            lookup = l;
+        }
+        return l.ahc;
+    }
+
+    /**
+     * Returns the response cache, creating it on demand.
+     *
+     * @return the response cache.
+     */
+    ResponseCache getResponseCache() {
+        ResponseCache cache = responseCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = responseCache;
+                if (cache == null) {
+                    cache = new ResponseCache(ResponseCache.MAX_MEMORY_BYTES, ResponseCache.MAX_DISK_BYTES,
+                            ResponseCache.SPILL_THRESHOLD_BYTES, ResponseCache.MAX_BODY_BYTES,
+                            new File(Jenkins.get().getRootDir(), "caches/async-http-client"));
+                    Jmx.register(ResponseCache.getObjectName(), cache);
+                    responseCache = cache;
                 }
-                instance = null;
-                memo = proxy;
             }
         }
-        if (instance == null || instance.isClosed()) {
-            logger.fine("Starting shared AsyncHttpClient instance");
-            instance = new AsyncHttpClient(
-                    new AsyncHttpClientConfig.Builder()
-                            .setProxyServer(AHCUtils.getProxyServer())
-                            .setHostnameVerifier(AHCUtils.getHostnameVerifier())
-                            .setSSLContext(AHCUtils.getSSLContext())
-                            .build());
+        return cache;
+    }
+
+    /**
+     * Returns the response cache if it was created.
+     *
+     * @return the response cache or {@code null}.
+     */
+    @CheckForNull
+    ResponseCache getResponseCacheOrNull() {
+        return responseCache;
+    }
+
+    /**
+     * Returns the request coalescer, creating it on demand.
+     *
+     * @return the request coalescer.
+     */
+    RequestCoalescer getCoalescer() {
+        RequestCoalescer c = coalescer;
+        if (c == null) {
+            synchronized (this) {
+                c = coalescer;
+                if (c == null) {
+                    c = new RequestCoalescer();
+                    Jmx.register(RequestCoalescer.getObjectName(), c);
+                    coalescer = c;
+                }
+            }
         }
-        return instance;
+        return c;
+    }
+
+    /**
+     * Returns the request coalescer if it was created.
+     *
+     * @return the request coalescer or {@code null}.
+     */
+    @CheckForNull
+    RequestCoalescer getCoalescerOrNull() {
+        return coalescer;
+    }
+
+    /**
+     * Returns the plugin owned {@link SSLContext}: a context with its own client session cache, tuned with our
+     * global configuration. It is created anew after any change to the TLS settings, which the instances created from
+     * then on use.
+     *
+     * @return the plugin owned {@link SSLContext}.
+     */
+    SSLContext getSSLContext() {
+        SSLContext context = sslContext;
+        if (context == null) {
+            synchronized (this) {
+                context = sslContext;
+                if (context == null) {
+                    context = sslContext = newSSLContext();
+                }
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Creates a plugin owned {@link SSLContext}.
+     *
+     * @return the new context.
+     */
+    private SSLContext newSSLContext() {
+        SSLContext delegate;
+        TrustManager[] trustManagers = this.trustManagers;
+        try {
+            if (trustManagers == null) {
+                // a new instance of the default context: same key and trust managers, but its own session caches
+                delegate = SSLContext.getInstance("Default");
+            } else {
+                delegate = SSLContext.getInstance("TLS");
+                delegate.init(null, trustManagers, null);
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("JLS SSLContext.getInstance(\"Default\") is supposed to work", e);
+        } catch (KeyManagementException e) {
+            throw new IllegalStateException("Could not initialize a TLS context", e);
+        }
+        SSLSessionContext sessions = delegate.getClientSessionContext();
+        if (sessions != null) {
+            if (sslSessionCacheSize >= 0) {
+                sessions.setSessionCacheSize(sslSessionCacheSize);
+            }
+            if (sslSessionTimeout >= 0) {
+                sessions.setSessionTimeout(sslSessionTimeout);
+            }
+        }
+        return new TunedSSLContext(delegate, split(sslProtocols), split(sslCipherSuites));
+    }
+
+    /**
+     * Replaces the trust managers of the plugin owned {@link SSLContext}, for the instances created from now on.
+     *
+     * @param trustManagers the trust managers, {@code null} for those of the JVM.
+     */
+    void setTrustManagers(@CheckForNull TrustManager[] trustManagers) {
+        this.trustManagers = trustManagers == null ? null : trustManagers.clone();
+        sslContext = null;
+    }
+
+    /**
+     * Splits a list separated by commas or white space.
+     *
+     * @param list the list.
+     * @return the entries.
+     */
+    private static String[] split(String list) {
+        return StringUtils.isBlank(list) ? new String[0] : StringUtils.split(list, ", \t\n");
+    }
+
+    /**
+     * Returns the named pool, creating it on demand.
+     *
+     * @param name the name.
+     * @return the pool.
+     */
+    private Pool pool(String name) {
+        Pool pool = pools.get(name);
+        if (pool == null) {
+            Pool created = new Pool(name);
+            pool = pools.putIfAbsent(name, created);
+            if (pool == null) {
+                pool = created;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Returns the metrics of the shared instance and of the named instances.
+     *
+     * @return the metrics, the shared instance first.
+     */
+    List<ClientMetrics> getMetrics() {
+        List<ClientMetrics> metrics = new ArrayList<ClientMetrics>();
+        metrics.add(shared.metrics);
+        for (Pool pool : pools.values()) {
+            metrics.add(pool.metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * Creates the configuration for a new instance from the master's proxy settings, our global configuration and
+     * the matching {@link ClientProfile}, if any.
+     *
+     * @param name           the name of the instance, {@code null} for the shared instance.
+     * @param metrics        the metrics of the instance.
+     * @param circuitBreaker the circuit breaker of the instance, if it has one.
+     * @return the configuration builder.
+     */
+    private AsyncHttpClientConfig.Builder newConfigBuilder(@CheckForNull String name, ClientMetrics metrics,
+                                                           @CheckForNull CircuitBreaker circuitBreaker) {
+        AsyncHttpClientConfig.Builder builder = new AsyncHttpClientConfig.Builder()
+                .setProxyServerSelector(AHCUtils.getProxyServerSelector())
+                .setHostnameVerifier(AHCUtils.getHostnameVerifier())
+                .setSSLContext(AHCUtils.getSSLContext())
+                .setMaxConnections(maxConnections)
+                .setMaxConnectionsPerHost(maxConnectionsPerHost)
+                .setPooledConnectionIdleTimeout(pooledConnectionIdleTimeout)
+                .setConnectTimeout(connectTimeout)
+                .setReadTimeout(readTimeout)
+                .setRequestTimeout(requestTimeout)
+                .setAllowPoolingConnections(allowPoolingConnections)
+                .setAllowPoolingSslConnections(allowPoolingSslConnections);
+        if (circuitBreaker != null) {
+            builder.addRequestFilter(circuitBreaker);
+        }
+        ClientProfile profile = name == null ? null : ClientProfile.byName(name);
+        if (profile != null) {
+            profile.configure(builder);
+        }
+        return builder;
+    }
+
+    /**
+     * Creates the per host concurrency limit of a new instance from our global configuration.
+     *
+     * @param metrics the metrics of the instance.
+     * @return the limiter or {@code null} if there is no limit.
+     */
+    @CheckForNull
+    private HostConcurrencyLimiter newLimiter(ClientMetrics metrics) {
+        // requests wait for a permit at most as long as they may take to complete
+        return maxRequestsPerHost > 0
+                ? new HostConcurrencyLimiter(maxRequestsPerHost, maxQueuedRequestsPerHost, requestTimeout, metrics)
+                : null;
+    }
+
+    /**
+     * Creates the retry policy of a new instance from our global configuration.
+     *
+     * @return the retry policy or {@code null} if requests should not be retried.
+     */
+    @CheckForNull
+    private RetryPolicy newRetryPolicy() {
+        retryBudget.setPercent(retryBudgetPercent);
+        return maxRetries > 0 ? new RetryPolicy(maxRetries, retryBackoff, retryBudget) : null;
+    }
+
+    /**
+     * Returns the host name cache of the managed instances.
+     *
+     * @return the host name cache.
+     */
+    DnsCache getDnsCache() {
+        return dnsCache;
+    }
+
+    /**
+     * Configures the host name cache of a new instance from our global configuration.
+     *
+     * @return the host name cache or {@code null} if the client should resolve the hosts itself.
+     */
+    @CheckForNull
+    private DnsCache newDnsCache() {
+        if (dnsCacheTtl <= 0) {
+            return null;
+        }
+        dnsCache.setTtl(TimeUnit.SECONDS.toMillis(dnsCacheTtl), TimeUnit.SECONDS.toMillis(dnsNegativeCacheTtl));
+        return dnsCache;
+    }
+
+    /**
+     * Returns whether the shared instance should be created at startup to pre-warm its connections.
+     *
+     * @return {@code true} if there are hosts to pre-warm.
+     */
+    boolean isPreWarming() {
+        return preWarmConnections > 0 && !StringUtils.isBlank(preWarmHosts);
+    }
+
+    /**
+     * Returns the thresholds of the circuit breaker of an instance.
+     *
+     * @param name the name of the instance, {@code null} for the shared instance.
+     * @return the thresholds or {@code null} if the instance has no circuit breaker.
+     */
+    @CheckForNull
+    private CircuitBreakerSettings circuitBreakerSettings(@CheckForNull String name) {
+        if (name == null) {
+            return circuitBreaker ? new CircuitBreakerSettings() : null;
+        }
+        ClientProfile profile = ClientProfile.byName(name);
+        return profile == null ? null : profile.getCircuitBreaker();
+    }
+
+    /**
+     * Returns whether an instance leaves encoded bodies to the handlers that decompress them.
+     *
+     * @param name the name of the instance, {@code null} for the shared instance.
+     * @return {@code true} if the {@link ClientProfile} of the instance opts in.
+     */
+    private static boolean isDecompressingInHandlers(@CheckForNull String name) {
+        ClientProfile profile = ClientProfile.byName(name);
+        return profile != null && profile.isDecompressingInHandlers();
+    }
+
+    /**
+     * Lets a replaced instance complete its requests in flight, then closes it in the background.
+     *
+     * @param client the replaced instance.
+     */
+    private void retire(ManagedAsyncHttpClient client) {
+        for (Iterator<ManagedAsyncHttpClient> i = draining.iterator(); i.hasNext(); ) {
+            if (i.next().isClosed()) {
+                i.remove();
+            }
+        }
+        draining.add(client);
+        client.drainAndClose(drainTimeoutSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Marks the shared and named instances as stale so that the next caller of {@link #instance()} rebuilds them.
+     */
+    void invalidate() {
+        version.incrementAndGet();
+    }
+
+    /**
+     * Returns the master's current proxy settings.
+     *
+     * @return the master's current proxy settings or {@code null} if there are none.
+     */
+    private static ProxyConfiguration currentProxy() {
+        Jenkins master = Jenkins.getInstanceOrNull();
+        return master == null ? null : master.proxy;
     }
 
     /**
@@ -129,23 +698,223 @@ public class AHC extends Descriptor<AHC> implements Describable<AHC> {
         if (!StringUtils.equals(p1.getEncryptedPassword(), p2.getEncryptedPassword())) {
             return false;
         }
+        if (!StringUtils.equals(p1.getNoProxyHost(), p2.getNoProxyHost())) {
+            return false;
+        }
         return true;
     }
 
     /**
-     * Shut down the instance if it exists.
+     * Shut down the shared and named instances if they exist.
      */
     synchronized void shutdown() {
-        if (instance != null) {
-            if (!instance.isClosed()) {
-                logger.fine("Shutting down shared AsyncHttpClient instance");
-                instance.close();
+        shared.shutdown();
+        for (Pool pool : pools.values()) {
+            pool.shutdown();
+        }
+        pools.clear();
+        for (ManagedAsyncHttpClient client : draining) {
+            if (!client.isClosed()) {
+                logger.fine("Shutting down replaced AsyncHttpClient instance");
+                client.close();
             }
-            instance = null;
-            memo = null;
+        }
+        draining.clear();
+        ResponseCache cache = responseCache;
+        if (cache != null) {
+            Jmx.unregister(ResponseCache.getObjectName());
+            cache.clear();
+            responseCache = null;
+        }
+        if (getCoalescerOrNull() != null) {
+            Jmx.unregister(RequestCoalescer.getObjectName());
+            coalescer = null;
+        }
+        Lookup l = lookup;
+        if (l != null && l.ahc == this) {
+            lookup = null;
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
+        req.bindJSON(this, json);
+        save();
+        dnsCache.clear();
+        // the shared instance is rebuilt by the next caller, the current one drains in the background
+        invalidate();
+        return true;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    @DataBoundSetter
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections < 0 ? -1 : maxConnections;
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    @DataBoundSetter
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost < 0 ? -1 : maxConnectionsPerHost;
+    }
+
+    public int getPooledConnectionIdleTimeout() {
+        return pooledConnectionIdleTimeout;
+    }
+
+    @DataBoundSetter
+    public void setPooledConnectionIdleTimeout(int pooledConnectionIdleTimeout) {
+        this.pooledConnectionIdleTimeout = pooledConnectionIdleTimeout;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    @DataBoundSetter
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    @DataBoundSetter
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public int getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    @DataBoundSetter
+    public void setRequestTimeout(int requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+
+    public boolean isAllowPoolingConnections() {
+        return allowPoolingConnections;
+    }
+
+    @DataBoundSetter
+    public void setAllowPoolingConnections(boolean allowPoolingConnections) {
+        this.allowPoolingConnections = allowPoolingConnections;
+    }
+
+    public boolean isAllowPoolingSslConnections() {
+        return allowPoolingSslConnections;
+    }
+
+    @DataBoundSetter
+    public void setAllowPoolingSslConnections(boolean allowPoolingSslConnections) {
+        this.allowPoolingSslConnections = allowPoolingSslConnections;
+    }
+
+    public int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    @DataBoundSetter
+    public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        this.maxRequestsPerHost = maxRequestsPerHost <= 0 ? -1 : maxRequestsPerHost;
+    }
+
+    public int getMaxQueuedRequestsPerHost() {
+        return maxQueuedRequestsPerHost;
+    }
+
+    @DataBoundSetter
+    public void setMaxQueuedRequestsPerHost(int maxQueuedRequestsPerHost) {
+        this.maxQueuedRequestsPerHost = Math.max(0, maxQueuedRequestsPerHost);
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    @DataBoundSetter
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = Math.max(0, maxRetries);
+    }
+
+    public int getRetryBackoff() {
+        return retryBackoff;
+    }
+
+    @DataBoundSetter
+    public void setRetryBackoff(int retryBackoff) {
+        this.retryBackoff = Math.max(1, retryBackoff);
+    }
+
+    public int getRetryBudgetPercent() {
+        return retryBudgetPercent;
+    }
+
+    @DataBoundSetter
+    public void setRetryBudgetPercent(int retryBudgetPercent) {
+        this.retryBudgetPercent = Math.max(0, Math.min(100, retryBudgetPercent));
+    }
+
+    public boolean isCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    @DataBoundSetter
+    public void setCircuitBreaker(boolean circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public int getSslSessionCacheSize() {
+        return sslSessionCacheSize;
+    }
+
+    @DataBoundSetter
+    public void setSslSessionCacheSize(int sslSessionCacheSize) {
+        this.sslSessionCacheSize = sslSessionCacheSize < 0 ? -1 : sslSessionCacheSize;
+        sslContext = null;
+    }
+
+    public int getSslSessionTimeout() {
+        return sslSessionTimeout;
+    }
+
+    @DataBoundSetter
+    public void setSslSessionTimeout(int sslSessionTimeout) {
+        this.sslSessionTimeout = sslSessionTimeout < 0 ? -1 : sslSessionTimeout;
+        sslContext = null;
+    }
+
+    public String getSslProtocols() {
+        return sslProtocols;
+    }
+
+    @DataBoundSetter
+    public void setSslProtocols(String sslProtocols) {
+        this.sslProtocols = StringUtils.trimToEmpty(sslProtocols);
+        sslContext = null;
+    }
+
+    public String getSslCipherSuites() {
+        return sslCipherSuites;
+    }
+
+    @DataBoundSetter
+    public void setSslCipherSuites(String sslCipherSuites) {
+        this.sslCipherSuites = StringUtils.trimToEmpty(sslCipherSuites);
+        sslContext = null;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -155,6 +924,51 @@ public class AHC extends Descriptor<AHC> implements Describable<AHC> {
         return (AHC) Jenkins.getInstance().getDescriptor(AHC.class);
     }
 
+    public int getDnsCacheTtl() {
+        return dnsCacheTtl;
+    }
+
+    @DataBoundSetter
+    public void setDnsCacheTtl(int dnsCacheTtl) {
+        this.dnsCacheTtl = Math.max(0, dnsCacheTtl);
+    }
+
+    public int getDnsNegativeCacheTtl() {
+        return dnsNegativeCacheTtl;
+    }
+
+    @DataBoundSetter
+    public void setDnsNegativeCacheTtl(int dnsNegativeCacheTtl) {
+        this.dnsNegativeCacheTtl = Math.max(0, dnsNegativeCacheTtl);
+    }
+
+    public boolean isDirectBuffers() {
+        return directBuffers;
+    }
+
+    @DataBoundSetter
+    public void setDirectBuffers(boolean directBuffers) {
+        this.directBuffers = directBuffers;
+    }
+
+    public String getPreWarmHosts() {
+        return preWarmHosts;
+    }
+
+    @DataBoundSetter
+    public void setPreWarmHosts(String preWarmHosts) {
+        this.preWarmHosts = StringUtils.trimToEmpty(preWarmHosts);
+    }
+
+    public int getPreWarmConnections() {
+        return preWarmConnections;
+    }
+
+    @DataBoundSetter
+    public void setPreWarmConnections(int preWarmConnections) {
+        this.preWarmConnections = Math.max(0, preWarmConnections);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -163,4 +977,213 @@ public class AHC extends Descriptor<AHC> implements Describable<AHC> {
         return "";
     }
 
+    /**
+     * Holds the current generation of the shared instance or of a named instance.
+     */
+    private final class Pool {
+        /**
+         * The name of the instance, {@code null} for the shared instance.
+         */
+        @CheckForNull
+        private final String name;
+
+        /**
+         * The metrics of all the generations of the instance.
+         */
+        private final ClientMetrics metrics;
+
+        /**
+         * The circuit breaker of the instance, kept across generations so that recycling does not close the circuits.
+         */
+        @CheckForNull
+        private CircuitBreaker circuitBreaker;
+
+        /**
+         * The currently published instance, read without locking by {@link #getInstance()}.
+         */
+        private volatile Generation generation;
+
+        /**
+         * Whether {@link #metrics} is registered with JMX, from the first generation until {@link #shutdown()}.
+         */
+        private boolean registered; // guarded by this
+
+        private Pool(@CheckForNull String name) {
+            this.name = name;
+            this.metrics = new ClientMetrics(name);
+        }
+
+        /**
+         * Get the instance, refreshing if needed and creating on demand.
+         * <p>
+         * The common case, where neither the configuration nor the proxy settings have changed since the instance
+         * was published, is a couple of volatile reads and does not take any lock.
+         *
+         * @return the instance.
+         */
+        private AsyncHttpClient getInstance() {
+            Generation g = generation;
+            if (g != null && g.version == version.get() && g.proxy == currentProxy() && !g.client.isClosed()) {
+                return g.client;
+            }
+            return refreshInstance();
+        }
+
+        /**
+         * Slow path of {@link #getInstance()}: (re)creates the instance if it is missing, closed or stale.
+         *
+         * @return the instance.
+         */
+        private synchronized AsyncHttpClient refreshInstance() {
+            ProxyConfiguration proxy = currentProxy();
+            long v = version.get();
+            Generation g = generation;
+            if (g != null && !g.client.isClosed()) {
+                if (g.version == v && AHC.this.equals(proxy, g.proxy)) {
+                    if (g.proxy != proxy) {
+                        // same settings, new object: remember it so the fast path can use the identity check again
+                        generation = new Generation(g.client, proxy, v);
+                    }
+                    return g.client;
+                }
+                logger.log(Level.FINE, "Configuration changed, recycling {0}", describe());
+                retire(g.client);
+            }
+            logger.log(Level.FINE, "Starting {0}", describe());
+            if (!registered) {
+                // only the pool that made it into the map gets this far, and the shared pool again after a shutdown
+                Jmx.register(metrics.getObjectName(), metrics);
+                registered = true;
+            }
+            CircuitBreakerSettings settings = circuitBreakerSettings(name);
+            if (settings == null) {
+                circuitBreaker = null;
+            } else if (circuitBreaker == null || !settings.equals(circuitBreaker.getSettings())) {
+                circuitBreaker = new CircuitBreaker(settings, metrics);
+            }
+            metrics.setCircuitBreaker(circuitBreaker);
+            ManagedAsyncHttpClient client = AHCUtils.newManagedAsyncHttpClient(
+                    newConfigBuilder(name, metrics, circuitBreaker), metrics, newRetryPolicy(), newDnsCache(),
+                    newLimiter(metrics), directBuffers, isDecompressingInHandlers(name));
+            generation = new Generation(client, proxy, v);
+            if (name == null && isPreWarming()) {
+                preWarm(client);
+            }
+            return client;
+        }
+
+        /**
+         * Pre-warms the connections of a new generation in the background, off the thread that asked for the
+         * instance.
+         *
+         * @param client the new generation.
+         */
+        private void preWarm(final ManagedAsyncHttpClient client) {
+            final List<String> urls = ConnectionWarmer.parse(split(preWarmHosts));
+            final int connections = preWarmConnections;
+            Timer.get().submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (!client.isClosed()) {
+                        ConnectionWarmer.warmUp(client, urls, connections, metrics);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Shut down the instance if it exists.
+         */
+        private synchronized void shutdown() {
+            if (registered) {
+                Jmx.unregister(metrics.getObjectName());
+                registered = false;
+            }
+            Generation g = generation;
+            if (g != null) {
+                if (!g.client.isClosed()) {
+                    logger.log(Level.FINE, "Shutting down {0}", describe());
+                    g.client.close();
+                }
+                generation = null;
+            }
+        }
+
+        /**
+         * Describes the instance for logging.
+         *
+         * @return the description.
+         */
+        private String describe() {
+            return name == null ? "shared AsyncHttpClient instance" : "AsyncHttpClient instance '" + name + "'";
+        }
+    }
+
+    /**
+     * An immutable snapshot of the published instance and what it was built from.
+     */
+    private static final class Generation {
+        /**
+         * The client.
+         */
+        private final ManagedAsyncHttpClient client;
+        /**
+         * The proxy settings the client was built with.
+         */
+        private final ProxyConfiguration proxy;
+        /**
+         * The value of {@link AHC#version} the client was built at.
+         */
+        private final long version;
+
+        private Generation(ManagedAsyncHttpClient client, ProxyConfiguration proxy, long version) {
+            this.client = client;
+            this.proxy = proxy;
+            this.version = version;
+        }
+    }
+
+    /**
+     * Caches the {@link AHC} descriptor of a specific {@link Jenkins} instance.
+     */
+    private static final class Lookup {
+        /**
+         * The master the descriptor belongs to.
+         */
+        private final Jenkins master;
+        /**
+         * The descriptor.
+         */
+        private final AHC ahc;
+
+        private Lookup(Jenkins master, AHC ahc) {
+            this.master = master;
+            this.ahc = ahc;
+        }
+    }
+
+    /**
+     * Recycles the shared instance when the proxy settings are saved.
+     *
+     * @since 1.9.40.1
+     */
+    @Extension
+    @Restricted(NoExternalUse.class)
+    public static class ProxyConfigurationListener extends SaveableListener {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof ProxyConfiguration) {
+                Jenkins master = Jenkins.getInstanceOrNull();
+                AHC ahc = master == null ? null : master.getDescriptorByType(AHC.class);
+                if (ahc != null) {
+                    ahc.invalidate();
+                }
+            }
+        }
+    }
+
 }
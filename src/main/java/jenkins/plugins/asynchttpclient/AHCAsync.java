@@ -0,0 +1,219 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.ListenableFuture;
+import com.ning.http.client.Request;
+import com.ning.http.client.Response;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link CompletableFuture} facade over the clients of the plugin, for consumers that would rather compose
+ * responses than block a thread on {@link ListenableFuture#get()} for every request.
+ * <p>
+ * The futures are completed when the provider reports the outcome of the request, without any thread waiting for it,
+ * on the executor given here: by default a small pool of daemon threads shared by all the consumers, so that the I/O
+ * threads never complete them. Only the completion is moved there: a stage chained without an explicit executor, such
+ * as {@code thenApply}, runs on whichever thread completes the future it depends on, usually a thread of that
+ * executor, but on the calling thread if that future is already done. Chain slow or blocking callbacks with the
+ * {@code Async} variants and an executor of your choice. Cancelling a future cancels its request.
+ * </p>
+ * <pre>
+ * List&lt;CompletableFuture&lt;Response&gt;&gt; responses = new ArrayList&lt;&gt;();
+ * for (String url : urls) {
+ *     responses.add(AHCAsync.execute(new RequestBuilder().setUrl(url).build()));
+ * }
+ * CompletableFuture.allOf(responses.toArray(new CompletableFuture[0])).thenRun(...);
+ * </pre>
+ * <p>
+ * The size of the default pool is set with the {@code jenkins.plugins.asynchttpclient.AHCAsync.threads} system
+ * property. Setting {@code jenkins.plugins.asynchttpclient.AHCAsync.virtualThreads} to {@code true} runs the callbacks
+ * on virtual threads instead, on Java versions that have them.
+ * </p>
+ *
+ * @since 1.9.40.1
+ */
+public final class AHCAsync {
+
+    /**
+     * Our logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(AHCAsync.class.getName());
+
+    /**
+     * The number of threads of the default executor.
+     */
+    private static final int THREADS = Integer.getInteger(AHCAsync.class.getName() + ".threads",
+            Math.max(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Whether the default executor uses virtual threads, where available.
+     */
+    private static final boolean VIRTUAL_THREADS = Boolean.getBoolean(AHCAsync.class.getName() + ".virtualThreads");
+
+    /**
+     * Do not instantiate.
+     */
+    private AHCAsync() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Sends a request with the shared instance, see {@link AHC#instance()}.
+     *
+     * @param request the request.
+     * @return the future of the response, completed on the {@link #defaultExecutor()}.
+     * @throws IllegalStateException if executed on a slave JVM.
+     */
+    @NonNull
+    public static CompletableFuture<Response> execute(@NonNull Request request) {
+        return execute(AHC.instance(), request, defaultExecutor());
+    }
+
+    /**
+     * Sends a request.
+     *
+     * @param client   the client, e.g. {@link AHC#instance(String)}.
+     * @param request  the request.
+     * @param executor where the future is completed.
+     * @return the future of the response.
+     */
+    @NonNull
+    public static CompletableFuture<Response> execute(@NonNull AsyncHttpClient client, @NonNull Request request,
+                                                      @NonNull Executor executor) {
+        try {
+            return toCompletableFuture(client.executeRequest(request), executor);
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+    }
+
+    /**
+     * Sends a request with a handler of its own, e.g. one from {@link AHCUtils#streamTo}.
+     *
+     * @param client   the client, e.g. {@link AHC#instance(String)}.
+     * @param request  the request.
+     * @param handler  the handler of the response.
+     * @param executor where the future is completed.
+     * @param <T>      the type of the result of the handler.
+     * @return the future of the result of the handler.
+     */
+    @NonNull
+    public static <T> CompletableFuture<T> execute(@NonNull AsyncHttpClient client, @NonNull Request request,
+                                                   @NonNull AsyncHandler<T> handler, @NonNull Executor executor) {
+        try {
+            return toCompletableFuture(client.executeRequest(request, handler), executor);
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+    }
+
+    /**
+     * Adapts a {@link ListenableFuture}. Cancelling the adapted future cancels the original one.
+     *
+     * @param future   the future.
+     * @param executor where the adapted future is completed.
+     * @param <T>      the type of the result.
+     * @return the adapted future.
+     */
+    @NonNull
+    public static <T> CompletableFuture<T> toCompletableFuture(@NonNull final ListenableFuture<T> future,
+                                                               @NonNull Executor executor) {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        result.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable failure) {
+                if (result.isCancelled()) {
+                    future.cancel(true);
+                }
+            }
+        });
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // done, so this does not block
+                    result.complete(future.get());
+                } catch (ExecutionException e) {
+                    result.completeExceptionally(e.getCause());
+                } catch (CancellationException e) {
+                    result.cancel(false);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    result.completeExceptionally(e);
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+        }, executor);
+        return result;
+    }
+
+    /**
+     * Returns the executor shared by the consumers that do not bring their own: a pool of daemon threads or, if
+     * configured and available, virtual threads.
+     *
+     * @return the default executor.
+     */
+    @NonNull
+    public static Executor defaultExecutor() {
+        return ExecutorHolder.EXECUTOR;
+    }
+
+    /**
+     * Returns a future failed with an exception.
+     *
+     * @param failure the exception.
+     * @param <T>     the type of the result.
+     * @return the failed future.
+     */
+    private static <T> CompletableFuture<T> failed(Throwable failure) {
+        CompletableFuture<T> result = new CompletableFuture<T>();
+        result.completeExceptionally(failure);
+        return result;
+    }
+
+    /**
+     * Resource holder for the default executor, created on first use.
+     */
+    private static final class ExecutorHolder {
+        /**
+         * The singleton.
+         */
+        private static final Executor EXECUTOR = newExecutor();
+
+        /**
+         * Creates the default executor.
+         *
+         * @return the default executor.
+         */
+        private static Executor newExecutor() {
+            if (VIRTUAL_THREADS) {
+                try {
+                    return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                } catch (ReflectiveOperationException e) {
+                    LOGGER.log(Level.INFO, "Virtual threads are not available on this JVM, using {0} threads",
+                            THREADS);
+                }
+            }
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new NamingThreadFactory(new DaemonThreadFactory(), "AsyncHttpClient callback"));
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package jenkins.plugins.asynchttpclient;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.Plugin;
 import jenkins.model.Jenkins;
+import jenkins.util.Timer;
 
 /**
  * @author stephenc
@@ -10,8 +11,47 @@ import jenkins.model.Jenkins;
  */
 public class AHCPlugin extends Plugin {
 
+    /**
+     * The plugin's own reference to the shared Netty resources.
+     */
+    private SharedNettyResources nettyResources;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void start() throws Exception {
+        super.start();
+        nettyResources = SharedNettyResources.retain();
+        Jmx.register(ConnectionMetrics.getObjectName(), ConnectionMetrics.INSTANCE);
+        Jmx.register(ClientMetrics.UNMANAGED.getObjectName(), ClientMetrics.UNMANAGED);
+    }
+
     /**
      * {@inheritDoc}
+     * <p>
+     * Creates the shared instance right away if it has hosts to pre-warm, so that the first requests after startup
+     * find their connections open.
+     */
+    @Override
+    public void postInitialize() throws Exception {
+        super.postInitialize();
+        AHC ahc = AHC.lookupOrNull();
+        if (ahc != null && ahc.isPreWarming()) {
+            Timer.get().submit(new Runnable() {
+                @Override
+                public void run() {
+                    AHC.instance();
+                }
+            });
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Closes the shared instance and all the named instances, then releases the plugin's reference to the shared
+     * Netty resources.
      */
     @SuppressWarnings("unchecked")
     @SuppressFBWarnings(value = "NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE", justification = "https://github.com/jenkinsci/jenkins/pull/2094")
@@ -21,6 +61,12 @@ public class AHCPlugin extends Plugin {
         if (ahc != null) {
             ahc.shutdown();
         }
+        Jmx.unregister(ConnectionMetrics.getObjectName());
+        Jmx.unregister(ClientMetrics.UNMANAGED.getObjectName());
+        if (nettyResources != null) {
+            nettyResources.release();
+            nettyResources = null;
+        }
         super.stop();
     }
 }
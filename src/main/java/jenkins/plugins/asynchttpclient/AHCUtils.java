@@ -15,13 +15,37 @@
  */
 package jenkins.plugins.asynchttpclient;
 
+import com.ning.http.client.AsyncHandler;
 import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.HttpResponseHeaders;
+import com.ning.http.client.HttpResponseStatus;
+import com.ning.http.client.ListenableFuture;
 import com.ning.http.client.ProxyServer;
+import com.ning.http.client.ProxyServerSelector;
+import com.ning.http.client.Request;
+import com.ning.http.client.RequestBuilder;
+import com.ning.http.client.uri.Uri;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.FilePath;
 import hudson.ProxyConfiguration;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSession;
@@ -29,6 +53,11 @@ import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 import jenkins.model.Jenkins;
 import jenkins.plugins.asynchttpclient.util.DefaultHostnameVerifier;
+import jenkins.plugins.asynchttpclient.util.HandshakeStatistics;
+import jenkins.plugins.asynchttpclient.util.NonProxyHostMatcher;
+import jenkins.plugins.asynchttpclient.util.VerificationCache;
+import jenkins.util.Timer;
+import org.apache.commons.lang.StringUtils;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 
@@ -37,6 +66,26 @@ import org.kohsuke.accmod.restrictions.NoExternalUse;
  */
 public final class AHCUtils {
 
+    /**
+     * Our logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(AHCUtils.class.getName());
+
+    /**
+     * Runs the completion listeners on the thread completing the request.
+     */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * The compiled "no proxy host" patterns of the most recent proxy settings.
+     */
+    private static volatile NoProxyHosts noProxyHosts;
+
     /**
      * Do not instantiate.
      */
@@ -44,6 +93,264 @@ public final class AHCUtils {
         throw new IllegalAccessError("Utility class");
     }
 
+    /**
+     * Creates an {@link AsyncHttpClient} that uses the Netty I/O threads and timer shared by all the clients of the
+     * plugin instead of starting its own. The shared threads are released once the client is closed and the plugin
+     * has stopped, so the client must be {@link AsyncHttpClient#close() closed} when no longer needed. Its requests
+     * are recorded together with those of all the other clients created this way, under the name {@code unmanaged}.
+     *
+     * @param builder the configuration of the client, any provider configuration set on it is replaced.
+     * @return the client.
+     * @since 1.9.40.1
+     */
+    public static AsyncHttpClient newAsyncHttpClient(AsyncHttpClientConfig.Builder builder) {
+        return newAsyncHttpClient(builder, false);
+    }
+
+    /**
+     * Creates an {@link AsyncHttpClient} that uses the shared Netty resources, see
+     * {@link #newAsyncHttpClient(AsyncHttpClientConfig.Builder)}, optionally reading and writing through chunked direct
+     * buffers instead of allocating a heap buffer for every chunk of every body. The direct buffers are carved out of
+     * chunks of direct memory shared by all the clients, which are freed once none of their buffers is reachable: the
+     * memory they hold is reported by {@code ConnectionMetrics} on the {@code async-http-client} page of Jenkins and
+     * over JMX. The JVM must allow enough direct memory for them, see {@code -XX:MaxDirectMemorySize}.
+     *
+     * @param builder       the configuration of the client, any provider configuration set on it is replaced.
+     * @param directBuffers {@code true} to use chunked direct buffers, {@code false} for heap buffers.
+     * @return the client.
+     * @since 1.9.40.1
+     */
+    public static AsyncHttpClient newAsyncHttpClient(AsyncHttpClientConfig.Builder builder, boolean directBuffers) {
+        return newManagedAsyncHttpClient(builder, ClientMetrics.UNMANAGED, null, null, null, directBuffers, false);
+    }
+
+    /**
+     * Creates a {@link ManagedAsyncHttpClient} that uses the shared Netty resources.
+     *
+     * @param builder       the configuration of the client, any provider configuration set on it is replaced.
+     * @param metrics       where the requests of the client are recorded.
+     * @param retryPolicy   when to retry requests, {@code null} to never retry them.
+     * @param dnsCache      where the hosts are resolved, {@code null} to let the client resolve them.
+     * @param limiter       caps the requests in flight to each host, {@code null} for no limit.
+     * @param directBuffers whether the client uses chunked direct buffers rather than heap buffers.
+     * @param encodedBodies whether the provider leaves encoded bodies to the handlers, see
+     *                      {@link ClientProfile#isDecompressingInHandlers()}.
+     * @return the client.
+     */
+    static ManagedAsyncHttpClient newManagedAsyncHttpClient(AsyncHttpClientConfig.Builder builder,
+                                                            ClientMetrics metrics,
+                                                            @CheckForNull RetryPolicy retryPolicy,
+                                                            @CheckForNull DnsCache dnsCache,
+                                                            @CheckForNull HostConcurrencyLimiter limiter,
+                                                            boolean directBuffers, boolean encodedBodies) {
+        SharedNettyResources resources = SharedNettyResources.retain();
+        try {
+            builder.setAsyncHttpClientProviderConfig(resources.newProviderConfig(directBuffers, encodedBodies));
+            return new ManagedAsyncHttpClient(builder.build(), resources, metrics, retryPolicy, dnsCache, limiter,
+                    encodedBodies);
+        } catch (RuntimeException e) {
+            resources.release();
+            throw e;
+        } catch (Error e) {
+            resources.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a handler that writes the body of a successful response to a channel as it arrives, so that large
+     * downloads never sit in the heap: each body part is written from the buffer it was received in, and is garbage as
+     * soon as it is written. The channel is written from its current position and left open.
+     * <p>
+     * The body parts are written on the I/O thread that receives them, so the channel should be a local file rather
+     * than anything that may block for long. Responses other than {@code 2xx} are not written: the future of the
+     * request fails with an {@link IOException} instead. Bodies encoded with {@code gzip} or {@code deflate} are
+     * written decompressed, within a size limit on the instances that opt in, see
+     * {@link #decompressing(AsyncHandler)}.
+     * </p>
+     * <pre>
+     * try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+     *     long length = AHC.instance().executeRequest(request, AHCUtils.streamTo(channel)).get();
+     * }
+     * </pre>
+     *
+     * @param channel where the body goes.
+     * @return the handler, whose result is the number of bytes written.
+     * @since 1.9.40.1
+     */
+    @NonNull
+    public static AsyncHandler<Long> streamTo(@NonNull FileChannel channel) {
+        return decompressing(new FileChannelHandler(channel));
+    }
+
+    /**
+     * Wraps a streaming handler so that it gets bodies encoded with {@code gzip} or {@code deflate} decompressed, as
+     * they arrive, with pooled inflaters and buffers. The body parts given to the handler are only valid during
+     * {@link AsyncHandler#onBodyPartReceived}: handlers that keep them, such as {@code AsyncCompletionHandler}, must not
+     * be wrapped. The request fails once the decompressed body exceeds 1 GiB, or the value of the
+     * {@code jenkins.plugins.asynchttpclient.DecompressingAsyncHandler.maxBytes} system property.
+     * <p>
+     * The Netty provider decompresses every encoded body before any handler sees it, without a size limit, so this
+     * only takes effect on the named instances whose {@link ClientProfile#isDecompressingInHandlers()} opts in, which
+     * leave the bodies encoded. The other clients created through the plugin send the request with the wrapped handler
+     * as is, since its body arrives decompressed already. Clients created otherwise must not be given this handler if
+     * they keep the {@code Content-Encoding} header, see {@code AsyncHttpClientConfig.Builder.setKeepEncodingHeader}.
+     * </p>
+     *
+     * @param handler the handler getting the decompressed body.
+     * @param <T>     the type of the result.
+     * @return the decompressing handler.
+     * @since 1.9.40.1
+     */
+    @NonNull
+    public static <T> AsyncHandler<T> decompressing(@NonNull AsyncHandler<T> handler) {
+        return decompressing(handler, DecompressingAsyncHandler.MAX_BYTES);
+    }
+
+    /**
+     * Wraps a streaming handler so that it gets bodies encoded with {@code gzip} or {@code deflate} decompressed, see
+     * {@link #decompressing(AsyncHandler)}.
+     *
+     * @param handler  the handler getting the decompressed body.
+     * @param maxBytes the maximum size of the decompressed body.
+     * @param <T>      the type of the result.
+     * @return the decompressing handler.
+     * @since 1.9.40.1
+     */
+    @NonNull
+    public static <T> AsyncHandler<T> decompressing(@NonNull AsyncHandler<T> handler, long maxBytes) {
+        return new DecompressingAsyncHandler<T>(handler, maxBytes);
+    }
+
+    /**
+     * Prepares a request that uploads a file without reading it into the heap. On plain connections the Netty provider
+     * hands the file to the kernel as a {@code FileRegion}, which is sent with {@link FileChannel#transferTo} and
+     * never copied into user space; over TLS, which has to encrypt every byte, it reads the file in chunks instead.
+     * Prefer this over {@code setBody(byte[])} or {@code setBody(InputStream)}, which both hold the whole body in
+     * memory.
+     *
+     * @param method the method, typically {@code PUT} or {@code POST}.
+     * @param url    the URL.
+     * @param file   the file to upload.
+     * @return the request builder, with the body set; the provider sends the length of the file.
+     * @since 1.9.40.1
+     */
+    @NonNull
+    public static RequestBuilder prepareUpload(@NonNull String method, @NonNull String url, @NonNull File file) {
+        return new RequestBuilder(method).setUrl(url).setBody(file);
+    }
+
+    /**
+     * Downloads the body of a successful response to a file, with bounded memory wherever the file is. A file on the
+     * master is written directly, see {@link #streamTo(FileChannel)}; a file on an agent is first written to a local
+     * temporary file, then copied to the agent from a {@link Timer} thread so that a slow agent never blocks the I/O
+     * threads. The body is asked for compressed, unless the request says otherwise, and written decompressed.
+     *
+     * @param client  the client sending the request.
+     * @param request the request.
+     * @param target  the file to write, created or truncated, with its parent directories.
+     * @return the future of the number of bytes written.
+     * @throws IOException          if the file cannot be opened.
+     * @throws InterruptedException if interrupted while creating the parent directories on an agent.
+     * @since 1.9.40.1
+     */
+    @NonNull
+    public static ListenableFuture<Long> download(@NonNull AsyncHttpClient client, @NonNull Request request,
+                                                  @NonNull final FilePath target)
+            throws IOException, InterruptedException {
+        final boolean remote = target.isRemote();
+        final File file;
+        if (remote) {
+            FilePath parent = target.getParent();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+            file = File.createTempFile("download", ".tmp");
+        } else {
+            file = new File(target.getRemote());
+            File parent = file.getParentFile();
+            if (parent != null) {
+                Files.createDirectories(parent.toPath());
+            }
+        }
+        final FileChannel channel;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            if (remote) {
+                deleteQuietly(file);
+            }
+            throw e;
+        }
+        final CompletableListenableFuture<Long> result = new CompletableListenableFuture<Long>();
+        final ListenableFuture<Long> upstream;
+        try {
+            Request sent = request;
+            if (request.getHeaders().getFirstValue("Accept-Encoding") == null) {
+                sent = new RequestBuilder(request).setHeader("Accept-Encoding", "gzip, deflate").build();
+            }
+            upstream = client.executeRequest(sent, streamTo(channel));
+        } catch (RuntimeException e) {
+            closeQuietly(channel);
+            if (remote) {
+                deleteQuietly(file);
+            }
+            throw e;
+        }
+        result.setUpstream(upstream);
+        upstream.addListener(new Runnable() {
+            @Override
+            public void run() {
+                closeQuietly(channel);
+                final Long length;
+                try {
+                    length = upstream.get();
+                } catch (ExecutionException e) {
+                    discard(e.getCause());
+                    return;
+                } catch (CancellationException e) {
+                    discard(e);
+                    return;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    discard(e);
+                    return;
+                }
+                if (!remote) {
+                    result.complete(length);
+                    return;
+                }
+                Timer.get().submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            target.copyFrom(new FilePath(file));
+                            result.complete(length);
+                        } catch (IOException | InterruptedException e) {
+                            result.fail(e);
+                        } finally {
+                            deleteQuietly(file);
+                        }
+                    }
+                });
+            }
+
+            /**
+             * Fails the download and deletes the temporary file, if any.
+             *
+             * @param failure why the download failed.
+             */
+            private void discard(Throwable failure) {
+                if (remote) {
+                    deleteQuietly(file);
+                }
+                result.fail(failure);
+            }
+        }, DIRECT);
+        return result;
+    }
+
     /**
      * Get the proxy server.
      *
@@ -57,11 +364,9 @@ public final class AHCUtils {
             final ProxyConfiguration proxy = Jenkins.getInstance().proxy;
             proxyServer = new ProxyServer(proxy.name, proxy.port, proxy.getUserName(), proxy.getPassword());
 
-            if (proxy.getNoProxyHost() != null) {
-                for (String s : proxy.getNoProxyHost().split("[ \t\n,|]+")) {
-                    if (s.length() > 0) {
-                        proxyServer.addNonProxyHost(s);
-                    }
+            for (String s : compileNoProxyHosts(proxy.getNoProxyHost()).patterns) {
+                if (s.length() > 0) {
+                    proxyServer.addNonProxyHost(s);
                 }
             }
         } else {
@@ -70,6 +375,46 @@ public final class AHCUtils {
         return proxyServer;
     }
 
+    /**
+     * Get a proxy server selector for the master's proxy settings. Unlike a {@link ProxyServer} with non proxy hosts,
+     * which checks every pattern in turn for every request, the selector uses a {@link NonProxyHostMatcher} compiled
+     * once per proxy settings, and also understands CIDR ranges.
+     *
+     * @return the proxy server selector or {@code null} if no proxy server required.
+     * @since 1.9.40.1
+     */
+    public static ProxyServerSelector getProxyServerSelector() {
+        Jenkins master = Jenkins.getInstanceOrNull();
+        final ProxyConfiguration proxy = master == null ? null : master.proxy;
+        if (proxy == null) {
+            return null;
+        }
+        final ProxyServer proxyServer =
+                new ProxyServer(proxy.name, proxy.port, proxy.getUserName(), proxy.getPassword());
+        final NonProxyHostMatcher matcher = compileNoProxyHosts(proxy.getNoProxyHost()).matcher;
+        return new ProxyServerSelector() {
+            @Override
+            public ProxyServer select(Uri uri) {
+                return matcher.matches(uri.getHost()) ? null : proxyServer;
+            }
+        };
+    }
+
+    /**
+     * Returns the compiled form of the "no proxy host" patterns, compiling them only when they have changed.
+     *
+     * @param noProxyHost the patterns.
+     * @return the compiled patterns.
+     */
+    private static NoProxyHosts compileNoProxyHosts(String noProxyHost) {
+        NoProxyHosts compiled = noProxyHosts;
+        if (compiled == null || !StringUtils.equals(compiled.source, noProxyHost)) {
+            compiled = new NoProxyHosts(noProxyHost);
+            noProxyHosts = compiled;
+        }
+        return compiled;
+    }
+
     /**
      * Return the default {@link HostnameVerifier} to use with {@link AsyncHttpClient}.
      *
@@ -77,28 +422,83 @@ public final class AHCUtils {
      * @since 1.7.24.1
      */
     public static HostnameVerifier getHostnameVerifier() {
-        return AHC.acceptAnyCertificate ? new HostnameVerifier() {
+        return AHC.acceptAnyCertificate ? VerifierHolder.handshakeStatistics.wrap(new HostnameVerifier() {
             @Override
             public boolean verify(String s, SSLSession sslSession) {
                 return true;
             }
-        } : new DefaultHostnameVerifier();
+        }) : VerifierHolder.hostnameVerifier;
+    }
+
+    /**
+     * Returns the cache of verified certificates of {@link #getHostnameVerifier()}.
+     *
+     * @return the verification cache.
+     */
+    static VerificationCache getVerificationCache() {
+        return VerifierHolder.defaultHostnameVerifier.getVerificationCache();
+    }
+
+    /**
+     * Returns the counts of full and resumed TLS handshakes of the clients using {@link #getHostnameVerifier()}.
+     *
+     * @return the handshake statistics.
+     * @since 1.9.40.1
+     */
+    public static HandshakeStatistics getHandshakeStatistics() {
+        return VerifierHolder.handshakeStatistics;
     }
 
     /**
      * Return the default {@link SSLContext} to use with {@link AsyncHttpClient}.
+     * <p>
+     * On the master this is a context owned by the plugin, with its own client session cache and the session cache,
+     * protocol and cipher suite settings of the global configuration.
      *
      * @return the default {@link SSLContext} to use with {@link AsyncHttpClient}.
      * @since 1.7.24.1
      */
     public static SSLContext getSSLContext() {
+        if (AHC.acceptAnyCertificate) {
+            return ResourceHolder.looseTrustManagerSSLContext;
+        }
+        AHC ahc = AHC.lookupOrNull();
+        if (ahc != null) {
+            return ahc.getSSLContext();
+        }
         try {
-            return AHC.acceptAnyCertificate ? ResourceHolder.looseTrustManagerSSLContext : SSLContext.getDefault();
+            return SSLContext.getDefault();
         } catch (NoSuchAlgorithmException e) {
             throw new IllegalStateException("JLS SSLContext.getDefault() is supposed to work", e);
         }
     }
 
+    /**
+     * Closes a channel, logging rather than throwing any failure.
+     *
+     * @param channel the channel.
+     */
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Could not close the download channel", e);
+        }
+    }
+
+    /**
+     * Deletes a file, logging rather than throwing any failure.
+     *
+     * @param file the file.
+     */
+    private static void deleteQuietly(File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Could not delete " + file, e);
+        }
+    }
+
     /**
      * A blind-trusting {@link X509TrustManager}.
      *
@@ -129,6 +529,131 @@ public final class AHCUtils {
         }
     }
 
+    /**
+     * Writes the body of a successful response to a {@link FileChannel}.
+     *
+     * @since 1.9.40.1
+     */
+    private static final class FileChannelHandler implements AsyncHandler<Long> {
+        /**
+         * Where the body goes.
+         */
+        private final FileChannel channel;
+        /**
+         * The number of bytes written so far.
+         */
+        private long written;
+        /**
+         * The failure to report on completion, if the response is not successful.
+         */
+        @CheckForNull
+        private IOException failure;
+
+        private FileChannelHandler(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onThrowable(Throwable t) {
+            // the future of the request reports it
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public STATE onBodyPartReceived(HttpResponseBodyPart bodyPart) throws Exception {
+            ByteBuffer buffer = bodyPart.getBodyByteBuffer();
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+            return STATE.CONTINUE;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public STATE onStatusReceived(HttpResponseStatus responseStatus) throws Exception {
+            int status = responseStatus.getStatusCode();
+            if (status < 200 || status >= 300) {
+                failure = new IOException("Server returned " + status + " " + responseStatus.getStatusText()
+                        + " for " + responseStatus.getUri());
+                return STATE.ABORT;
+            }
+            return STATE.CONTINUE;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public STATE onHeadersReceived(HttpResponseHeaders headers) throws Exception {
+            return STATE.CONTINUE;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Long onCompleted() throws Exception {
+            if (failure != null) {
+                throw failure;
+            }
+            return written;
+        }
+    }
+
+    /**
+     * The "no proxy host" patterns of some proxy settings, split and compiled.
+     */
+    private static final class NoProxyHosts {
+        /**
+         * The patterns as configured.
+         */
+        private final String source;
+        /**
+         * The individual patterns.
+         */
+        private final String[] patterns;
+        /**
+         * The compiled patterns.
+         */
+        private final NonProxyHostMatcher matcher;
+
+        private NoProxyHosts(String source) {
+            this.source = source;
+            this.patterns = NonProxyHostMatcher.split(source);
+            this.matcher = NonProxyHostMatcher.compile(source);
+        }
+    }
+
+    /**
+     * Resource holder for the shared {@link DefaultHostnameVerifier}, so that all the clients share its cache of
+     * verified certificates and the handshake counters.
+     *
+     * @since 1.9.40.1
+     */
+    private static final class VerifierHolder {
+        /**
+         * The handshake counters.
+         */
+        private static final HandshakeStatistics handshakeStatistics = new HandshakeStatistics();
+
+        /**
+         * The verifier doing the actual work.
+         */
+        private static final DefaultHostnameVerifier defaultHostnameVerifier = new DefaultHostnameVerifier();
+
+        /**
+         * The singleton.
+         */
+        private static final HostnameVerifier hostnameVerifier = handshakeStatistics.wrap(defaultHostnameVerifier);
+    }
+
     /**
      * Resource holder for the {@link LooseTrustManager} singleton.
      *
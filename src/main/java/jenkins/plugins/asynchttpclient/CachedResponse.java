@@ -0,0 +1,238 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.ning.http.client.FluentCaseInsensitiveStringsMap;
+import com.ning.http.client.Response;
+import com.ning.http.client.cookie.Cookie;
+import com.ning.http.client.uri.Uri;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A {@link Response} served by the {@link ResponseCache}: the stored response, with the headers refreshed by the
+ * {@code 304 Not Modified} answer that revalidated it.
+ *
+ * @since 1.9.40.1
+ */
+final class CachedResponse implements Response {
+
+    private final int statusCode;
+
+    private final String statusText;
+
+    private final Uri uri;
+
+    private final FluentCaseInsensitiveStringsMap headers;
+
+    private final List<Cookie> cookies;
+
+    private final byte[] body;
+
+    /**
+     * Constructor.
+     *
+     * @param statusCode the status code.
+     * @param statusText the status text.
+     * @param uri        the URI of the request.
+     * @param headers    the headers, not copied.
+     * @param cookies    the cookies, not copied.
+     * @param body       the body, not copied.
+     */
+    CachedResponse(int statusCode, String statusText, Uri uri, FluentCaseInsensitiveStringsMap headers,
+                   List<Cookie> cookies, byte[] body) {
+        this.statusCode = statusCode;
+        this.statusText = statusText;
+        this.uri = uri;
+        this.headers = headers;
+        this.cookies = cookies;
+        this.body = body;
+    }
+
+    /**
+     * Returns the charset of the body, as the provider's responses do.
+     *
+     * @param charset the requested charset, if any.
+     * @return the charset.
+     */
+    private Charset charset(String charset) {
+        if (charset == null) {
+            String contentType = getContentType();
+            if (contentType != null) {
+                for (String parameter : contentType.split(";")) {
+                    String p = parameter.trim();
+                    if (p.toLowerCase(Locale.ENGLISH).startsWith("charset=")) {
+                        charset = p.substring("charset=".length()).replace("\"", "").trim();
+                    }
+                }
+            }
+        }
+        return charset == null || charset.isEmpty() ? StandardCharsets.ISO_8859_1 : Charset.forName(charset);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getStatusText() {
+        return statusText;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] getResponseBodyAsBytes() {
+        return body.clone();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ByteBuffer getResponseBodyAsByteBuffer() {
+        return ByteBuffer.wrap(body).asReadOnlyBuffer();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream getResponseBodyAsStream() {
+        return new ByteArrayInputStream(body);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getResponseBodyExcerpt(int maxLength, String charset) {
+        String response = getResponseBody(charset);
+        return response.length() <= maxLength ? response : response.substring(0, maxLength);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getResponseBody(String charset) {
+        return new String(body, charset(charset));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getResponseBodyExcerpt(int maxLength) {
+        return getResponseBodyExcerpt(maxLength, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getResponseBody() {
+        return getResponseBody(null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Uri getUri() {
+        return uri;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getContentType() {
+        return headers.getFirstValue("Content-Type");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getHeader(String name) {
+        return headers.getFirstValue(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<String> getHeaders(String name) {
+        List<String> values = headers.get(name);
+        return values == null ? Collections.<String>emptyList() : Collections.unmodifiableList(values);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FluentCaseInsensitiveStringsMap getHeaders() {
+        return new FluentCaseInsensitiveStringsMap(headers);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isRedirected() {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Cookie> getCookies() {
+        return cookies;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasResponseStatus() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasResponseHeaders() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasResponseBody() {
+        return body.length > 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "CachedResponse{" + statusCode + ' ' + statusText + ", " + uri + ", " + body.length + " bytes}";
+    }
+}
@@ -0,0 +1,354 @@
+package jenkins.plugins.asynchttpclient;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jboss.netty.buffer.AbstractChannelBufferFactory;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/**
+ * A Netty buffer factory that carves the buffers the provider reads the sockets into, and encodes the requests into,
+ * out of large chunks of direct memory, instead of allocating a heap array for each of them. The data read from a
+ * socket is then copied from native memory to native memory, and direct buffers are written to the sockets without
+ * another copy.
+ * <p>
+ * Like Netty's own {@code DirectChannelBufferFactory}, a chunk is never reused: its memory is freed by the garbage
+ * collector once no buffer carved out of it is reachable, so a forgotten buffer holds on to its whole chunk. The JVM
+ * only frees garbage chunks ahead of a heap collection through the {@code System.gc()} it calls once
+ * {@code -XX:MaxDirectMemorySize} is reached, which {@code -XX:+DisableExplicitGC} turns into a no-op. The
+ * factory keeps count of the chunks that are still reachable, and, with leak detection switched on, reports the
+ * buffers that are still reachable long after they were allocated, with the stack trace of their allocation. Leak
+ * detection is switched on with the {@code jenkins.plugins.asynchttpclient.ChunkedDirectBufferFactory.leakDetection}
+ * system property, which is how long in milliseconds a buffer may stay reachable, e.g. in the {@code argLine} of the
+ * tests. It records a stack trace per buffer, so it is not meant for production.
+ * </p>
+ *
+ * @since 1.9.40.1
+ */
+final class ChunkedDirectBufferFactory extends AbstractChannelBufferFactory {
+
+    /**
+     * Our logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(ChunkedDirectBufferFactory.class.getName());
+
+    /**
+     * The size of the chunks of direct memory.
+     */
+    static final int CHUNK_SIZE = Integer.getInteger(ChunkedDirectBufferFactory.class.getName() + ".chunkSize",
+            1024 * 1024);
+
+    /**
+     * How long, in milliseconds, a buffer may stay reachable before it is reported, {@code -1} not to track buffers.
+     */
+    static final long LEAK_DETECTION = Long.getLong(ChunkedDirectBufferFactory.class.getName() + ".leakDetection", -1L);
+
+    /**
+     * The singleton used by the clients of the plugin.
+     */
+    static final ChunkedDirectBufferFactory INSTANCE = new ChunkedDirectBufferFactory(CHUNK_SIZE, LEAK_DETECTION);
+
+    /**
+     * The size of the chunks of direct memory.
+     */
+    private final int chunkSize;
+
+    /**
+     * The chunks that are still reachable, so that their references are not collected before them.
+     */
+    private final Set<Chunk> chunks = Collections.newSetFromMap(new ConcurrentHashMap<Chunk, Boolean>());
+
+    /**
+     * Where the chunks are enqueued once their memory is garbage.
+     */
+    private final ReferenceQueue<ByteBuffer> collectedChunks = new ReferenceQueue<ByteBuffer>();
+
+    /**
+     * The bytes of direct memory of the chunks that are still reachable.
+     */
+    private final AtomicLong reservedBytes = new AtomicLong();
+
+    /**
+     * The number of chunks ever allocated.
+     */
+    private final LongAdder chunksAllocated = new LongAdder();
+
+    /**
+     * The number of buffers ever allocated.
+     */
+    private final LongAdder buffersAllocated = new LongAdder();
+
+    /**
+     * The chunk the buffers are currently carved out of.
+     */
+    private ChannelBuffer current; // guarded by this
+
+    /**
+     * Where the next buffer is carved out of {@link #current}.
+     */
+    private int position; // guarded by this
+
+    /**
+     * How long, in nanoseconds, a buffer may stay reachable before it is reported, negative not to track buffers.
+     */
+    private volatile long leakAgeNanos;
+
+    /**
+     * The buffers tracked by the leak detection, so that their references are not collected before them.
+     */
+    private final Set<Allocation> allocations = Collections.newSetFromMap(new ConcurrentHashMap<Allocation, Boolean>());
+
+    /**
+     * Where the tracked buffers are enqueued once they are garbage.
+     */
+    private final ReferenceQueue<ChannelBuffer> collectedBuffers = new ReferenceQueue<ChannelBuffer>();
+
+    /**
+     * The number of buffers reported by the leak detection.
+     */
+    private final LongAdder leaks = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param chunkSize           the size of the chunks of direct memory.
+     * @param leakDetectionMillis how long a buffer may stay reachable before it is reported, {@code -1} not to track
+     *                            buffers.
+     */
+    ChunkedDirectBufferFactory(int chunkSize, long leakDetectionMillis) {
+        this.chunkSize = chunkSize;
+        setLeakDetection(leakDetectionMillis);
+    }
+
+    /**
+     * Switches leak detection on or off.
+     *
+     * @param millis how long a buffer may stay reachable before it is reported, {@code -1} not to track buffers.
+     */
+    void setLeakDetection(long millis) {
+        leakAgeNanos = millis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(millis);
+        if (millis < 0) {
+            allocations.clear();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ChannelBuffer getBuffer(ByteOrder order, int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        if (capacity == 0) {
+            return ChannelBuffers.EMPTY_BUFFER;
+        }
+        ChannelBuffer buffer;
+        if (order != getDefaultOrder() || capacity > chunkSize / 4) {
+            // would waste too much of a chunk
+            buffer = allocate(order, capacity);
+        } else {
+            buffer = carve(capacity);
+        }
+        buffer.clear();
+        buffersAllocated.increment();
+        if (leakAgeNanos >= 0) {
+            allocations.add(new Allocation(buffer, collectedBuffers));
+        }
+        return buffer;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ChannelBuffer getBuffer(ByteOrder order, byte[] array, int offset, int length) {
+        ChannelBuffer buffer = getBuffer(order, length);
+        buffer.writeBytes(array, offset, length);
+        return buffer;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ChannelBuffer getBuffer(ByteBuffer nioBuffer) {
+        if (nioBuffer.isDirect() && !nioBuffer.isReadOnly()) {
+            return ChannelBuffers.wrappedBuffer(nioBuffer);
+        }
+        ChannelBuffer buffer = getBuffer(nioBuffer.order(), nioBuffer.remaining());
+        int position = nioBuffer.position();
+        buffer.writeBytes(nioBuffer);
+        nioBuffer.position(position);
+        return buffer;
+    }
+
+    /**
+     * Carves a buffer out of the current chunk, starting a new chunk if it is full.
+     *
+     * @param capacity the capacity of the buffer.
+     * @return the buffer.
+     */
+    private synchronized ChannelBuffer carve(int capacity) {
+        if (current == null || chunkSize - position < capacity) {
+            current = allocate(getDefaultOrder(), chunkSize);
+            position = 0;
+        }
+        ChannelBuffer buffer = current.slice(position, capacity);
+        // keep the buffers aligned
+        position = (position + capacity + 7) & ~7;
+        return buffer;
+    }
+
+    /**
+     * Allocates a chunk of direct memory and keeps count of it until it is garbage.
+     *
+     * @param order    the byte order.
+     * @param capacity the size of the chunk.
+     * @return the chunk.
+     */
+    private ChannelBuffer allocate(ByteOrder order, int capacity) {
+        expunge();
+        ByteBuffer memory = ByteBuffer.allocateDirect(capacity).order(order);
+        chunks.add(new Chunk(memory, collectedChunks));
+        reservedBytes.addAndGet(capacity);
+        chunksAllocated.increment();
+        if (leakAgeNanos >= 0) {
+            detectLeaks();
+        }
+        return ChannelBuffers.wrappedBuffer(memory);
+    }
+
+    /**
+     * Forgets the chunks that are garbage.
+     */
+    private void expunge() {
+        for (Reference<? extends ByteBuffer> r = collectedChunks.poll(); r != null; r = collectedChunks.poll()) {
+            Chunk chunk = (Chunk) r;
+            if (chunks.remove(chunk)) {
+                reservedBytes.addAndGet(-chunk.capacity);
+            }
+        }
+    }
+
+    /**
+     * Reports the tracked buffers that have stayed reachable for longer than the leak detection allows, once each.
+     *
+     * @return the number of buffers reported.
+     */
+    int detectLeaks() {
+        for (Reference<? extends ChannelBuffer> r = collectedBuffers.poll(); r != null; r = collectedBuffers.poll()) {
+            allocations.remove(r);
+        }
+        long age = leakAgeNanos;
+        if (age < 0) {
+            return 0;
+        }
+        int reported = 0;
+        long now = System.nanoTime();
+        for (Allocation allocation : allocations) {
+            if (now - allocation.allocatedAt > age && allocations.remove(allocation)) {
+                LOGGER.log(Level.WARNING, "A direct buffer of the async-http-client plugin is still reachable "
+                        + TimeUnit.NANOSECONDS.toMillis(now - allocation.allocatedAt)
+                        + " ms after its allocation, holding on to its chunk of direct memory", allocation.site);
+                leaks.increment();
+                reported++;
+            }
+        }
+        return reported;
+    }
+
+    /**
+     * Returns the bytes of direct memory held by the chunks that are still reachable.
+     *
+     * @return the bytes of direct memory held.
+     */
+    long getReservedBytes() {
+        expunge();
+        return reservedBytes.get();
+    }
+
+    /**
+     * Returns the number of chunks that are still reachable.
+     *
+     * @return the number of chunks.
+     */
+    int getChunks() {
+        expunge();
+        return chunks.size();
+    }
+
+    /**
+     * Returns the number of chunks ever allocated.
+     *
+     * @return the number of chunks allocated.
+     */
+    long getChunksAllocated() {
+        return chunksAllocated.sum();
+    }
+
+    /**
+     * Returns the number of buffers ever allocated.
+     *
+     * @return the number of buffers allocated.
+     */
+    long getBuffersAllocated() {
+        return buffersAllocated.sum();
+    }
+
+    /**
+     * Returns the number of buffers reported by the leak detection.
+     *
+     * @return the number of leaked buffers.
+     */
+    long getLeaks() {
+        detectLeaks();
+        return leaks.sum();
+    }
+
+    /**
+     * A chunk of direct memory, enqueued once it is garbage.
+     */
+    private static final class Chunk extends PhantomReference<ByteBuffer> {
+        /**
+         * The size of the chunk.
+         */
+        private final int capacity;
+
+        private Chunk(ByteBuffer memory, ReferenceQueue<ByteBuffer> queue) {
+            super(memory, queue);
+            this.capacity = memory.capacity();
+        }
+    }
+
+    /**
+     * A buffer tracked by the leak detection, enqueued once it is garbage.
+     */
+    private static final class Allocation extends PhantomReference<ChannelBuffer> {
+        /**
+         * When the buffer was allocated, in {@link System#nanoTime()}.
+         */
+        private final long allocatedAt = System.nanoTime();
+
+        /**
+         * Where the buffer was allocated.
+         */
+        private final Throwable site;
+
+        private Allocation(ChannelBuffer buffer, ReferenceQueue<ChannelBuffer> queue) {
+            super(buffer, queue);
+            this.site = new Throwable("Direct buffer of " + buffer.capacity() + " bytes allocated here");
+        }
+    }
+}
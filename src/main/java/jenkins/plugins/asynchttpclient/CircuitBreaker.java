@@ -0,0 +1,515 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.HttpResponseStatus;
+import com.ning.http.client.filter.FilterContext;
+import com.ning.http.client.filter.FilterException;
+import com.ning.http.client.filter.RequestFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link RequestFilter} that stops sending requests to a host that keeps failing or answering slowly.
+ * <p>
+ * Each host has its own circuit, which trips according to the {@link CircuitBreakerSettings}. While it is open,
+ * requests to the host fail right away with a {@link FilterException} instead of each waiting for the connect or
+ * request timeout. Once the open duration has elapsed, a few probe requests are let through and their outcome decides
+ * whether the circuit closes again.
+ * </p>
+ * <p>
+ * The latency of a request is measured from the moment it passes this filter, which is once it got its permit from
+ * the {@link HostConcurrencyLimiter}: the time spent in the queue does not count against the host. Requests whose
+ * handler cannot be {@link ForwardingAsyncHandler#isWrappable(AsyncHandler) wrapped} are neither counted nor stopped.
+ * </p>
+ * <p>
+ * The closed circuits of the hosts that have had no request in flight for a whole window are forgotten, as they have
+ * nothing left to count, so that a client talking to ever new hosts does not keep a circuit for each of them.
+ * </p>
+ *
+ * @since 1.9.40.1
+ */
+class CircuitBreaker implements RequestFilter {
+
+    /**
+     * Our logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+    /**
+     * The number of buckets the window is divided into, the oldest one being dropped as time goes by.
+     */
+    private static final int BUCKETS = 10;
+
+    /**
+     * The thresholds.
+     */
+    private final CircuitBreakerSettings settings;
+
+    /**
+     * Where the requests failed right away are recorded.
+     */
+    private final ClientMetrics metrics;
+
+    /**
+     * The circuits of each host, created on demand.
+     */
+    private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<String, Circuit>();
+
+    /**
+     * When the idle circuits are next looked for, at most once per window.
+     */
+    private final AtomicLong nextSweep = new AtomicLong(now());
+
+    /**
+     * Constructor.
+     *
+     * @param settings the thresholds.
+     * @param metrics  where the requests failed right away are recorded.
+     */
+    CircuitBreaker(CircuitBreakerSettings settings, ClientMetrics metrics) {
+        this.settings = settings;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the thresholds.
+     *
+     * @return the thresholds.
+     */
+    CircuitBreakerSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Returns the current time, in milliseconds, from a clock that does not jump.
+     *
+     * @return the current time.
+     */
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T> FilterContext<T> filter(FilterContext<T> ctx) throws FilterException {
+        AsyncHandler<T> handler = ctx.getAsyncHandler();
+        if (!ForwardingAsyncHandler.isWrappable(handler)) {
+            return ctx;
+        }
+        String host = ClientMetrics.hostOf(ctx.getRequest().getUri());
+        Circuit circuit;
+        long now;
+        Admission admission;
+        do {
+            circuit = circuit(host);
+            now = now();
+            admission = circuit.admit(now);
+        } while (admission == Admission.RETIRED);
+        if (admission == Admission.REJECTED) {
+            metrics.shortCircuited(host);
+            throw new FilterException("Circuit breaker open for " + host + ", failing fast");
+        }
+        return new FilterContext.FilterContextBuilder<T>(ctx)
+                .asyncHandler(new OutcomeHandler<T>(handler, circuit, admission == Admission.PROBE, now))
+                .build();
+    }
+
+    /**
+     * Returns the circuit of a host, creating it on demand.
+     *
+     * @param host the host.
+     * @return the circuit.
+     */
+    private Circuit circuit(String host) {
+        Circuit circuit = circuits.get(host);
+        if (circuit == null) {
+            sweep();
+            Circuit created = new Circuit(host);
+            circuit = circuits.putIfAbsent(host, created);
+            if (circuit == null) {
+                circuit = created;
+            }
+        }
+        return circuit;
+    }
+
+    /**
+     * Forgets the idle circuits, unless that was done less than a window ago.
+     */
+    private void sweep() {
+        long now = now();
+        long next = nextSweep.get();
+        if (now < next || !nextSweep.compareAndSet(next, now + settings.getWindow())) {
+            return;
+        }
+        for (Circuit circuit : circuits.values()) {
+            if (circuit.retireIfIdle(now)) {
+                circuits.remove(circuit.host, circuit);
+            }
+        }
+    }
+
+    /**
+     * Returns the state of the circuit of each host.
+     *
+     * @return the state of the circuits.
+     */
+    List<CircuitState> getCircuits() {
+        long now = now();
+        List<CircuitState> result = new ArrayList<CircuitState>();
+        for (Circuit circuit : circuits.values()) {
+            result.add(circuit.snapshot(now));
+        }
+        return result;
+    }
+
+    /**
+     * The state of a circuit.
+     */
+    private enum State {
+        CLOSED("closed"), OPEN("open"), HALF_OPEN("half-open");
+
+        private final String displayName;
+
+        State(String displayName) {
+            this.displayName = displayName;
+        }
+    }
+
+    /**
+     * Whether a request may be sent.
+     */
+    private enum Admission {
+        /**
+         * The circuit is closed.
+         */
+        ADMITTED,
+        /**
+         * The circuit is half open and the request is one of the probes.
+         */
+        PROBE,
+        /**
+         * The circuit is open.
+         */
+        REJECTED,
+        /**
+         * The circuit was forgotten as idle: the host has a new one.
+         */
+        RETIRED
+    }
+
+    /**
+     * The circuit of a single host: its state and the outcomes of the requests completed over the window.
+     */
+    private final class Circuit {
+
+        private final String host;
+
+        private State state = State.CLOSED;
+
+        /**
+         * When the circuit last changed state.
+         */
+        private long since = now();
+
+        private long trips;
+
+        private int probesSent;
+
+        private int probesSucceeded;
+
+        /**
+         * The number of the time slice each bucket holds.
+         */
+        private final long[] slices = new long[BUCKETS];
+
+        private final int[] completed = new int[BUCKETS];
+
+        private final int[] failed = new int[BUCKETS];
+
+        private final int[] slow = new int[BUCKETS];
+
+        /**
+         * The number of requests admitted that have not reported their outcome yet.
+         */
+        private int inFlight;
+
+        /**
+         * When a request was last admitted or reported.
+         */
+        private long lastUsed = since;
+
+        /**
+         * Set once the circuit is forgotten, after which it admits nothing.
+         */
+        private boolean retired;
+
+        private Circuit(String host) {
+            this.host = host;
+            Arrays.fill(slices, Long.MIN_VALUE);
+        }
+
+        /**
+         * Decides whether a request may be sent.
+         *
+         * @param now the current time.
+         * @return the decision.
+         */
+        private synchronized Admission admit(long now) {
+            if (retired) {
+                return Admission.RETIRED;
+            }
+            lastUsed = now;
+            switch (state) {
+                case CLOSED:
+                    inFlight++;
+                    return Admission.ADMITTED;
+                case OPEN:
+                    if (now - since < settings.getOpenDuration()) {
+                        return Admission.REJECTED;
+                    }
+                    halfOpen(now);
+                    break;
+                default:
+                    if (probesSent >= settings.getProbes()) {
+                        if (now - since < settings.getOpenDuration()) {
+                            return Admission.REJECTED;
+                        }
+                        // some probes never reported back, e.g. rejected by a later filter: send new ones
+                        halfOpen(now);
+                    }
+                    break;
+            }
+            probesSent++;
+            inFlight++;
+            return Admission.PROBE;
+        }
+
+        /**
+         * Retires the circuit if it is closed and has had no request in flight for a whole window, so that it has
+         * nothing left to count.
+         *
+         * @param now the current time.
+         * @return {@code true} if the circuit is retired.
+         */
+        private synchronized boolean retireIfIdle(long now) {
+            if (state == State.CLOSED && inFlight == 0 && now - lastUsed >= settings.getWindow()) {
+                retired = true;
+            }
+            return retired;
+        }
+
+        /**
+         * Records the outcome of a request.
+         *
+         * @param start   when the request passed the filter.
+         * @param probe   whether the request was a probe.
+         * @param failure whether the request failed.
+         */
+        private synchronized void record(long start, boolean probe, boolean failure) {
+            long now = now();
+            inFlight--;
+            lastUsed = now;
+            boolean slowCall = now - start >= settings.getSlowCallDuration();
+            if (probe) {
+                if (state != State.HALF_OPEN) {
+                    return;
+                }
+                if (failure || slowCall) {
+                    trip(now, "a probe " + (failure ? "failed" : "was slow"));
+                } else if (++probesSucceeded >= settings.getProbes()) {
+                    close(now);
+                }
+                return;
+            }
+            if (state != State.CLOSED) {
+                // sent before the circuit tripped
+                return;
+            }
+            long slice = now / sliceLength();
+            int i = (int) (slice % BUCKETS);
+            if (slices[i] != slice) {
+                slices[i] = slice;
+                completed[i] = 0;
+                failed[i] = 0;
+                slow[i] = 0;
+            }
+            completed[i]++;
+            if (failure) {
+                failed[i]++;
+            }
+            if (slowCall) {
+                slow[i]++;
+            }
+            int[] totals = totals(slice);
+            if (totals[0] < settings.getMinimumRequests()) {
+                return;
+            }
+            if (totals[1] * 100L >= (long) settings.getFailureRateThreshold() * totals[0]) {
+                trip(now, totals[1] + " of the last " + totals[0] + " requests failed");
+            } else if (totals[2] * 100L >= (long) settings.getSlowCallRateThreshold() * totals[0]) {
+                trip(now, totals[2] + " of the last " + totals[0] + " requests took more than "
+                        + settings.getSlowCallDuration() + "ms");
+            }
+        }
+
+        /**
+         * Gives back the slot of a probe that was cancelled before it could tell anything.
+         *
+         * @param probe whether the request was a probe.
+         */
+        private synchronized void cancelled(boolean probe) {
+            inFlight--;
+            if (probe && state == State.HALF_OPEN && probesSent > 0) {
+                probesSent--;
+            }
+        }
+
+        /**
+         * Returns the length of a time slice.
+         *
+         * @return the length of a time slice, in milliseconds.
+         */
+        private long sliceLength() {
+            return Math.max(1, settings.getWindow() / BUCKETS);
+        }
+
+        /**
+         * Sums the buckets that are still within the window.
+         *
+         * @param slice the current time slice.
+         * @return the number of completed, failed and slow requests.
+         */
+        private int[] totals(long slice) {
+            int[] totals = new int[3];
+            for (int i = 0; i < BUCKETS; i++) {
+                if (slices[i] != Long.MIN_VALUE && slice - slices[i] < BUCKETS) {
+                    totals[0] += completed[i];
+                    totals[1] += failed[i];
+                    totals[2] += slow[i];
+                }
+            }
+            return totals;
+        }
+
+        private void trip(long now, String reason) {
+            LOGGER.log(Level.WARNING, "Circuit breaker for {0} tripped ({1}), failing requests to it for {2}ms",
+                    new Object[]{host, reason, settings.getOpenDuration()});
+            state = State.OPEN;
+            since = now;
+            trips++;
+        }
+
+        private void halfOpen(long now) {
+            state = State.HALF_OPEN;
+            since = now;
+            probesSent = 0;
+            probesSucceeded = 0;
+        }
+
+        private void close(long now) {
+            LOGGER.log(Level.INFO, "Circuit breaker for {0} closed, the probes succeeded", host);
+            state = State.CLOSED;
+            since = now;
+            Arrays.fill(slices, Long.MIN_VALUE);
+        }
+
+        /**
+         * Takes a snapshot of the circuit.
+         *
+         * @param now the current time.
+         * @return the snapshot.
+         */
+        private synchronized CircuitState snapshot(long now) {
+            int[] totals = state == State.CLOSED ? totals(now / sliceLength()) : new int[3];
+            return new CircuitState(host, state.displayName, now - since, trips, totals[0], totals[1], totals[2]);
+        }
+    }
+
+    /**
+     * Reports the outcome of a request to its circuit.
+     *
+     * @param <T> the type of the result.
+     */
+    private static final class OutcomeHandler<T> extends ForwardingAsyncHandler<T> {
+
+        private final Circuit circuit;
+
+        private final boolean probe;
+
+        /**
+         * When the request passed the filter.
+         */
+        private final long start;
+
+        /**
+         * Guards against reporting more than once.
+         */
+        private final AtomicBoolean reported = new AtomicBoolean();
+
+        /**
+         * The status code of the response, {@code 0} until it is received.
+         */
+        private volatile int statusCode;
+
+        private OutcomeHandler(AsyncHandler<T> delegate, Circuit circuit, boolean probe, long start) {
+            super(delegate);
+            this.circuit = circuit;
+            this.probe = probe;
+            this.start = start;
+        }
+
+        private void report(boolean failure) {
+            if (reported.compareAndSet(false, true)) {
+                circuit.record(start, probe, failure);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public STATE onStatusReceived(HttpResponseStatus responseStatus) throws Exception {
+            statusCode = responseStatus.getStatusCode();
+            return super.onStatusReceived(responseStatus);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onThrowable(Throwable t) {
+            try {
+                if (t instanceof CancellationException) {
+                    if (reported.compareAndSet(false, true)) {
+                        circuit.cancelled(probe);
+                    }
+                } else {
+                    report(true);
+                }
+            } finally {
+                super.onThrowable(t);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public T onCompleted() throws Exception {
+            report(statusCode >= 500);
+            return super.onCompleted();
+        }
+    }
+}
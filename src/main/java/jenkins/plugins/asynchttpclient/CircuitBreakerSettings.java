@@ -0,0 +1,285 @@
+package jenkins.plugins.asynchttpclient;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * The thresholds of the per host circuit breaker of an instance, see {@link ClientProfile#getCircuitBreaker()}.
+ * <p>
+ * The breaker of a host trips once, over the last {@link #getWindow() window}, at least
+ * {@link #getMinimumRequests() minimumRequests} requests completed and either the share of failures (errors, timeouts
+ * and {@code 5xx} responses) reached {@link #getFailureRateThreshold() failureRateThreshold} or the share of requests
+ * slower than {@link #getSlowCallDuration() slowCallDuration} reached
+ * {@link #getSlowCallRateThreshold() slowCallRateThreshold}. Requests to the host then fail right away for
+ * {@link #getOpenDuration() openDuration}, after which {@link #getProbes() probes} requests are let through: the
+ * breaker closes if they all succeed and trips again otherwise.
+ * </p>
+ * <p>
+ * Instances are immutable, each {@code with} method returns a copy:
+ * </p>
+ * <pre>
+ * new CircuitBreakerSettings().withFailureRateThreshold(25).withOpenDuration(60000)
+ * </pre>
+ *
+ * @since 1.9.40.1
+ */
+public final class CircuitBreakerSettings {
+
+    private final int failureRateThreshold;
+
+    private final int slowCallRateThreshold;
+
+    private final long slowCallDuration;
+
+    private final int minimumRequests;
+
+    private final long window;
+
+    private final long openDuration;
+
+    private final int probes;
+
+    /**
+     * Creates the default settings: trip when half the requests fail, or when 80% of them take more than 10 seconds,
+     * over at least 20 requests in the last minute; stay open for 30 seconds; then probe with 3 requests.
+     */
+    public CircuitBreakerSettings() {
+        this(50, 80, 10000, 20, 60000, 30000, 3);
+    }
+
+    private CircuitBreakerSettings(int failureRateThreshold, int slowCallRateThreshold, long slowCallDuration,
+                                   int minimumRequests, long window, long openDuration, int probes) {
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallDuration = slowCallDuration;
+        this.minimumRequests = minimumRequests;
+        this.window = window;
+        this.openDuration = openDuration;
+        this.probes = probes;
+    }
+
+    /**
+     * Checks that a value is positive.
+     *
+     * @param name  the name of the value.
+     * @param value the value.
+     * @return the value.
+     */
+    private static long positive(String name, long value) {
+        if (value <= 0) {
+            throw new IllegalArgumentException(name + " must be positive: " + value);
+        }
+        return value;
+    }
+
+    /**
+     * Checks that a value is a percentage.
+     *
+     * @param name  the name of the value.
+     * @param value the value.
+     * @return the value.
+     */
+    private static int percent(String name, int value) {
+        if (value < 1 || value > 100) {
+            throw new IllegalArgumentException(name + " must be between 1 and 100: " + value);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the share of failed requests, in percent, that trips the breaker.
+     *
+     * @return the failure rate threshold.
+     */
+    public int getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    /**
+     * Changes the share of failed requests, in percent, that trips the breaker.
+     *
+     * @param failureRateThreshold the failure rate threshold, between {@code 1} and {@code 100}.
+     * @return the new settings.
+     */
+    @NonNull
+    public CircuitBreakerSettings withFailureRateThreshold(int failureRateThreshold) {
+        return new CircuitBreakerSettings(percent("failureRateThreshold", failureRateThreshold),
+                slowCallRateThreshold, slowCallDuration, minimumRequests, window, openDuration, probes);
+    }
+
+    /**
+     * Returns the share of slow requests, in percent, that trips the breaker.
+     *
+     * @return the slow call rate threshold.
+     */
+    public int getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    /**
+     * Changes the share of slow requests, in percent, that trips the breaker.
+     *
+     * @param slowCallRateThreshold the slow call rate threshold, between {@code 1} and {@code 100}.
+     * @return the new settings.
+     */
+    @NonNull
+    public CircuitBreakerSettings withSlowCallRateThreshold(int slowCallRateThreshold) {
+        return new CircuitBreakerSettings(failureRateThreshold,
+                percent("slowCallRateThreshold", slowCallRateThreshold), slowCallDuration, minimumRequests, window,
+                openDuration, probes);
+    }
+
+    /**
+     * Returns how long, in milliseconds, a request may take before it counts as slow.
+     *
+     * @return the slow call duration.
+     */
+    public long getSlowCallDuration() {
+        return slowCallDuration;
+    }
+
+    /**
+     * Changes how long, in milliseconds, a request may take before it counts as slow.
+     *
+     * @param slowCallDuration the slow call duration.
+     * @return the new settings.
+     */
+    @NonNull
+    public CircuitBreakerSettings withSlowCallDuration(long slowCallDuration) {
+        return new CircuitBreakerSettings(failureRateThreshold, slowCallRateThreshold,
+                positive("slowCallDuration", slowCallDuration), minimumRequests, window, openDuration, probes);
+    }
+
+    /**
+     * Returns how many requests must have completed over the window before the breaker may trip.
+     *
+     * @return the minimum number of requests.
+     */
+    public int getMinimumRequests() {
+        return minimumRequests;
+    }
+
+    /**
+     * Changes how many requests must have completed over the window before the breaker may trip.
+     *
+     * @param minimumRequests the minimum number of requests.
+     * @return the new settings.
+     */
+    @NonNull
+    public CircuitBreakerSettings withMinimumRequests(int minimumRequests) {
+        return new CircuitBreakerSettings(failureRateThreshold, slowCallRateThreshold, slowCallDuration,
+                (int) positive("minimumRequests", minimumRequests), window, openDuration, probes);
+    }
+
+    /**
+     * Returns how far back, in milliseconds, the completed requests are taken into account.
+     *
+     * @return the window.
+     */
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * Changes how far back, in milliseconds, the completed requests are taken into account.
+     *
+     * @param window the window.
+     * @return the new settings.
+     */
+    @NonNull
+    public CircuitBreakerSettings withWindow(long window) {
+        return new CircuitBreakerSettings(failureRateThreshold, slowCallRateThreshold, slowCallDuration,
+                minimumRequests, positive("window", window), openDuration, probes);
+    }
+
+    /**
+     * Returns how long, in milliseconds, requests fail right away once the breaker has tripped.
+     *
+     * @return the open duration.
+     */
+    public long getOpenDuration() {
+        return openDuration;
+    }
+
+    /**
+     * Changes how long, in milliseconds, requests fail right away once the breaker has tripped.
+     *
+     * @param openDuration the open duration.
+     * @return the new settings.
+     */
+    @NonNull
+    public CircuitBreakerSettings withOpenDuration(long openDuration) {
+        return new CircuitBreakerSettings(failureRateThreshold, slowCallRateThreshold, slowCallDuration,
+                minimumRequests, window, positive("openDuration", openDuration), probes);
+    }
+
+    /**
+     * Returns how many requests are let through to probe the host once the open duration has elapsed.
+     *
+     * @return the number of probes.
+     */
+    public int getProbes() {
+        return probes;
+    }
+
+    /**
+     * Changes how many requests are let through to probe the host once the open duration has elapsed.
+     *
+     * @param probes the number of probes.
+     * @return the new settings.
+     */
+    @NonNull
+    public CircuitBreakerSettings withProbes(int probes) {
+        return new CircuitBreakerSettings(failureRateThreshold, slowCallRateThreshold, slowCallDuration,
+                minimumRequests, window, openDuration, (int) positive("probes", probes));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CircuitBreakerSettings)) {
+            return false;
+        }
+        CircuitBreakerSettings that = (CircuitBreakerSettings) o;
+        return failureRateThreshold == that.failureRateThreshold
+                && slowCallRateThreshold == that.slowCallRateThreshold
+                && slowCallDuration == that.slowCallDuration
+                && minimumRequests == that.minimumRequests
+                && window == that.window
+                && openDuration == that.openDuration
+                && probes == that.probes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        int result = failureRateThreshold;
+        result = 31 * result + slowCallRateThreshold;
+        result = 31 * result + (int) (slowCallDuration ^ (slowCallDuration >>> 32));
+        result = 31 * result + minimumRequests;
+        result = 31 * result + (int) (window ^ (window >>> 32));
+        result = 31 * result + (int) (openDuration ^ (openDuration >>> 32));
+        result = 31 * result + probes;
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "CircuitBreakerSettings{failureRateThreshold=" + failureRateThreshold
+                + "%, slowCallRateThreshold=" + slowCallRateThreshold
+                + "%, slowCallDuration=" + slowCallDuration
+                + "ms, minimumRequests=" + minimumRequests
+                + ", window=" + window
+                + "ms, openDuration=" + openDuration
+                + "ms, probes=" + probes + '}';
+    }
+}
@@ -0,0 +1,110 @@
+package jenkins.plugins.asynchttpclient;
+
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * A snapshot of the {@link CircuitBreaker} circuit of a single host.
+ *
+ * @since 1.9.40.1
+ */
+@ExportedBean
+@Restricted(NoExternalUse.class)
+public class CircuitState {
+
+    private final String host;
+
+    private final String state;
+
+    private final long sinceMillis;
+
+    private final long trips;
+
+    private final int requests;
+
+    private final int failures;
+
+    private final int slowCalls;
+
+    CircuitState(String host, String state, long sinceMillis, long trips, int requests, int failures, int slowCalls) {
+        this.host = host;
+        this.state = state;
+        this.sinceMillis = sinceMillis;
+        this.trips = trips;
+        this.requests = requests;
+        this.failures = failures;
+        this.slowCalls = slowCalls;
+    }
+
+    /**
+     * Returns the host.
+     *
+     * @return the host, with the port if it is explicit.
+     */
+    @Exported
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Returns the state of the circuit.
+     *
+     * @return {@code closed}, {@code open} or {@code half-open}.
+     */
+    @Exported
+    public String getState() {
+        return state;
+    }
+
+    /**
+     * Returns how long the circuit has been in its current state.
+     *
+     * @return how long the circuit has been in its current state, in milliseconds.
+     */
+    @Exported
+    public long getSinceMillis() {
+        return sinceMillis;
+    }
+
+    /**
+     * Returns how many times the circuit tripped.
+     *
+     * @return how many times the circuit tripped.
+     */
+    @Exported
+    public long getTrips() {
+        return trips;
+    }
+
+    /**
+     * Returns the number of requests completed over the window, while the circuit is closed.
+     *
+     * @return the number of requests completed over the window.
+     */
+    @Exported
+    public int getRequests() {
+        return requests;
+    }
+
+    /**
+     * Returns the number of requests that failed over the window, while the circuit is closed.
+     *
+     * @return the number of requests that failed over the window.
+     */
+    @Exported
+    public int getFailures() {
+        return failures;
+    }
+
+    /**
+     * Returns the number of slow requests over the window, while the circuit is closed.
+     *
+     * @return the number of slow requests over the window.
+     */
+    @Exported
+    public int getSlowCalls() {
+        return slowCalls;
+    }
+}
@@ -0,0 +1,555 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.ning.http.client.uri.Uri;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import jenkins.plugins.asynchttpclient.util.LatencyHistogram;
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * The request counters and latency histograms of the shared instance or of a named instance.
+ * <p>
+ * The metrics outlive the individual clients: a recycled instance keeps adding to the metrics of its name. Latencies
+ * are kept per host and per outcome, where the outcome is the status class of the response, {@code error} when the
+ * request failed without a response or {@code timeout} when it timed out.
+ * </p>
+ *
+ * @since 1.9.40.1
+ */
+@ExportedBean
+@Restricted(NoExternalUse.class)
+public class ClientMetrics implements ClientMetricsMXBean {
+
+    /**
+     * The names of the outcomes, indexed by outcome.
+     */
+    private static final String[] OUTCOMES = {"1xx", "2xx", "3xx", "4xx", "5xx", "other", "error", "timeout"};
+
+    /**
+     * The outcome of a response with a non standard status code.
+     */
+    static final int OTHER = 5;
+
+    /**
+     * The outcome of a request that failed without a response.
+     */
+    static final int ERROR = 6;
+
+    /**
+     * The outcome of a request that timed out.
+     */
+    static final int TIMEOUT = 7;
+
+    /**
+     * The maximum number of hosts tracked separately, the others are tracked together.
+     */
+    private static final int MAX_HOSTS = Integer.getInteger(ClientMetrics.class.getName() + ".maxHosts", 256);
+
+    /**
+     * The name the hosts beyond {@link #MAX_HOSTS} are tracked under.
+     */
+    private static final String OTHER_HOSTS = "*";
+
+    /**
+     * The metrics of the clients created by {@link AHCUtils#newAsyncHttpClient}.
+     */
+    static final ClientMetrics UNMANAGED = new ClientMetrics("unmanaged");
+
+    /**
+     * The name of the instance, empty for the shared instance.
+     */
+    private final String name;
+
+    private final LongAdder requests = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final LongAdder timeouts = new LongAdder();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder retries = new LongAdder();
+
+    private final LongAdder shortCircuited = new LongAdder();
+
+    /**
+     * How long the last warm-up took, in milliseconds, {@code -1} until a warm-up completes.
+     */
+    private volatile long warmUpMillis = -1;
+
+    /**
+     * The number of connections the last warm-up opened.
+     */
+    private volatile int warmUpConnections;
+
+    /**
+     * The number of connections the last warm-up failed to open.
+     */
+    private volatile int warmUpFailures;
+
+    /**
+     * The circuit breaker of the instance, if it has one.
+     */
+    @CheckForNull
+    private volatile CircuitBreaker circuitBreaker;
+
+    /**
+     * How long the requests waited in the queue of the {@link HostConcurrencyLimiter}.
+     */
+    private final LatencyHistogram queueWait = new LatencyHistogram("queued");
+
+    private final ConcurrentMap<String, HostMetrics> hosts = new ConcurrentHashMap<String, HostMetrics>();
+
+    /**
+     * Creates the metrics of an instance.
+     *
+     * @param name the name of the instance, {@code null} for the shared instance.
+     */
+    ClientMetrics(@CheckForNull String name) {
+        this.name = StringUtils.defaultString(name);
+    }
+
+    /**
+     * Returns the outcome of a response.
+     *
+     * @param statusCode the status code of the response.
+     * @return the outcome.
+     */
+    static int outcomeOf(int statusCode) {
+        return statusCode >= 100 && statusCode < 600 ? statusCode / 100 - 1 : OTHER;
+    }
+
+    /**
+     * Returns the key requests to a URI are tracked under.
+     *
+     * @param uri the URI.
+     * @return the host, with the port if it is explicit.
+     */
+    static String hostOf(Uri uri) {
+        String host = StringUtils.defaultString(uri.getHost()).toLowerCase(Locale.ENGLISH);
+        return uri.getPort() == -1 ? host : host + ':' + uri.getPort();
+    }
+
+    /**
+     * Records that a request was submitted.
+     */
+    void started() {
+        requests.increment();
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Records that a request completed, successfully or not.
+     *
+     * @param host    the host the request was sent to, see {@link #hostOf(Uri)}.
+     * @param outcome the outcome of the request.
+     * @param nanos   how long the request took, in nanoseconds.
+     */
+    void completed(String host, int outcome, long nanos) {
+        inFlight.decrementAndGet();
+        if (outcome >= ERROR) {
+            errors.increment();
+        }
+        if (outcome == TIMEOUT) {
+            timeouts.increment();
+        }
+        host(host).record(outcome, nanos);
+    }
+
+    /**
+     * Records that a request started waiting for a permit of the {@link HostConcurrencyLimiter}.
+     *
+     * @param host the host the request is for.
+     */
+    void queued(String host) {
+        queued.incrementAndGet();
+        host(host).queued.incrementAndGet();
+    }
+
+    /**
+     * Records that a request stopped waiting for a permit of the {@link HostConcurrencyLimiter}, whether it got one
+     * or not.
+     *
+     * @param host  the host the request is for.
+     * @param nanos how long the request waited, in nanoseconds.
+     */
+    void dequeued(String host, long nanos) {
+        queued.decrementAndGet();
+        host(host).queued.decrementAndGet();
+        queueWait.record(nanos);
+    }
+
+    /**
+     * Records that the {@link HostConcurrencyLimiter} rejected a request.
+     *
+     * @param host the host the request was for.
+     */
+    void rejected(String host) {
+        rejected.increment();
+        host(host).rejected.increment();
+    }
+
+    /**
+     * Records that the {@link RetryPolicy} scheduled a retry.
+     */
+    void retried() {
+        retries.increment();
+    }
+
+    /**
+     * Records that the {@link CircuitBreaker} failed a request right away.
+     *
+     * @param host the host the request was for.
+     */
+    void shortCircuited(String host) {
+        shortCircuited.increment();
+        host(host).shortCircuited.increment();
+    }
+
+    /**
+     * Records that the {@link ConnectionWarmer} completed.
+     *
+     * @param connections the number of connections opened.
+     * @param failures    the number of connections that could not be opened.
+     * @param millis      how long the warm-up took, in milliseconds.
+     */
+    void warmedUp(int connections, int failures, long millis) {
+        warmUpConnections = connections;
+        warmUpFailures = failures;
+        warmUpMillis = millis;
+    }
+
+    /**
+     * Sets the circuit breaker whose state is reported with these metrics.
+     *
+     * @param circuitBreaker the circuit breaker of the instance, {@code null} if it has none.
+     */
+    void setCircuitBreaker(@CheckForNull CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Returns the metrics of a host, creating them on demand.
+     *
+     * @param host the host.
+     * @return the metrics of the host.
+     */
+    private HostMetrics host(String host) {
+        HostMetrics metrics = hosts.get(host);
+        if (metrics == null) {
+            String key = hosts.size() < MAX_HOSTS ? host : OTHER_HOSTS;
+            HostMetrics created = new HostMetrics(key);
+            metrics = hosts.putIfAbsent(key, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Returns the name the metrics are registered under in JMX.
+     *
+     * @return the JMX object name.
+     */
+    ObjectName getObjectName() {
+        try {
+            return new ObjectName("jenkins.plugins.asynchttpclient:type=ClientMetrics,name="
+                    + ObjectName.quote(name.isEmpty() ? "shared" : name));
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalStateException("Quoted names are always valid", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public long getShortCircuited() {
+        return shortCircuited.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public long getWarmUpMillis() {
+        return warmUpMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public int getWarmUpConnections() {
+        return warmUpConnections;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public int getWarmUpFailures() {
+        return warmUpFailures;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported(inline = true)
+    public List<CircuitState> getCircuits() {
+        CircuitBreaker breaker = circuitBreaker;
+        return breaker == null ? new ArrayList<CircuitState>() : breaker.getCircuits();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported(inline = true)
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported(inline = true)
+    public List<HostMetrics> getHosts() {
+        return new ArrayList<HostMetrics>(hosts.values());
+    }
+
+    /**
+     * The request counters and latency histograms of a single host.
+     */
+    @ExportedBean
+    @Restricted(NoExternalUse.class)
+    public static class HostMetrics {
+
+        /**
+         * The host, with the port if it is explicit.
+         */
+        private final String host;
+
+        private final LongAdder requests = new LongAdder();
+
+        private final LongAdder errors = new LongAdder();
+
+        private final LongAdder timeouts = new LongAdder();
+
+        private final AtomicInteger queued = new AtomicInteger();
+
+        private final LongAdder rejected = new LongAdder();
+
+        private final LongAdder shortCircuited = new LongAdder();
+
+        /**
+         * The latencies, indexed by outcome and created on demand.
+         */
+        private final AtomicReferenceArray<LatencyHistogram> latencies =
+                new AtomicReferenceArray<LatencyHistogram>(OUTCOMES.length);
+
+        private HostMetrics(String host) {
+            this.host = host;
+        }
+
+        private void record(int outcome, long nanos) {
+            requests.increment();
+            if (outcome >= ERROR) {
+                errors.increment();
+            }
+            if (outcome == TIMEOUT) {
+                timeouts.increment();
+            }
+            LatencyHistogram histogram = latencies.get(outcome);
+            if (histogram == null) {
+                latencies.compareAndSet(outcome, null, new LatencyHistogram(OUTCOMES[outcome]));
+                histogram = latencies.get(outcome);
+            }
+            histogram.record(nanos);
+        }
+
+        /**
+         * Returns the host.
+         *
+         * @return the host, with the port if it is explicit, or {@code *} for all the hosts that did not get their
+         * own metrics.
+         */
+        @Exported
+        public String getHost() {
+            return host;
+        }
+
+        /**
+         * Returns the number of completed requests.
+         *
+         * @return the number of completed requests.
+         */
+        @Exported
+        public long getRequests() {
+            return requests.sum();
+        }
+
+        /**
+         * Returns the number of requests that failed without a response.
+         *
+         * @return the number of requests that failed without a response, timeouts included.
+         */
+        @Exported
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        /**
+         * Returns the number of requests that timed out.
+         *
+         * @return the number of requests that timed out.
+         */
+        @Exported
+        public long getTimeouts() {
+            return timeouts.sum();
+        }
+
+        /**
+         * Returns the number of requests waiting for a permit of the {@link HostConcurrencyLimiter}.
+         *
+         * @return the number of queued requests.
+         */
+        @Exported
+        public int getQueued() {
+            return queued.get();
+        }
+
+        /**
+         * Returns the number of requests the {@link HostConcurrencyLimiter} rejected.
+         *
+         * @return the number of rejected requests.
+         */
+        @Exported
+        public long getRejected() {
+            return rejected.sum();
+        }
+
+        /**
+         * Returns the number of requests the {@link CircuitBreaker} failed right away.
+         *
+         * @return the number of requests failed right away.
+         */
+        @Exported
+        public long getShortCircuited() {
+            return shortCircuited.sum();
+        }
+
+        /**
+         * Returns the latency histograms of the outcomes seen so far.
+         *
+         * @return the latency histograms.
+         */
+        @Exported(inline = true)
+        public List<LatencyHistogram> getLatencies() {
+            List<LatencyHistogram> result = new ArrayList<LatencyHistogram>();
+            for (int i = 0; i < latencies.length(); i++) {
+                LatencyHistogram histogram = latencies.get(i);
+                if (histogram != null) {
+                    result.add(histogram);
+                }
+            }
+            return result;
+        }
+    }
+}
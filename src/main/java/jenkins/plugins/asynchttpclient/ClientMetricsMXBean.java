@@ -0,0 +1,122 @@
+package jenkins.plugins.asynchttpclient;
+
+import java.util.List;
+import jenkins.plugins.asynchttpclient.util.LatencyHistogram;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * The JMX view of the {@link ClientMetrics} of the shared instance or of a named instance.
+ *
+ * @since 1.9.40.1
+ */
+@Restricted(NoExternalUse.class)
+public interface ClientMetricsMXBean {
+
+    /**
+     * Returns the name of the instance.
+     *
+     * @return the name of the instance, empty for the shared instance.
+     */
+    String getName();
+
+    /**
+     * Returns the number of requests submitted.
+     *
+     * @return the number of requests submitted.
+     */
+    long getRequests();
+
+    /**
+     * Returns the number of requests that failed without a response.
+     *
+     * @return the number of requests that failed without a response, timeouts included.
+     */
+    long getErrors();
+
+    /**
+     * Returns the number of requests that timed out.
+     *
+     * @return the number of requests that timed out.
+     */
+    long getTimeouts();
+
+    /**
+     * Returns the number of requests submitted but not completed yet.
+     *
+     * @return the number of requests in flight.
+     */
+    int getInFlight();
+
+    /**
+     * Returns the number of requests waiting for a permit of the per host concurrency limit.
+     *
+     * @return the number of queued requests.
+     */
+    int getQueued();
+
+    /**
+     * Returns the number of requests rejected because the queue of their host was full or because they waited too
+     * long.
+     *
+     * @return the number of rejected requests.
+     */
+    long getRejected();
+
+    /**
+     * Returns the number of retries, each retry is also counted as a request.
+     *
+     * @return the number of retries.
+     */
+    long getRetries();
+
+    /**
+     * Returns the number of requests the circuit breaker failed right away because the circuit of their host was
+     * open.
+     *
+     * @return the number of requests failed right away.
+     */
+    long getShortCircuited();
+
+    /**
+     * Returns how long the last pre-warming of the connections took.
+     *
+     * @return how long the last warm-up took, in milliseconds, {@code -1} if no warm-up completed.
+     */
+    long getWarmUpMillis();
+
+    /**
+     * Returns the number of connections the last pre-warming opened.
+     *
+     * @return the number of connections opened by the last warm-up.
+     */
+    int getWarmUpConnections();
+
+    /**
+     * Returns the number of connections the last pre-warming failed to open.
+     *
+     * @return the number of connections the last warm-up failed to open.
+     */
+    int getWarmUpFailures();
+
+    /**
+     * Returns the state of the circuit breaker of each host.
+     *
+     * @return the state of the circuits, empty if the instance has no circuit breaker.
+     */
+    List<CircuitState> getCircuits();
+
+    /**
+     * Returns how long the requests waited for a permit of the per host concurrency limit.
+     *
+     * @return the histogram of the waits.
+     */
+    LatencyHistogram getQueueWait();
+
+    /**
+     * Returns the metrics of each host.
+     *
+     * @return the metrics of each host.
+     */
+    List<ClientMetrics.HostMetrics> getHosts();
+}
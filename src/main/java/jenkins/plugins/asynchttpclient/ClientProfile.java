@@ -0,0 +1,108 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+
+/**
+ * Tunes a named {@link AsyncHttpClient} instance handed out by {@link AHC#instance(String)}.
+ * <p>
+ * Plugins that issue a lot of traffic, or traffic to slow endpoints, should contribute a profile and use the
+ * instance with the same name, so that they get their own connection pool and I/O threads instead of competing with
+ * every other consumer of the shared instance. The instance is first configured like the shared instance (proxy,
+ * hostname verification, TLS and the global pool and timeout settings) and then passed to
+ * {@link #configure(AsyncHttpClientConfig.Builder)}.
+ * </p>
+ * <pre>
+ * &#64;Extension
+ * public class UploaderProfile extends ClientProfile {
+ *     public String getName() { return "artifact-uploader"; }
+ *     public void configure(AsyncHttpClientConfig.Builder builder) {
+ *         builder.setMaxConnectionsPerHost(4).setRequestTimeout(600000);
+ *     }
+ * }
+ * ...
+ * AHC.instance("artifact-uploader").preparePut(url)...
+ * </pre>
+ *
+ * @since 1.9.40.1
+ */
+public abstract class ClientProfile implements ExtensionPoint {
+
+    /**
+     * Returns the name of the instance this profile tunes.
+     *
+     * @return the name of the instance this profile tunes.
+     */
+    @NonNull
+    public abstract String getName();
+
+    /**
+     * Tunes the configuration of the instance. Called every time the instance is (re)created.
+     *
+     * @param builder the configuration, already set up like the shared instance.
+     */
+    public void configure(@NonNull AsyncHttpClientConfig.Builder builder) {
+    }
+
+    /**
+     * Returns the thresholds of the per host circuit breaker of the instance, which stops sending requests to a host
+     * that keeps failing or answering slowly. Override to opt in:
+     * <pre>
+     * public CircuitBreakerSettings getCircuitBreaker() {
+     *     return new CircuitBreakerSettings().withOpenDuration(60000);
+     * }
+     * </pre>
+     *
+     * @return the thresholds or {@code null}, the default, for no circuit breaker.
+     */
+    @CheckForNull
+    public CircuitBreakerSettings getCircuitBreaker() {
+        return null;
+    }
+
+    /**
+     * Returns whether the instance leaves {@code gzip} and {@code deflate} bodies encoded for the handlers wrapped by
+     * {@link AHCUtils#decompressing(com.ning.http.client.AsyncHandler)}, such as {@link AHCUtils#streamTo}, to
+     * decompress within a size limit. By default the provider decompresses every body, however large, before any
+     * handler sees it. Override to opt in, in profiles whose instance only streams downloads: the handlers that are
+     * not wrapped get the encoded bodies, with their {@code Content-Encoding}.
+     *
+     * @return {@code true} to decompress in the handlers, {@code false}, the default, to let the provider do it.
+     */
+    public boolean isDecompressingInHandlers() {
+        return false;
+    }
+
+    /**
+     * Returns all the registered profiles.
+     *
+     * @return all the registered profiles.
+     */
+    @NonNull
+    public static ExtensionList<ClientProfile> all() {
+        return ExtensionList.lookup(ClientProfile.class);
+    }
+
+    /**
+     * Returns the profile with the given name.
+     *
+     * @param name the name.
+     * @return the profile or {@code null} if there is none.
+     */
+    @CheckForNull
+    public static ClientProfile byName(@CheckForNull String name) {
+        if (name == null) {
+            return null;
+        }
+        for (ClientProfile profile : all()) {
+            if (name.equals(profile.getName())) {
+                return profile;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,196 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.ning.http.client.ListenableFuture;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+/**
+ * A {@link ListenableFuture} completed by the plugin rather than by the provider, for results derived from the
+ * response of an upstream request.
+ * <p>
+ * Cancelling or aborting this future cancels or aborts the upstream request, if there is one.
+ * </p>
+ *
+ * @param <T> the type of the result.
+ * @since 1.9.40.1
+ */
+class CompletableListenableFuture<T> implements ListenableFuture<T> {
+
+    /**
+     * Runs the completion listeners on the thread completing the future.
+     */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * The result.
+     */
+    private final CompletableFuture<T> result = new CompletableFuture<T>();
+
+    /**
+     * The request the result is derived from, if any.
+     */
+    @CheckForNull
+    private volatile ListenableFuture<?> upstream;
+
+    /**
+     * Sets the request the result is derived from.
+     *
+     * @param upstream the request the result is derived from.
+     */
+    void setUpstream(ListenableFuture<?> upstream) {
+        this.upstream = upstream;
+        if (result.isCancelled()) {
+            upstream.cancel(true);
+        }
+    }
+
+    /**
+     * Sets the request the result is derived from, and completes this future the way that request completes.
+     *
+     * @param upstream the request this future stands for.
+     */
+    void follow(final ListenableFuture<T> upstream) {
+        setUpstream(upstream);
+        upstream.addListener(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    complete(upstream.get());
+                } catch (ExecutionException e) {
+                    fail(e.getCause());
+                } catch (CancellationException e) {
+                    cancel(false);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    fail(e);
+                }
+            }
+        }, DIRECT);
+    }
+
+    /**
+     * Completes this future with a result.
+     *
+     * @param value the result.
+     * @return {@code true} if this call completed the future.
+     */
+    boolean complete(T value) {
+        return result.complete(value);
+    }
+
+    /**
+     * Completes this future with a failure.
+     *
+     * @param failure the failure.
+     * @return {@code true} if this call completed the future.
+     */
+    boolean fail(Throwable failure) {
+        return result.completeExceptionally(failure);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void done() {
+        ListenableFuture<?> request = upstream;
+        if (request != null) {
+            request.done();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void abort(Throwable t) {
+        ListenableFuture<?> request = upstream;
+        if (request != null && !request.isDone()) {
+            request.abort(t);
+        }
+        result.completeExceptionally(t);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void touch() {
+        ListenableFuture<?> request = upstream;
+        if (request != null) {
+            request.touch();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ListenableFuture<T> addListener(final Runnable listener, final Executor exec) {
+        result.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable failure) {
+                exec.execute(listener);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!result.cancel(mayInterruptIfRunning)) {
+            return false;
+        }
+        ListenableFuture<?> request = upstream;
+        if (request != null) {
+            request.cancel(mayInterruptIfRunning);
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancelled() {
+        return result.isCancelled();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isDone() {
+        return result.isDone();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        return result.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        return result.get(timeout, unit);
+    }
+}
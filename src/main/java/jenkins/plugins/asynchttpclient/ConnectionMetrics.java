@@ -0,0 +1,168 @@
+package jenkins.plugins.asynchttpclient;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * The connection and TLS counters shared by all the clients of the plugin.
+ *
+ * @since 1.9.40.1
+ */
+@ExportedBean
+@Restricted(NoExternalUse.class)
+public class ConnectionMetrics implements ConnectionMetricsMXBean {
+
+    /**
+     * The singleton.
+     */
+    static final ConnectionMetrics INSTANCE = new ConnectionMetrics();
+
+    private ConnectionMetrics() {
+    }
+
+    /**
+     * Returns the name the metrics are registered under in JMX.
+     *
+     * @return the JMX object name.
+     */
+    static ObjectName getObjectName() {
+        try {
+            return new ObjectName("jenkins.plugins.asynchttpclient:type=ConnectionMetrics");
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalStateException("The name is constant", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public int getOpenConnections() {
+        return SharedNettyResources.getOpenConnections();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public long getConnectionsOpened() {
+        return SharedNettyResources.getConnectionsOpened();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public long getFullHandshakes() {
+        return AHCUtils.getHandshakeStatistics().getFullHandshakes();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public long getResumedHandshakes() {
+        return AHCUtils.getHandshakeStatistics().getResumedHandshakes();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public long getVerificationCacheHits() {
+        return AHCUtils.getVerificationCache().getHits();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public long getVerificationCacheMisses() {
+        return AHCUtils.getVerificationCache().getMisses();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public String getSelectorProvider() {
+        return SharedNettyResources.getSelectorProvider();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public long getDirectBufferBytes() {
+        return ChunkedDirectBufferFactory.INSTANCE.getReservedBytes();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public int getDirectBufferChunks() {
+        return ChunkedDirectBufferFactory.INSTANCE.getChunks();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public long getDirectBuffersAllocated() {
+        return ChunkedDirectBufferFactory.INSTANCE.getBuffersAllocated();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public long getDirectBufferLeaks() {
+        return ChunkedDirectBufferFactory.INSTANCE.getLeaks();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public long getDnsCacheHits() {
+        AHC ahc = AHC.lookupOrNull();
+        return ahc == null ? 0 : ahc.getDnsCache().getHits();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public long getDnsCacheMisses() {
+        AHC ahc = AHC.lookupOrNull();
+        return ahc == null ? 0 : ahc.getDnsCache().getMisses();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public long getDnsCacheRefreshes() {
+        AHC ahc = AHC.lookupOrNull();
+        return ahc == null ? 0 : ahc.getDnsCache().getRefreshes();
+    }
+}
@@ -0,0 +1,113 @@
+package jenkins.plugins.asynchttpclient;
+
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * The JMX view of the {@link ConnectionMetrics}.
+ *
+ * @since 1.9.40.1
+ */
+@Restricted(NoExternalUse.class)
+public interface ConnectionMetricsMXBean {
+
+    /**
+     * Returns the number of connections currently open.
+     *
+     * @return the number of open connections.
+     */
+    int getOpenConnections();
+
+    /**
+     * Returns the number of connections ever opened.
+     *
+     * @return the number of connections opened.
+     */
+    long getConnectionsOpened();
+
+    /**
+     * Returns the number of full TLS handshakes.
+     *
+     * @return the number of full TLS handshakes.
+     */
+    long getFullHandshakes();
+
+    /**
+     * Returns the number of resumed TLS handshakes.
+     *
+     * @return the number of resumed TLS handshakes.
+     */
+    long getResumedHandshakes();
+
+    /**
+     * Returns the number of hostname verifications answered from the cache.
+     *
+     * @return the number of verification cache hits.
+     */
+    long getVerificationCacheHits();
+
+    /**
+     * Returns the number of hostname verifications that had to be done.
+     *
+     * @return the number of verification cache misses.
+     */
+    long getVerificationCacheMisses();
+
+    /**
+     * Returns the selector implementation the I/O threads poll the connections with, e.g.
+     * {@code sun.nio.ch.EPollSelectorProvider} on Linux, as chosen by the
+     * {@code java.nio.channels.spi.SelectorProvider} system property, if set.
+     *
+     * @return the class name of the selector provider.
+     */
+    String getSelectorProvider();
+
+    /**
+     * Returns the bytes of direct memory held by the chunked direct buffers, until the garbage collector frees them.
+     *
+     * @return the bytes of direct memory held.
+     */
+    long getDirectBufferBytes();
+
+    /**
+     * Returns the number of chunks of direct memory the chunked direct buffers are carved out of.
+     *
+     * @return the number of chunks held.
+     */
+    int getDirectBufferChunks();
+
+    /**
+     * Returns the number of chunked direct buffers ever allocated.
+     *
+     * @return the number of direct buffers allocated.
+     */
+    long getDirectBuffersAllocated();
+
+    /**
+     * Returns the number of chunked direct buffers reported by the leak detection, {@code 0} unless it is switched on.
+     *
+     * @return the number of leaked direct buffers.
+     */
+    long getDirectBufferLeaks();
+
+    /**
+     * Returns the number of host name lookups answered from the cache.
+     *
+     * @return the number of host name cache hits.
+     */
+    long getDnsCacheHits();
+
+    /**
+     * Returns the number of host name lookups that had to wait for the name service.
+     *
+     * @return the number of host name cache misses.
+     */
+    long getDnsCacheMisses();
+
+    /**
+     * Returns the number of host name lookups refreshed in the background before they expired.
+     *
+     * @return the number of background refreshes.
+     */
+    long getDnsCacheRefreshes();
+}
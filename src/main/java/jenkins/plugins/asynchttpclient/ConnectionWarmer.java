@@ -0,0 +1,141 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.ListenableFuture;
+import com.ning.http.client.Response;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Opens pooled connections to the hosts a new client generation is expected to talk to, so that the first real
+ * requests do not pay for the name lookup, the TCP and TLS handshakes and the proxy {@code CONNECT}.
+ * <p>
+ * The 1.9 client cannot open a connection without sending a request, so each connection is opened by a
+ * {@code HEAD /} request: whatever the answer, the connection then goes back to the pool. All the requests are sent
+ * at once, so that they do not reuse each other's connections, and nothing waits for them.
+ * </p>
+ *
+ * @since 1.9.40.1
+ */
+final class ConnectionWarmer {
+
+    /**
+     * Our logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(ConnectionWarmer.class.getName());
+
+    /**
+     * Runs the completion listeners on the thread completing the request.
+     */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private ConnectionWarmer() {
+    }
+
+    /**
+     * Parses the hosts to pre-warm.
+     *
+     * @param hosts the hosts, each either a URL or a {@code host[:port]} reached over HTTPS.
+     * @return the URLs to send the warm-up requests to, the invalid entries being logged and skipped.
+     */
+    static List<String> parse(String[] hosts) {
+        List<String> urls = new ArrayList<String>();
+        for (String host : hosts) {
+            String spec = host.contains("://") ? host : "https://" + host;
+            try {
+                URI uri = new URI(spec);
+                String scheme = uri.getScheme() == null ? "" : uri.getScheme().toLowerCase(Locale.ENGLISH);
+                if (uri.getHost() == null || !(scheme.equals("http") || scheme.equals("https"))) {
+                    throw new URISyntaxException(spec, "Expected an http or https URL with a host");
+                }
+                urls.add(new URI(scheme, null, uri.getHost(), uri.getPort(), "/", null, null).toString());
+            } catch (URISyntaxException e) {
+                LOGGER.log(Level.WARNING, "Ignoring invalid host to pre-warm: {0}", e.getMessage());
+            }
+        }
+        return urls;
+    }
+
+    /**
+     * Opens connections in the background.
+     *
+     * @param client      the client whose pool should be warmed.
+     * @param urls        the URLs to send the warm-up requests to, see {@link #parse(String[])}.
+     * @param connections the number of connections to open to each URL.
+     * @param metrics     where the warm-up is recorded.
+     */
+    static void warmUp(AsyncHttpClient client, List<String> urls, int connections, final ClientMetrics metrics) {
+        final int total = urls.size() * connections;
+        if (total == 0) {
+            return;
+        }
+        final long start = System.nanoTime();
+        final AtomicInteger remaining = new AtomicInteger(total);
+        final AtomicInteger failures = new AtomicInteger();
+        for (String url : urls) {
+            for (int i = 0; i < connections; i++) {
+                final String target = url;
+                final ListenableFuture<Response> future;
+                try {
+                    future = client.prepareHead(url).execute();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.FINE, "Could not pre-warm " + target, e);
+                    failures.incrementAndGet();
+                    if (remaining.decrementAndGet() == 0) {
+                        done(total, failures.get(), System.nanoTime() - start, metrics);
+                    }
+                    continue;
+                }
+                future.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            future.get();
+                        } catch (ExecutionException e) {
+                            LOGGER.log(Level.FINE, "Could not pre-warm " + target, e.getCause());
+                            failures.incrementAndGet();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            failures.incrementAndGet();
+                        } catch (RuntimeException e) {
+                            // cancelled
+                            failures.incrementAndGet();
+                        }
+                        if (remaining.decrementAndGet() == 0) {
+                            done(total, failures.get(), System.nanoTime() - start, metrics);
+                        }
+                    }
+                }, DIRECT);
+            }
+        }
+    }
+
+    /**
+     * Reports a completed warm-up.
+     *
+     * @param total    the number of connections attempted.
+     * @param failures the number of connections that could not be opened.
+     * @param nanos    how long the warm-up took, in nanoseconds.
+     * @param metrics  where the warm-up is recorded.
+     */
+    private static void done(int total, int failures, long nanos, ClientMetrics metrics) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        metrics.warmedUp(total - failures, failures, millis);
+        LOGGER.log(failures == 0 ? Level.INFO : Level.WARNING, "Pre-warmed {0} of {1} connections in {2}ms",
+                new Object[]{total - failures, total, millis});
+    }
+}
@@ -0,0 +1,640 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.FluentCaseInsensitiveStringsMap;
+import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.HttpResponseHeaders;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decompresses {@code gzip} and {@code deflate} encoded bodies on their way to a streaming handler.
+ * <p>
+ * Each compressed body part is inflated into buffers borrowed from a shared pool, and the handler gets the
+ * decompressed bytes as they come, in parts that wrap the pooled buffers: the parts are only valid during
+ * {@link AsyncHandler#onBodyPartReceived}, which suits handlers that write them somewhere but not handlers that keep
+ * them, such as {@code AsyncCompletionHandler}. The {@link Inflater}s are pooled as well, so that a steady flow of
+ * compressed responses allocates neither inflaters nor buffers. The handler sees the headers without
+ * {@code Content-Encoding} and {@code Content-Length}, which describe the compressed body. The request fails once the
+ * decompressed body exceeds the size limit, so that a small compressed response cannot fill the disk or the heap.
+ * </p>
+ * <p>
+ * The Netty provider decompresses the bodies itself unless the client leaves them encoded, see
+ * {@link ClientProfile#isDecompressingInHandlers()}: {@link ManagedAsyncHttpClient} {@link #unwrap unwraps} this
+ * handler on the other clients.
+ * </p>
+ *
+ * @param <T> the type of the result.
+ * @since 1.9.40.1
+ */
+final class DecompressingAsyncHandler<T> extends ForwardingAsyncHandler<T> {
+
+    /**
+     * The default maximum size of a decompressed body.
+     */
+    static final long MAX_BYTES =
+            Long.getLong(DecompressingAsyncHandler.class.getName() + ".maxBytes", 1024L * 1024 * 1024);
+
+    /**
+     * The size of the pooled buffers.
+     */
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    /**
+     * The maximum number of inflaters and of buffers kept in each pool.
+     */
+    private static final int POOL_SIZE =
+            Integer.getInteger(DecompressingAsyncHandler.class.getName() + ".poolSize", 64);
+
+    /**
+     * The pooled inflaters for raw deflate data, as found in {@code gzip} bodies.
+     */
+    private static final BlockingQueue<Inflater> RAW_INFLATERS = new ArrayBlockingQueue<Inflater>(POOL_SIZE);
+
+    /**
+     * The pooled inflaters for {@code zlib} wrapped deflate data, as found in most {@code deflate} bodies.
+     */
+    private static final BlockingQueue<Inflater> ZLIB_INFLATERS = new ArrayBlockingQueue<Inflater>(POOL_SIZE);
+
+    /**
+     * The pooled buffers.
+     */
+    private static final BlockingQueue<byte[]> BUFFERS = new ArrayBlockingQueue<byte[]>(POOL_SIZE);
+
+    /**
+     * The values of {@link #state}: between body parts, while decoding a body part on the I/O thread, and once the
+     * request is over and the inflater released or to be released by the I/O thread.
+     */
+    private static final int IDLE = 0, DECODING = 1, DONE = 2;
+
+    /**
+     * The gzip header flags.
+     */
+    private static final int FHCRC = 2, FEXTRA = 4, FNAME = 8, FCOMMENT = 16;
+
+    /**
+     * Where the decoder is in the body.
+     */
+    private enum Stage {
+        /**
+         * The body is not encoded.
+         */
+        IDENTITY,
+        /**
+         * Before the first byte of a {@code deflate} body, which tells whether it is {@code zlib} wrapped.
+         */
+        DEFLATE_START,
+        /**
+         * In the fixed part of a gzip header.
+         */
+        GZIP_HEADER,
+        /**
+         * In the length of the extra field of a gzip header.
+         */
+        GZIP_EXTRA_LENGTH,
+        /**
+         * In the extra field of a gzip header.
+         */
+        GZIP_EXTRA,
+        /**
+         * In the file name of a gzip header.
+         */
+        GZIP_NAME,
+        /**
+         * In the comment of a gzip header.
+         */
+        GZIP_COMMENT,
+        /**
+         * In the CRC of a gzip header.
+         */
+        GZIP_HEADER_CRC,
+        /**
+         * In the compressed data.
+         */
+        DATA,
+        /**
+         * In the trailer of a gzip member.
+         */
+        GZIP_TRAILER,
+        /**
+         * At the end of a gzip member or of a deflate stream.
+         */
+        END
+    }
+
+    /**
+     * The maximum size of the decompressed body.
+     */
+    private final long maxBytes;
+
+    private Stage stage = Stage.IDENTITY;
+
+    /**
+     * Whether the body is gzip encoded.
+     */
+    private boolean gzip;
+
+    /**
+     * The inflater, while decoding.
+     */
+    @CheckForNull
+    private Inflater inflater;
+
+    /**
+     * Whether {@link #inflater} comes from {@link #RAW_INFLATERS}.
+     */
+    private boolean raw;
+
+    /**
+     * The checksum of the current gzip member.
+     */
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * The header flags of the current gzip member.
+     */
+    private int flags;
+
+    /**
+     * The bytes left in the current fixed size field, or the gzip header and trailer bytes kept so far.
+     */
+    private int remaining;
+
+    /**
+     * The fixed size fields being read: gzip header, extra field length or trailer.
+     */
+    private final byte[] field = new byte[10];
+
+    /**
+     * The number of bytes of the current gzip member, modulo 2<sup>32</sup>.
+     */
+    private long memberBytes;
+
+    /**
+     * The number of decompressed bytes so far.
+     */
+    private long decompressed;
+
+    /**
+     * Whether any compressed byte was received.
+     */
+    private boolean started;
+
+    /**
+     * Who owns {@link #inflater}: {@link #onThrowable} may run on another thread while a body part is decoded on the
+     * I/O thread, in which case the I/O thread releases the inflater once done with it.
+     */
+    private final AtomicInteger state = new AtomicInteger(IDLE);
+
+    /**
+     * Constructor.
+     *
+     * @param delegate the handler getting the decompressed body.
+     * @param maxBytes the maximum size of the decompressed body.
+     */
+    DecompressingAsyncHandler(AsyncHandler<T> delegate, long maxBytes) {
+        super(delegate);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public STATE onHeadersReceived(HttpResponseHeaders headers) throws Exception {
+        if (headers.isTraillingHeaders()) {
+            return delegate.onHeadersReceived(headers);
+        }
+        FluentCaseInsensitiveStringsMap map = headers.getHeaders();
+        String encoding = map.getFirstValue("Content-Encoding");
+        encoding = encoding == null ? "" : encoding.trim().toLowerCase(Locale.ENGLISH);
+        if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+            gzip = true;
+            stage = Stage.GZIP_HEADER;
+            remaining = 10;
+        } else if (encoding.equals("deflate")) {
+            stage = Stage.DEFLATE_START;
+        } else {
+            return delegate.onHeadersReceived(headers);
+        }
+        final FluentCaseInsensitiveStringsMap decoded = new FluentCaseInsensitiveStringsMap(map);
+        decoded.delete("Content-Encoding");
+        decoded.delete("Content-Length");
+        return delegate.onHeadersReceived(new HttpResponseHeaders() {
+            @Override
+            public FluentCaseInsensitiveStringsMap getHeaders() {
+                return decoded;
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public STATE onBodyPartReceived(HttpResponseBodyPart bodyPart) throws Exception {
+        if (stage == Stage.IDENTITY) {
+            return delegate.onBodyPartReceived(bodyPart);
+        }
+        if (!state.compareAndSet(IDLE, DECODING)) {
+            // the request failed meanwhile
+            return STATE.ABORT;
+        }
+        ByteBuffer input = bodyPart.getBodyByteBuffer();
+        started |= input.hasRemaining();
+        byte[] buffer = borrowBuffer();
+        try {
+            Part part = new Part(buffer, bodyPart);
+            STATE next = decode(input, part);
+            if (next == STATE.CONTINUE && (part.length > 0 || bodyPart.isLast())) {
+                next = part.deliver(bodyPart.isLast());
+            }
+            return next;
+        } finally {
+            releaseBuffer(buffer);
+            if (!state.compareAndSet(DECODING, IDLE)) {
+                // onThrowable left the inflater to us
+                releaseInflater();
+            }
+        }
+    }
+
+    /**
+     * Decodes a compressed body part.
+     *
+     * @param input the compressed bytes.
+     * @param part  where the decompressed bytes go.
+     * @return whether to go on.
+     * @throws Exception if the body is corrupt or too large, or if the handler fails.
+     */
+    private STATE decode(ByteBuffer input, Part part) throws Exception {
+        while (input.hasRemaining()) {
+            switch (stage) {
+                case DEFLATE_START:
+                    // zlib starts with a CMF byte for deflate with a window of at most 32K; raw deflate rarely does
+                    int cmf = input.get(input.position()) & 0xFF;
+                    boolean zlib = (cmf & 0x0F) == 8 && (cmf >> 4) <= 7;
+                    startInflating(!zlib);
+                    break;
+                case GZIP_HEADER:
+                    if (readField(input)) {
+                        if ((field[0] & 0xFF) != 0x1F || (field[1] & 0xFF) != 0x8B || field[2] != 8) {
+                            throw new ZipException("Not in gzip format");
+                        }
+                        flags = field[3] & 0xFF;
+                        crc.reset();
+                        crc.update(field, 0, 10);
+                        nextHeaderField(Stage.GZIP_EXTRA_LENGTH);
+                    }
+                    break;
+                case GZIP_EXTRA_LENGTH:
+                    if (readField(input)) {
+                        crc.update(field, 0, 2);
+                        remaining = (field[0] & 0xFF) | (field[1] & 0xFF) << 8;
+                        stage = Stage.GZIP_EXTRA;
+                    }
+                    break;
+                case GZIP_EXTRA:
+                    if (remaining == 0) {
+                        nextHeaderField(Stage.GZIP_NAME);
+                    } else {
+                        int n = Math.min(remaining, input.remaining());
+                        for (int i = 0; i < n; i++) {
+                            crc.update(input.get());
+                        }
+                        remaining -= n;
+                    }
+                    break;
+                case GZIP_NAME:
+                case GZIP_COMMENT:
+                    byte b = input.get();
+                    crc.update(b);
+                    if (b == 0) {
+                        nextHeaderField(stage == Stage.GZIP_NAME ? Stage.GZIP_COMMENT : Stage.GZIP_HEADER_CRC);
+                    }
+                    break;
+                case GZIP_HEADER_CRC:
+                    if (readField(input)) {
+                        int expected = (field[0] & 0xFF) | (field[1] & 0xFF) << 8;
+                        if (expected != ((int) crc.getValue() & 0xFFFF)) {
+                            throw new ZipException("Corrupt gzip header");
+                        }
+                        nextHeaderField(Stage.DATA);
+                    }
+                    break;
+                case DATA:
+                    STATE state = inflate(input, part);
+                    if (state != STATE.CONTINUE) {
+                        return state;
+                    }
+                    break;
+                case GZIP_TRAILER:
+                    if (readField(input)) {
+                        long expectedCrc = readInt(0);
+                        long expectedSize = readInt(4);
+                        if (expectedCrc != crc.getValue()) {
+                            throw new ZipException("Corrupt gzip body: CRC mismatch");
+                        }
+                        if (expectedSize != (memberBytes & 0xFFFFFFFFL)) {
+                            throw new ZipException("Corrupt gzip body: size mismatch");
+                        }
+                        stage = Stage.END;
+                    }
+                    break;
+                case END:
+                    if (!gzip) {
+                        // trailing garbage after a deflate stream
+                        input.position(input.limit());
+                    } else {
+                        // another gzip member follows
+                        stage = Stage.GZIP_HEADER;
+                        remaining = 10;
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException(stage.name());
+            }
+        }
+        return STATE.CONTINUE;
+    }
+
+    /**
+     * Moves to the next field of a gzip header, skipping the fields absent from it.
+     *
+     * @param next the next field.
+     */
+    private void nextHeaderField(Stage next) {
+        if (next == Stage.GZIP_EXTRA_LENGTH && (flags & FEXTRA) == 0) {
+            next = Stage.GZIP_NAME;
+        }
+        if (next == Stage.GZIP_NAME && (flags & FNAME) == 0) {
+            next = Stage.GZIP_COMMENT;
+        }
+        if (next == Stage.GZIP_COMMENT && (flags & FCOMMENT) == 0) {
+            next = Stage.GZIP_HEADER_CRC;
+        }
+        if (next == Stage.GZIP_HEADER_CRC && (flags & FHCRC) == 0) {
+            next = Stage.DATA;
+        }
+        stage = next;
+        if (next == Stage.GZIP_EXTRA_LENGTH || next == Stage.GZIP_HEADER_CRC) {
+            remaining = 2;
+        } else if (next == Stage.DATA) {
+            startInflating(true);
+            crc.reset();
+            memberBytes = 0;
+        }
+    }
+
+    /**
+     * Reads the bytes of a fixed size field.
+     *
+     * @param input the compressed bytes.
+     * @return {@code true} once the field is complete.
+     */
+    private boolean readField(ByteBuffer input) {
+        int size = stage == Stage.GZIP_HEADER ? 10 : stage == Stage.GZIP_TRAILER ? 8 : 2;
+        int n = Math.min(remaining, input.remaining());
+        input.get(field, size - remaining, n);
+        remaining -= n;
+        return remaining == 0;
+    }
+
+    /**
+     * Returns a little endian unsigned integer of {@link #field}.
+     *
+     * @param offset where the integer starts.
+     * @return the integer.
+     */
+    private long readInt(int offset) {
+        return ((field[offset] & 0xFFL) | (field[offset + 1] & 0xFFL) << 8 | (field[offset + 2] & 0xFFL) << 16
+                | (field[offset + 3] & 0xFFL) << 24);
+    }
+
+    /**
+     * Gets an inflater ready for compressed data.
+     *
+     * @param nowrap whether the data is raw deflate data rather than {@code zlib} wrapped.
+     */
+    private void startInflating(boolean nowrap) {
+        if (inflater != null && raw != nowrap) {
+            releaseInflater();
+        }
+        if (inflater == null) {
+            Inflater pooled = (nowrap ? RAW_INFLATERS : ZLIB_INFLATERS).poll();
+            inflater = pooled != null ? pooled : new Inflater(nowrap);
+            raw = nowrap;
+        } else {
+            inflater.reset();
+        }
+        stage = Stage.DATA;
+    }
+
+    /**
+     * Inflates compressed data, handing the decompressed bytes to the handler whenever the buffer is full.
+     *
+     * @param input the compressed bytes.
+     * @param part  where the decompressed bytes go.
+     * @return whether to go on.
+     * @throws Exception if the body is corrupt or too large, or if the handler fails.
+     */
+    private STATE inflate(ByteBuffer input, Part part) throws Exception {
+        Inflater inflater = this.inflater;
+        byte[] compressed;
+        int offset;
+        int length = input.remaining();
+        if (input.hasArray()) {
+            compressed = input.array();
+            offset = input.arrayOffset() + input.position();
+        } else {
+            compressed = new byte[length];
+            input.duplicate().get(compressed);
+            offset = 0;
+        }
+        inflater.setInput(compressed, offset, length);
+        while (true) {
+            int n;
+            try {
+                n = inflater.inflate(part.buffer, part.length, part.buffer.length - part.length);
+            } catch (DataFormatException e) {
+                throw new ZipException(e.getMessage());
+            }
+            if (n > 0) {
+                if (gzip) {
+                    crc.update(part.buffer, part.length, n);
+                    memberBytes += n;
+                }
+                part.length += n;
+                decompressed += n;
+                if (decompressed > maxBytes) {
+                    throw new IOException("The decompressed body exceeds " + maxBytes + " bytes");
+                }
+                if (part.length == part.buffer.length) {
+                    STATE state = part.deliver(false);
+                    if (state != STATE.CONTINUE) {
+                        return state;
+                    }
+                }
+            }
+            if (inflater.finished()) {
+                stage = gzip ? Stage.GZIP_TRAILER : Stage.END;
+                remaining = 8;
+                break;
+            }
+            if (inflater.needsDictionary()) {
+                throw new ZipException("Deflate dictionaries are not supported");
+            }
+            if (n == 0 && inflater.needsInput()) {
+                break;
+            }
+        }
+        input.position(input.limit() - inflater.getRemaining());
+        return STATE.CONTINUE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public T onCompleted() throws Exception {
+        Stage last = stage;
+        if (state.getAndSet(DONE) == IDLE) {
+            releaseInflater();
+        }
+        if (started && last != Stage.END && last != Stage.IDENTITY) {
+            throw new EOFException("Truncated " + (gzip ? "gzip" : "deflate") + " body");
+        }
+        return delegate.onCompleted();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onThrowable(Throwable t) {
+        if (state.getAndSet(DONE) == IDLE) {
+            releaseInflater();
+        }
+        delegate.onThrowable(t);
+    }
+
+    /**
+     * Returns the inflater to the pool, once nothing uses it any more.
+     */
+    private void releaseInflater() {
+        Inflater i = inflater;
+        if (i != null) {
+            inflater = null;
+            i.reset();
+            if (!(raw ? RAW_INFLATERS : ZLIB_INFLATERS).offer(i)) {
+                i.end();
+            }
+        }
+    }
+
+    /**
+     * Removes the decompressing wrappers of a handler.
+     *
+     * @param handler the handler, possibly returned by {@link AHCUtils#decompressing}.
+     * @param <T>     the type of the result.
+     * @return the innermost handler that does not decompress.
+     */
+    static <T> AsyncHandler<T> unwrap(AsyncHandler<T> handler) {
+        while (handler instanceof DecompressingAsyncHandler) {
+            handler = ((DecompressingAsyncHandler<T>) handler).delegate;
+        }
+        return handler;
+    }
+
+    /**
+     * Borrows a buffer from the pool.
+     *
+     * @return the buffer.
+     */
+    private static byte[] borrowBuffer() {
+        byte[] buffer = BUFFERS.poll();
+        return buffer != null ? buffer : new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Returns a buffer to the pool.
+     *
+     * @param buffer the buffer.
+     */
+    private static void releaseBuffer(byte[] buffer) {
+        BUFFERS.offer(buffer);
+    }
+
+    /**
+     * The decompressed bytes handed to the handler, in a pooled buffer.
+     */
+    private final class Part {
+
+        private final byte[] buffer;
+
+        /**
+         * The compressed part the bytes come from.
+         */
+        private final HttpResponseBodyPart source;
+
+        /**
+         * The number of bytes in the buffer.
+         */
+        private int length;
+
+        private Part(byte[] buffer, HttpResponseBodyPart source) {
+            this.buffer = buffer;
+            this.source = source;
+        }
+
+        /**
+         * Hands the bytes in the buffer to the handler, then empties the buffer.
+         *
+         * @param last whether these are the last bytes of the body.
+         * @return whether to go on.
+         * @throws Exception if the handler fails.
+         */
+        STATE deliver(boolean last) throws Exception {
+            final int size = length;
+            length = 0;
+            HttpResponseBodyPart part = new HttpResponseBodyPart(last) {
+                @Override
+                public int length() {
+                    return size;
+                }
+
+                @Override
+                public byte[] getBodyPartBytes() {
+                    return Arrays.copyOf(buffer, size);
+                }
+
+                @Override
+                public int writeTo(OutputStream outputStream) throws IOException {
+                    outputStream.write(buffer, 0, size);
+                    return size;
+                }
+
+                @Override
+                public ByteBuffer getBodyByteBuffer() {
+                    return ByteBuffer.wrap(buffer, 0, size);
+                }
+            };
+            if (source.isUnderlyingConnectionToBeClosed()) {
+                part.markUnderlyingConnectionAsToBeClosed();
+            }
+            return delegate.onBodyPartReceived(part);
+        }
+    }
+}
@@ -0,0 +1,450 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.ProxyServerSelector;
+import com.ning.http.client.Request;
+import com.ning.http.client.RequestBuilder;
+import com.ning.http.client.uri.Uri;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Caches host name lookups for the managed clients, so that the connect path does not wait for the name service.
+ * <p>
+ * The 1.9 client resolves the host of every new connection with a blocking lookup, possibly on a Netty I/O thread. It
+ * does not let us plug in a resolver, but it connects to {@link Request#getInetAddress()} when a request has one. So
+ * {@link #pin(Request, AsyncHttpClientConfig)} resolves the host through this cache and pins the address on the
+ * request. Addresses are cached for the positive TTL and handed out in turn when there are several of them of the
+ * family the name service prefers. An entry used during the last fifth of its TTL is refreshed in the background, so
+ * busy hosts never wait for a lookup. Failed lookups are cached for the negative TTL, so that requests to a host that
+ * does not resolve fail right away.
+ * </p>
+ * <p>
+ * A host that is not cached is looked up on the lookup executor, never on the thread sending the request: the caller
+ * gets a future, which the request is sent from once the lookup has completed. There is at most one lookup of a host
+ * in flight, so that a burst of requests to a host that is not cached yet waits for a single lookup instead of each
+ * of them asking the name service.
+ * </p>
+ * <p>
+ * Requests that go through a proxy are left alone, as the client connects to the proxy, and so are the requests that
+ * follow redirects, as the client would keep the pinned address when following a redirect to another host.
+ * </p>
+ *
+ * @since 1.9.40.1
+ */
+final class DnsCache {
+
+    /**
+     * Our logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(DnsCache.class.getName());
+
+    /**
+     * The maximum number of hosts cached.
+     */
+    private static final int MAX_ENTRIES = Integer.getInteger(DnsCache.class.getName() + ".maxEntries", 1024);
+
+    /**
+     * Matches IPv4 literals, which need no lookup. IPv6 literals are told apart by their colons.
+     */
+    private static final Pattern IPV4 = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+
+    /**
+     * The number of threads looking host names up, which is the number of different hosts looked up at once.
+     */
+    private static final int LOOKUP_THREADS = Integer.getInteger(DnsCache.class.getName() + ".lookupThreads", 4);
+
+    /**
+     * Looks up host names.
+     */
+    interface Resolver {
+        /**
+         * Looks up all the addresses of a host.
+         *
+         * @param host the host name.
+         * @return the addresses, at least one.
+         * @throws UnknownHostException if the host does not resolve.
+         */
+        InetAddress[] resolve(String host) throws UnknownHostException;
+    }
+
+    /**
+     * The JVM name service.
+     */
+    static final Resolver SYSTEM = new Resolver() {
+        @Override
+        public InetAddress[] resolve(String host) throws UnknownHostException {
+            return InetAddress.getAllByName(host);
+        }
+    };
+
+    private final Resolver resolver;
+
+    /**
+     * Runs the lookups and the background refreshes.
+     */
+    private final Executor executor;
+
+    /**
+     * How long, in milliseconds, addresses are cached.
+     */
+    private volatile long positiveTtl = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * How long, in milliseconds, failed lookups are cached.
+     */
+    private volatile long negativeTtl = TimeUnit.SECONDS.toMillis(5);
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * The lookups in flight, at most one per host name, so that concurrent misses share it.
+     */
+    private final ConcurrentMap<String, CompletableFuture<Entry>> lookups =
+            new ConcurrentHashMap<String, CompletableFuture<Entry>>();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder refreshes = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param resolver looks up the host names.
+     * @param executor runs the lookups and the background refreshes.
+     */
+    DnsCache(Resolver resolver, Executor executor) {
+        this.resolver = resolver;
+        this.executor = executor;
+    }
+
+    /**
+     * Creates an executor for the lookups of a cache, with daemon threads that go away when idle.
+     *
+     * @return the executor.
+     */
+    static Executor newLookupExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(LOOKUP_THREADS, LOOKUP_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "AsyncHttpClient DNS lookup"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Changes how long addresses and failed lookups are cached. Entries already cached keep their expiry.
+     *
+     * @param positiveTtl how long, in milliseconds, addresses are cached.
+     * @param negativeTtl how long, in milliseconds, failed lookups are cached, {@code 0} not to cache them.
+     */
+    void setTtl(long positiveTtl, long negativeTtl) {
+        this.positiveTtl = Math.max(1, positiveTtl);
+        this.negativeTtl = Math.max(0, negativeTtl);
+    }
+
+    /**
+     * Pins the address of the host on a request, unless the client would not connect to the host directly.
+     *
+     * @param request the request.
+     * @param config  the configuration of the client sending the request.
+     * @return the request with the address of its host or the request itself, already done unless the host had to be
+     * looked up; failed with an {@link UnknownHostException} if the host does not resolve.
+     */
+    CompletableFuture<Request> pin(final Request request, AsyncHttpClientConfig config) {
+        if (request.getInetAddress() != null || request.getProxyServer() != null) {
+            return CompletableFuture.completedFuture(request);
+        }
+        Boolean followRedirect = request.getFollowRedirect();
+        if (followRedirect != null ? followRedirect : config.isFollowRedirect()) {
+            return CompletableFuture.completedFuture(request);
+        }
+        Uri uri = request.getUri();
+        String host = uri.getHost();
+        if (host == null || host.indexOf(':') >= 0 || host.startsWith("[") || IPV4.matcher(host).matches()) {
+            return CompletableFuture.completedFuture(request);
+        }
+        ProxyServerSelector selector = config.getProxyServerSelector();
+        if (selector != null && selector.select(uri) != null) {
+            return CompletableFuture.completedFuture(request);
+        }
+        return resolve(host).thenApply(new Function<InetAddress, Request>() {
+            @Override
+            public Request apply(InetAddress address) {
+                return new RequestBuilder(request).setInetAddress(address).build();
+            }
+        });
+    }
+
+    /**
+     * Returns an address of a host, from the cache if possible. Never waits for the name service.
+     *
+     * @param host the host name.
+     * @return the next address of the host, already done if it was cached; failed with an
+     * {@link UnknownHostException} if the host does not resolve.
+     */
+    CompletableFuture<InetAddress> resolve(String host) {
+        String key = host.toLowerCase(Locale.ENGLISH);
+        long now = now();
+        Entry entry = entries.get(key);
+        if (entry != null && now < entry.expiresAt) {
+            hits.increment();
+            CompletableFuture<InetAddress> address = new CompletableFuture<InetAddress>();
+            if (entry.failure != null) {
+                address.completeExceptionally(new UnknownHostException(entry.failure.getMessage())
+                        .initCause(entry.failure));
+                return address;
+            }
+            if (now >= entry.refreshAt) {
+                refreshInBackground(key, entry);
+            }
+            address.complete(entry.next());
+            return address;
+        }
+        misses.increment();
+        return lookup(key).thenApply(new Function<Entry, InetAddress>() {
+            @Override
+            public InetAddress apply(Entry entry) {
+                if (entry.failure != null) {
+                    throw new CompletionException(entry.failure);
+                }
+                return entry.next();
+            }
+        });
+    }
+
+    /**
+     * Looks a host up on the lookup executor, unless a lookup of the host is already in flight.
+     *
+     * @param key the host name, in lower case.
+     * @return the entry, once looked up and cached.
+     */
+    private CompletableFuture<Entry> lookup(final String key) {
+        CompletableFuture<Entry> pending = lookups.get(key);
+        if (pending != null) {
+            return pending;
+        }
+        final CompletableFuture<Entry> lookup = new CompletableFuture<Entry>();
+        pending = lookups.putIfAbsent(key, lookup);
+        if (pending != null) {
+            return pending;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Entry entry;
+                    try {
+                        entry = lookupNow(key);
+                    } catch (RuntimeException e) {
+                        lookups.remove(key, lookup);
+                        lookup.completeExceptionally(e);
+                        return;
+                    }
+                    // cached first, so that a request coming after the removal finds the entry
+                    lookups.remove(key, lookup);
+                    lookup.complete(entry);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            lookups.remove(key, lookup);
+            lookup.completeExceptionally(e);
+        }
+        return lookup;
+    }
+
+    /**
+     * Looks a host up, waiting for the name service, and caches the outcome.
+     *
+     * @param key the host name, in lower case.
+     * @return the new entry.
+     */
+    private Entry lookupNow(String key) {
+        long now = now();
+        Entry entry;
+        try {
+            InetAddress[] addresses = resolver.resolve(key);
+            if (addresses.length == 0) {
+                throw new UnknownHostException(key);
+            }
+            long ttl = positiveTtl;
+            entry = new Entry(addresses, null, now + ttl, now + ttl - ttl / 5);
+        } catch (UnknownHostException e) {
+            entry = new Entry(null, e, now + negativeTtl, Long.MAX_VALUE);
+        }
+        if (entry.expiresAt > now) {
+            store(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Refreshes an entry in the background, unless a refresh is already under way.
+     *
+     * @param key   the host name, in lower case.
+     * @param entry the entry.
+     */
+    private void refreshInBackground(final String key, final Entry entry) {
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        refreshes.increment();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long now = now();
+                try {
+                    InetAddress[] addresses = resolver.resolve(key);
+                    if (addresses.length > 0) {
+                        long ttl = positiveTtl;
+                        store(key, new Entry(addresses, null, now + ttl, now + ttl - ttl / 5));
+                    }
+                } catch (UnknownHostException e) {
+                    // keep the addresses we have until they expire
+                    LOGGER.log(Level.FINE, "Could not refresh the addresses of " + key, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Caches an entry, making room for it if needed.
+     *
+     * @param key   the host name, in lower case.
+     * @param entry the entry.
+     */
+    private void store(String key, Entry entry) {
+        if (entries.size() >= MAX_ENTRIES && !entries.containsKey(key)) {
+            long now = now();
+            for (Iterator<Entry> i = entries.values().iterator(); i.hasNext(); ) {
+                if (i.next().expiresAt <= now) {
+                    i.remove();
+                }
+            }
+            if (entries.size() >= MAX_ENTRIES) {
+                return;
+            }
+        }
+        entries.put(key, entry);
+    }
+
+    /**
+     * Forgets everything, for instance when the network configuration changed.
+     */
+    void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Returns the number of lookups answered from the cache.
+     *
+     * @return the number of cache hits, failed lookups included.
+     */
+    long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that had to wait for the name service, alone or sharing the lookup of another.
+     *
+     * @return the number of cache misses.
+     */
+    long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of background refreshes.
+     *
+     * @return the number of background refreshes.
+     */
+    long getRefreshes() {
+        return refreshes.sum();
+    }
+
+    /**
+     * Returns the current time, in milliseconds, from a clock that does not jump.
+     *
+     * @return the current time.
+     */
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * The outcome of a lookup.
+     */
+    private static final class Entry {
+        private final InetAddress[] addresses;
+        private final UnknownHostException failure;
+        private final long expiresAt;
+        private final long refreshAt;
+        /**
+         * The index of the next address to hand out.
+         */
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private Entry(InetAddress[] addresses, UnknownHostException failure, long expiresAt, long refreshAt) {
+            this.addresses = addresses == null ? null : preferredFamily(addresses);
+            this.failure = failure;
+            this.expiresAt = expiresAt;
+            this.refreshAt = refreshAt;
+        }
+
+        private InetAddress next() {
+            return addresses[(next.getAndIncrement() & Integer.MAX_VALUE) % addresses.length];
+        }
+
+        /**
+         * Keeps the addresses of the same family as the first one. The name service lists the preferred family first,
+         * see the {@code java.net.preferIPv6Addresses} system property, and the client does not fall back to another
+         * address when a connection fails, so taking turns across families would send every other request of a dual
+         * stack host over the family that may well not work from here.
+         *
+         * @param addresses the addresses of a host, at least one.
+         * @return the addresses of the preferred family, in the same order.
+         */
+        private static InetAddress[] preferredFamily(InetAddress[] addresses) {
+            Class<? extends InetAddress> family = addresses[0].getClass();
+            int count = 0;
+            for (InetAddress address : addresses) {
+                if (address.getClass() == family) {
+                    count++;
+                }
+            }
+            if (count == addresses.length) {
+                return addresses;
+            }
+            InetAddress[] preferred = new InetAddress[count];
+            count = 0;
+            for (InetAddress address : addresses) {
+                if (address.getClass() == family) {
+                    preferred[count++] = address;
+                }
+            }
+            return preferred;
+        }
+    }
+}
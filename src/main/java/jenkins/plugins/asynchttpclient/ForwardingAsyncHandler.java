@@ -0,0 +1,153 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.HttpResponseHeaders;
+import com.ning.http.client.HttpResponseStatus;
+import com.ning.http.client.ProgressAsyncHandler;
+import com.ning.http.client.listener.TransferCompletionHandler;
+import com.ning.http.client.resumable.ResumableAsyncHandler;
+
+/**
+ * An {@link AsyncHandler} that forwards every callback to another handler, for the plugin to observe requests on
+ * their way.
+ * <p>
+ * The provider gives special treatment to some handlers, e.g. transfer listeners, resumable downloads or WebSocket
+ * upgrades, which would be lost by wrapping them: check {@link #isWrappable(AsyncHandler)} first.
+ * </p>
+ *
+ * @param <T> the type of the result.
+ * @since 1.9.40.1
+ */
+abstract class ForwardingAsyncHandler<T> implements ProgressAsyncHandler<T> {
+
+    /**
+     * Whether the handlers of a class can be wrapped.
+     */
+    private static final ClassValue<Boolean> WRAPPABLE = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            if (TransferCompletionHandler.class.isAssignableFrom(type)
+                    || ResumableAsyncHandler.class.isAssignableFrom(type)) {
+                return false;
+            }
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                for (Class<?> i : c.getInterfaces()) {
+                    if (!isWrappableInterface(i)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private boolean isWrappableInterface(Class<?> type) {
+            if (type == AsyncHandler.class || type == ProgressAsyncHandler.class) {
+                return true;
+            }
+            if (type.getName().startsWith("com.ning.http.")) {
+                return false;
+            }
+            for (Class<?> i : type.getInterfaces()) {
+                if (!isWrappableInterface(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    };
+
+    /**
+     * The actual handler.
+     */
+    protected final AsyncHandler<T> delegate;
+
+    /**
+     * Constructor.
+     *
+     * @param delegate the actual handler.
+     */
+    protected ForwardingAsyncHandler(AsyncHandler<T> delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Checks whether a handler can be wrapped without changing how the provider treats it.
+     *
+     * @param handler the handler.
+     * @return {@code true} if the handler only implements {@link AsyncHandler} or {@link ProgressAsyncHandler}.
+     */
+    static boolean isWrappable(AsyncHandler<?> handler) {
+        return WRAPPABLE.get(handler.getClass());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onThrowable(Throwable t) {
+        delegate.onThrowable(t);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public STATE onBodyPartReceived(HttpResponseBodyPart bodyPart) throws Exception {
+        return delegate.onBodyPartReceived(bodyPart);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public STATE onStatusReceived(HttpResponseStatus responseStatus) throws Exception {
+        return delegate.onStatusReceived(responseStatus);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public STATE onHeadersReceived(HttpResponseHeaders headers) throws Exception {
+        return delegate.onHeadersReceived(headers);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public T onCompleted() throws Exception {
+        return delegate.onCompleted();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public STATE onHeaderWriteCompleted() {
+        return delegate instanceof ProgressAsyncHandler
+                ? ((ProgressAsyncHandler<T>) delegate).onHeaderWriteCompleted()
+                : STATE.CONTINUE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public STATE onContentWriteCompleted() {
+        return delegate instanceof ProgressAsyncHandler
+                ? ((ProgressAsyncHandler<T>) delegate).onContentWriteCompleted()
+                : STATE.CONTINUE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public STATE onContentWriteProgress(long amount, long current, long total) {
+        return delegate instanceof ProgressAsyncHandler
+                ? ((ProgressAsyncHandler<T>) delegate).onContentWriteProgress(amount, current, total)
+                : STATE.CONTINUE;
+    }
+}
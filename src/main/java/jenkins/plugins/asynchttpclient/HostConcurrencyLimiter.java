@@ -0,0 +1,401 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.ListenableFuture;
+import com.ning.http.client.filter.FilterException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import jenkins.util.Timer;
+
+/**
+ * Caps the number of requests in flight to each host, for the {@link ManagedAsyncHttpClient}.
+ * <p>
+ * Requests over the limit are parked, in arrival order, in a queue of their host, and the caller gets their future
+ * right away: no thread waits for a permit. Each time a request to the host completes, the permit it held goes to the
+ * head of the queue, which is then sent in the background. At most {@code maxQueued} requests are parked for each
+ * host: the next one is rejected right away, the caller getting a {@link ListenableFuture} that has already failed
+ * with a {@link FilterException} instead of piling up requests. A request parked longer than {@code maxWait} fails
+ * the same way, and a parked request that is cancelled leaves the queue.
+ * </p>
+ * <p>
+ * Requests whose handler cannot be {@link ForwardingAsyncHandler#isWrappable(AsyncHandler) wrapped} are not limited,
+ * as there would be no way to tell when they complete.
+ * </p>
+ * <p>
+ * The limit of a host is forgotten as soon as it has no request in flight or waiting, so that a client talking to ever
+ * new hosts does not keep one for each of them.
+ * </p>
+ *
+ * @since 1.9.40.1
+ */
+class HostConcurrencyLimiter {
+
+    /**
+     * Runs the completion listeners on the thread completing the future.
+     */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * Sends a request once it has a permit.
+     *
+     * @param <T> the type of the result.
+     */
+    interface Send<T> {
+        /**
+         * Sends the request.
+         *
+         * @param handler the handler of the request, which gives the permit back once the request has completed.
+         * @return the future of the request.
+         */
+        ListenableFuture<T> send(AsyncHandler<T> handler);
+    }
+
+    /**
+     * The maximum number of requests in flight to a single host.
+     */
+    private final int maxPerHost;
+
+    /**
+     * The maximum number of requests waiting for a single host.
+     */
+    private final int maxQueued;
+
+    /**
+     * How long, in milliseconds, a request may wait, {@code 0} or less to wait as long as it takes.
+     */
+    private final long maxWait;
+
+    /**
+     * Where the queueing is recorded.
+     */
+    private final ClientMetrics metrics;
+
+    /**
+     * The limits of each host, created on demand.
+     */
+    private final ConcurrentMap<String, HostLimit> limits = new ConcurrentHashMap<String, HostLimit>();
+
+    /**
+     * Constructor.
+     *
+     * @param maxPerHost the maximum number of requests in flight to a single host.
+     * @param maxQueued  the maximum number of requests waiting for a single host.
+     * @param maxWait    how long, in milliseconds, a request may wait, {@code 0} or less to wait as long as it takes.
+     * @param metrics    where the queueing is recorded.
+     */
+    HostConcurrencyLimiter(int maxPerHost, int maxQueued, long maxWait, ClientMetrics metrics) {
+        this.maxPerHost = maxPerHost;
+        this.maxQueued = maxQueued;
+        this.maxWait = maxWait;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sends a request right away if its host has a permit left, parks it otherwise. Never waits.
+     *
+     * @param host    the host of the request.
+     * @param handler the handler of the request.
+     * @param send    sends the request.
+     * @param <T>     the type of the result.
+     * @return the future of the request.
+     */
+    <T> ListenableFuture<T> execute(String host, AsyncHandler<T> handler, Send<T> send) {
+        if (!ForwardingAsyncHandler.isWrappable(handler)) {
+            return send.send(handler);
+        }
+        HostLimit limit;
+        Deferred<T> deferred = null;
+        boolean permitted = false;
+        boolean retired;
+        do {
+            limit = limit(host);
+            synchronized (limit) {
+                // if forgotten meanwhile, the host has a new limit
+                retired = limit.retired;
+                if (retired) {
+                    continue;
+                }
+                if (limit.inFlight < maxPerHost && limit.queue.isEmpty()) {
+                    limit.inFlight++;
+                    permitted = true;
+                } else if (limit.queue.size() < maxQueued) {
+                    deferred = new Deferred<T>(host, limit, handler, send);
+                    limit.queue.add(deferred);
+                    metrics.queued(host);
+                }
+            }
+        } while (retired);
+        if (permitted) {
+            PermitReleasingHandler<T> releasing = new PermitReleasingHandler<T>(handler, limit);
+            try {
+                return send.send(releasing);
+            } catch (RuntimeException e) {
+                releasing.release();
+                throw e;
+            }
+        }
+        if (deferred == null) {
+            metrics.rejected(host);
+            return failed(handler, new FilterException("Too many requests queued for " + host + ": " + maxPerHost
+                    + " in flight and " + maxQueued + " waiting"));
+        }
+        deferred.park();
+        return deferred.future;
+    }
+
+    /**
+     * Gives a permit back, handing it to the head of the queue of the host if there is one, forgetting the limit of the
+     * host if it was the last one in use.
+     *
+     * @param limit the limit of the host.
+     */
+    private void release(HostLimit limit) {
+        Deferred<?> next;
+        synchronized (limit) {
+            next = limit.queue.poll();
+            if (next == null) {
+                if (--limit.inFlight == 0) {
+                    limit.retired = true;
+                    limits.remove(limit.host, limit);
+                }
+                return;
+            }
+        }
+        next.dequeued();
+        // off the thread completing the previous request, which is likely an I/O thread
+        Timer.get().submit(next);
+    }
+
+    /**
+     * Returns the limit of a host, creating it on demand.
+     *
+     * @param host the host.
+     * @return the limit.
+     */
+    private HostLimit limit(String host) {
+        HostLimit limit = limits.get(host);
+        if (limit == null) {
+            HostLimit created = new HostLimit(host);
+            limit = limits.putIfAbsent(host, created);
+            if (limit == null) {
+                limit = created;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Tells a handler that its request failed without sending it.
+     *
+     * @param handler the handler.
+     * @param failure the failure.
+     * @param <T>     the type of the result.
+     * @return the failed future.
+     */
+    private static <T> ListenableFuture<T> failed(AsyncHandler<T> handler, Throwable failure) {
+        handler.onThrowable(failure);
+        return new ListenableFuture.CompletedFailure<T>(failure);
+    }
+
+    /**
+     * The requests in flight and the queue of a single host.
+     */
+    private static final class HostLimit {
+        private final String host;
+        /**
+         * The number of requests holding a permit.
+         */
+        private int inFlight; // guarded by this
+        /**
+         * The requests waiting for a permit, in arrival order.
+         */
+        private final Queue<Deferred<?>> queue = new ArrayDeque<Deferred<?>>(); // guarded by this
+        /**
+         * Set once the limit is forgotten, after which requests to the host use a new one.
+         */
+        private boolean retired; // guarded by this
+
+        private HostLimit(String host) {
+            this.host = host;
+        }
+    }
+
+    /**
+     * A request waiting for a permit, sent once it gets one.
+     *
+     * @param <T> the type of the result.
+     */
+    private final class Deferred<T> implements Runnable {
+        private final String host;
+
+        private final HostLimit limit;
+
+        private final AsyncHandler<T> handler;
+
+        private final Send<T> send;
+
+        /**
+         * The future handed to the caller, following the request once it is sent.
+         */
+        private final CompletableListenableFuture<T> future = new CompletableListenableFuture<T>();
+
+        /**
+         * When the request started waiting, in {@link System#nanoTime()}.
+         */
+        private final long start = System.nanoTime();
+
+        /**
+         * The expiry of the wait, if any.
+         */
+        private volatile ScheduledFuture<?> expiry;
+
+        private Deferred(String host, HostLimit limit, AsyncHandler<T> handler, Send<T> send) {
+            this.host = host;
+            this.limit = limit;
+            this.handler = handler;
+            this.send = send;
+        }
+
+        /**
+         * Arms the expiry of the wait and the removal from the queue on cancellation.
+         */
+        private void park() {
+            if (maxWait > 0) {
+                expiry = Timer.get().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (leave()) {
+                            metrics.rejected(host);
+                            FilterException failure = new FilterException("Request to " + host + " waited more than "
+                                    + maxWait + "ms behind " + maxPerHost + " requests in flight");
+                            handler.onThrowable(failure);
+                            future.fail(failure);
+                        }
+                    }
+                }, maxWait, TimeUnit.MILLISECONDS);
+            }
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    if (future.isCancelled() && leave()) {
+                        handler.onThrowable(new CancellationException());
+                    }
+                }
+            }, DIRECT);
+        }
+
+        /**
+         * Leaves the queue without a permit.
+         *
+         * @return {@code true} if the request was still waiting.
+         */
+        private boolean leave() {
+            synchronized (limit) {
+                if (!limit.queue.remove(this)) {
+                    return false;
+                }
+            }
+            dequeued();
+            return true;
+        }
+
+        /**
+         * Records the end of the wait.
+         */
+        private void dequeued() {
+            ScheduledFuture<?> scheduled = expiry;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+            metrics.dequeued(host, System.nanoTime() - start);
+        }
+
+        /**
+         * Sends the request with the permit handed over by {@link #release(HostLimit)}.
+         */
+        @Override
+        public void run() {
+            PermitReleasingHandler<T> releasing = new PermitReleasingHandler<T>(handler, limit);
+            if (future.isDone()) {
+                // cancelled after it got the permit
+                releasing.release();
+                handler.onThrowable(new CancellationException());
+                return;
+            }
+            ListenableFuture<T> upstream;
+            try {
+                upstream = send.send(releasing);
+            } catch (RuntimeException e) {
+                releasing.release();
+                handler.onThrowable(e);
+                future.fail(e);
+                return;
+            }
+            future.follow(upstream);
+        }
+    }
+
+    /**
+     * Gives the permit back once the request has completed, successfully or not.
+     *
+     * @param <T> the type of the result.
+     */
+    private final class PermitReleasingHandler<T> extends ForwardingAsyncHandler<T> {
+        /**
+         * The limit of the host the request holds a permit of.
+         */
+        private final HostLimit limit;
+
+        /**
+         * Guards against releasing more than once.
+         */
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private PermitReleasingHandler(AsyncHandler<T> delegate, HostLimit limit) {
+            super(delegate);
+            this.limit = limit;
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                HostConcurrencyLimiter.this.release(limit);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onThrowable(Throwable t) {
+            try {
+                super.onThrowable(t);
+            } finally {
+                release();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public T onCompleted() throws Exception {
+            try {
+                return super.onCompleted();
+            } finally {
+                release();
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package jenkins.plugins.asynchttpclient;
+
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registers the metrics of the plugin with the platform MBean server.
+ *
+ * @since 1.9.40.1
+ */
+final class Jmx {
+
+    /**
+     * Our logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(Jmx.class.getName());
+
+    /**
+     * Do not instantiate.
+     */
+    private Jmx() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Registers a bean, replacing any bean already registered under the same name, e.g. by a previous instance of
+     * the plugin.
+     *
+     * @param name the name.
+     * @param bean the bean.
+     */
+    static void register(ObjectName name, Object bean) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(bean, name);
+        } catch (JMException e) {
+            LOGGER.log(Level.FINE, "Could not register " + name, e);
+        }
+    }
+
+    /**
+     * Unregisters a bean, if it is registered.
+     *
+     * @param name the name.
+     */
+    static void unregister(ObjectName name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            LOGGER.log(Level.FINE, "Could not unregister " + name, e);
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.ning.http.client.AsyncCompletionHandlerBase;
+import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.HttpResponseStatus;
+import com.ning.http.client.ListenableFuture;
+import com.ning.http.client.Request;
+import com.ning.http.client.Response;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.Timer;
+import org.jboss.netty.channel.ConnectTimeoutException;
+
+/**
+ * An {@link AsyncHttpClient} whose lifecycle is managed by the plugin.
+ * It keeps track of the requests that are still in flight so that, when it is replaced by a newer client, it can be
+ * closed once those requests have completed rather than cutting them off. It runs on the plugin's
+ * {@link SharedNettyResources}. Every request is recorded in the {@link ClientMetrics} of the instance and may be
+ * retried according to a {@link RetryPolicy}. The address of the host may come from a {@link DnsCache}.
+ *
+ * @since 1.9.40.1
+ */
+class ManagedAsyncHttpClient extends AsyncHttpClient {
+
+    /**
+     * Our logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(ManagedAsyncHttpClient.class.getName());
+
+    /**
+     * Runs the completion listeners on the thread completing the future.
+     */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * The number of requests that have been submitted but have not completed yet.
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * Set once this client has been replaced and should close as soon as it is idle.
+     */
+    private volatile boolean draining;
+
+    /**
+     * Guards against closing more than once.
+     */
+    private final AtomicBoolean closeScheduled = new AtomicBoolean();
+
+    /**
+     * The shared Netty resources this client uses.
+     */
+    private final SharedNettyResources resources;
+
+    /**
+     * Guards against releasing {@link #resources} more than once.
+     */
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    /**
+     * Where the requests are recorded.
+     */
+    private final ClientMetrics metrics;
+
+    /**
+     * When to retry requests, {@code null} to never retry them.
+     */
+    @CheckForNull
+    private final RetryPolicy retryPolicy;
+
+    /**
+     * Where the hosts are resolved, {@code null} to let the client resolve them.
+     */
+    @CheckForNull
+    private final DnsCache dnsCache;
+
+    /**
+     * Caps the requests in flight to each host, {@code null} for no limit.
+     */
+    @CheckForNull
+    private final HostConcurrencyLimiter limiter;
+
+    /**
+     * Whether the provider leaves encoded bodies to the {@link DecompressingAsyncHandler}s.
+     */
+    private final boolean encodedBodies;
+
+    /**
+     * Constructor.
+     *
+     * @param config        the configuration, using the provider configuration of {@code resources}.
+     * @param resources     a reference to the shared Netty resources, released when this client is closed.
+     * @param metrics       where the requests are recorded.
+     * @param retryPolicy   when to retry requests, {@code null} to never retry them.
+     * @param dnsCache      where the hosts are resolved, {@code null} to let the client resolve them.
+     * @param limiter       caps the requests in flight to each host, {@code null} for no limit.
+     * @param encodedBodies whether the provider of {@code config} leaves encoded bodies to the handlers.
+     */
+    ManagedAsyncHttpClient(AsyncHttpClientConfig config, SharedNettyResources resources, ClientMetrics metrics,
+                           @CheckForNull RetryPolicy retryPolicy, @CheckForNull DnsCache dnsCache,
+                           @CheckForNull HostConcurrencyLimiter limiter, boolean encodedBodies) {
+        super(config);
+        this.resources = resources;
+        this.metrics = metrics;
+        this.retryPolicy = retryPolicy;
+        this.dnsCache = dnsCache;
+        this.limiter = limiter;
+        this.encodedBodies = encodedBodies;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        try {
+            super.close();
+        } finally {
+            if (released.compareAndSet(false, true)) {
+                resources.release();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ListenableFuture<Response> executeRequest(Request request) {
+        return executeRequest(request, new AsyncCompletionHandlerBase());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T> ListenableFuture<T> executeRequest(Request request, AsyncHandler<T> handler) {
+        if (!encodedBodies) {
+            // the provider has decompressed the body already, even if it kept the Content-Encoding header
+            handler = DecompressingAsyncHandler.unwrap(handler);
+        }
+        inFlight.incrementAndGet();
+        ListenableFuture<T> future;
+        try {
+            if (retryPolicy != null && retryPolicy.appliesTo(request) && ForwardingAsyncHandler.isWrappable(handler)) {
+                future = new RetryingFuture<T>(this, retryPolicy, request, handler, metrics).start();
+            } else {
+                future = attempt(request, handler);
+            }
+        } catch (RuntimeException e) {
+            requestCompleted();
+            throw e;
+        }
+        final AtomicBoolean completed = new AtomicBoolean();
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (completed.compareAndSet(false, true)) {
+                    requestCompleted();
+                }
+            }
+        }, DIRECT);
+        return future;
+    }
+
+    /**
+     * Sends a request once, as soon as the {@link HostConcurrencyLimiter} lets it, recording it in the metrics. Each
+     * attempt resolves the host anew, so that the retries of a request go to the next address of the host. Attempts
+     * over the limit wait in the queue of their host without holding up the calling thread.
+     *
+     * @param request the request.
+     * @param handler the handler.
+     * @param <T>     the type of the result.
+     * @return the future of the request.
+     */
+    <T> ListenableFuture<T> attempt(final Request request, AsyncHandler<T> handler) {
+        if (limiter == null) {
+            return send(request, handler);
+        }
+        return limiter.execute(ClientMetrics.hostOf(request.getUri()), handler, new HostConcurrencyLimiter.Send<T>() {
+            @Override
+            public ListenableFuture<T> send(AsyncHandler<T> permitted) {
+                return ManagedAsyncHttpClient.this.send(request, permitted);
+            }
+        });
+    }
+
+    /**
+     * Sends a request once, recording it in the metrics. When the host has to be looked up, the request is sent from
+     * the completion of the lookup, and the caller gets a future following it.
+     *
+     * @param request the request.
+     * @param handler the handler.
+     * @param <T>     the type of the result.
+     * @return the future of the request.
+     */
+    private <T> ListenableFuture<T> send(Request request, final AsyncHandler<T> handler) {
+        final String host = ClientMetrics.hostOf(request.getUri());
+        final long start = System.nanoTime();
+        metrics.started();
+        if (dnsCache == null) {
+            return sendResolved(request, handler, host, start);
+        }
+        CompletableFuture<Request> pinned = dnsCache.pin(request, getConfig());
+        if (pinned.isDone()) {
+            // answered from the cache, or nothing to look up
+            try {
+                request = pinned.join();
+            } catch (CompletionException e) {
+                Throwable failure = e.getCause() != null ? e.getCause() : e;
+                unresolved(handler, host, start, failure);
+                return new ListenableFuture.CompletedFailure<T>(failure);
+            }
+            return sendResolved(request, handler, host, start);
+        }
+        final CompletableListenableFuture<T> future = new CompletableListenableFuture<T>();
+        pinned.whenComplete(new BiConsumer<Request, Throwable>() {
+            @Override
+            public void accept(Request resolved, Throwable failure) {
+                if (failure != null) {
+                    if (failure instanceof CompletionException && failure.getCause() != null) {
+                        failure = failure.getCause();
+                    }
+                    unresolved(handler, host, start, failure);
+                    future.fail(failure);
+                } else if (future.isDone()) {
+                    // cancelled during the lookup
+                    unresolved(handler, host, start, new CancellationException());
+                } else {
+                    try {
+                        future.follow(sendResolved(resolved, handler, host, start));
+                    } catch (RuntimeException e) {
+                        handler.onThrowable(e);
+                        future.fail(e);
+                    }
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Records a request that could not be sent as its host was not resolved, and tells its handler.
+     *
+     * @param handler the handler.
+     * @param host    the host of the request.
+     * @param start   when the request started, in {@link System#nanoTime()}.
+     * @param failure why the host was not resolved.
+     */
+    private void unresolved(AsyncHandler<?> handler, String host, long start, Throwable failure) {
+        metrics.completed(host, ClientMetrics.ERROR, System.nanoTime() - start);
+        handler.onThrowable(failure);
+    }
+
+    /**
+     * Sends a request whose host, if it is to be resolved by the plugin, is pinned, recording its completion.
+     *
+     * @param request the request.
+     * @param handler the handler.
+     * @param host    the host of the request.
+     * @param start   when the request started, in {@link System#nanoTime()}.
+     * @param <T>     the type of the result.
+     * @return the future of the request.
+     */
+    private <T> ListenableFuture<T> sendResolved(Request request, AsyncHandler<T> handler, final String host,
+                                                 final long start) {
+        final StatusRecorder<T> recorder =
+                ForwardingAsyncHandler.isWrappable(handler) ? new StatusRecorder<T>(handler) : null;
+        final ListenableFuture<T> future;
+        try {
+            future = super.executeRequest(request, recorder == null ? handler : recorder);
+        } catch (RuntimeException e) {
+            metrics.completed(host, ClientMetrics.ERROR, System.nanoTime() - start);
+            throw e;
+        }
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                metrics.completed(host, outcomeOf(future, recorder), System.nanoTime() - start);
+            }
+        }, DIRECT);
+        return future;
+    }
+
+    /**
+     * Works out the outcome of a completed request.
+     *
+     * @param future   the future of the request, which is done.
+     * @param recorder the status code recorder of the request, if its handler could be wrapped.
+     * @return the outcome, as defined by {@link ClientMetrics}.
+     */
+    private static int outcomeOf(ListenableFuture<?> future, StatusRecorder<?> recorder) {
+        Object result;
+        try {
+            result = future.get();
+        } catch (ExecutionException e) {
+            for (Throwable t = e.getCause(); t != null; t = t.getCause()) {
+                if (t instanceof TimeoutException || t instanceof SocketTimeoutException
+                        || t instanceof ConnectTimeoutException) {
+                    return ClientMetrics.TIMEOUT;
+                }
+            }
+            return ClientMetrics.ERROR;
+        } catch (CancellationException e) {
+            return ClientMetrics.ERROR;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ClientMetrics.ERROR;
+        }
+        int statusCode = recorder == null ? 0 : recorder.statusCode;
+        if (statusCode == 0 && result instanceof Response) {
+            statusCode = ((Response) result).getStatusCode();
+        }
+        return ClientMetrics.outcomeOf(statusCode);
+    }
+
+    /**
+     * Returns the number of requests that have been submitted but have not completed yet.
+     *
+     * @return the number of requests in flight.
+     */
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Closes this client in the background as soon as all the requests in flight have completed, or once the timeout
+     * has elapsed, whichever comes first.
+     *
+     * @param timeout the maximum time to wait for the requests in flight.
+     * @param unit    the unit of the timeout.
+     */
+    void drainAndClose(long timeout, TimeUnit unit) {
+        draining = true;
+        if (inFlight.get() == 0) {
+            closeInBackground();
+            return;
+        }
+        LOGGER.log(Level.FINE, "Waiting for {0} requests to complete before closing replaced AsyncHttpClient instance",
+                inFlight.get());
+        Timer.get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!isClosed()) {
+                    LOGGER.log(Level.FINE, "Drain timeout elapsed, closing replaced AsyncHttpClient instance with {0} "
+                            + "requests still in flight", inFlight.get());
+                }
+                closeInBackground();
+            }
+        }, timeout, unit);
+    }
+
+    /**
+     * Called exactly once for every request when it completes, successfully or not.
+     */
+    private void requestCompleted() {
+        if (inFlight.decrementAndGet() == 0 && draining) {
+            closeInBackground();
+        }
+    }
+
+    /**
+     * Closes this client, off the calling thread which may well be one of the client's own I/O threads.
+     */
+    private void closeInBackground() {
+        if (closeScheduled.compareAndSet(false, true)) {
+            Timer.get().submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isClosed()) {
+                        LOGGER.fine("Closing replaced AsyncHttpClient instance");
+                        close();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Remembers the status code of the response on its way to the actual handler.
+     *
+     * @param <T> the type of the result.
+     */
+    private static final class StatusRecorder<T> extends ForwardingAsyncHandler<T> {
+        /**
+         * The status code of the response, {@code 0} until it is received.
+         */
+        private volatile int statusCode;
+
+        private StatusRecorder(AsyncHandler<T> delegate) {
+            super(delegate);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public STATE onStatusReceived(HttpResponseStatus responseStatus) throws Exception {
+            statusCode = responseStatus.getStatusCode();
+            return super.onStatusReceived(responseStatus);
+        }
+    }
+}
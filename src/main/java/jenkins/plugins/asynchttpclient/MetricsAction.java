@@ -0,0 +1,107 @@
+package jenkins.plugins.asynchttpclient;
+
+import hudson.Extension;
+import hudson.model.Api;
+import hudson.model.RootAction;
+import java.util.ArrayList;
+import java.util.List;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Shows the metrics of the shared instance, of the named instances and of the connections they share, including the
+ * state of their circuit breakers, on {@code /async-http-client/} and as
+ * {@code /async-http-client/api/json} (or {@code xml}) for administrators.
+ *
+ * @since 1.9.40.1
+ */
+@Extension
+@ExportedBean
+@Restricted(NoExternalUse.class)
+public class MetricsAction implements RootAction {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getDisplayName() {
+        return "Async HTTP Client metrics";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getUrlName() {
+        return "async-http-client";
+    }
+
+    /**
+     * Exposes the metrics through the remote API.
+     *
+     * @return the remote API.
+     */
+    public Api getApi() {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        return new Api(this);
+    }
+
+    /**
+     * Returns the connection and TLS counters.
+     *
+     * @return the connection and TLS counters.
+     */
+    @Exported(inline = true)
+    public ConnectionMetrics getConnections() {
+        return ConnectionMetrics.INSTANCE;
+    }
+
+    /**
+     * Returns the response cache, if it is in use.
+     *
+     * @return the response cache or {@code null}.
+     */
+    @Exported(inline = true)
+    public ResponseCache getResponseCache() {
+        AHC ahc = AHC.lookupOrNull();
+        return ahc == null ? null : ahc.getResponseCacheOrNull();
+    }
+
+    /**
+     * Returns the request coalescer, if it is in use.
+     *
+     * @return the request coalescer or {@code null}.
+     */
+    @Exported(inline = true)
+    public RequestCoalescer getCoalescer() {
+        AHC ahc = AHC.lookupOrNull();
+        return ahc == null ? null : ahc.getCoalescerOrNull();
+    }
+
+    /**
+     * Returns the metrics of the shared instance, of the named instances and of the unmanaged clients.
+     *
+     * @return the metrics of the clients.
+     */
+    @Exported(inline = true)
+    public List<ClientMetrics> getClients() {
+        List<ClientMetrics> clients = new ArrayList<ClientMetrics>();
+        AHC ahc = AHC.lookupOrNull();
+        if (ahc != null) {
+            clients.addAll(ahc.getMetrics());
+        }
+        clients.add(ClientMetrics.UNMANAGED);
+        return clients;
+    }
+}
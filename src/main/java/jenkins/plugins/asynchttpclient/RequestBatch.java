@@ -0,0 +1,557 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.ListenableFuture;
+import com.ning.http.client.Request;
+import com.ning.http.client.Response;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import jenkins.util.Timer;
+
+/**
+ * Sends a batch of requests with bounded parallelism, for consumers that notify many endpoints or make many small
+ * calls to one API.
+ * <p>
+ * At most {@code parallelism} requests of the batch are in flight, and at most {@code perHostParallelism} to any one
+ * host; the hosts take turns, so that a long list of requests to one host does not starve the others. Requests still
+ * queued or in flight when the deadline passes fail with a {@link TimeoutException}. The outcomes can be consumed as
+ * they complete, with {@link Execution#take()}, or all at once, in request order, with {@link Execution#getOutcomes()}.
+ * </p>
+ * <pre>
+ * RequestBatch.Execution execution = new RequestBatch(AHC.instance())
+ *         .withParallelism(8)
+ *         .withDeadline(30, TimeUnit.SECONDS)
+ *         .execute(requests);
+ * for (RequestBatch.Outcome outcome = execution.take(); outcome != null; outcome = execution.take()) {
+ *     ...
+ * }
+ * </pre>
+ * <p>
+ * Instances are immutable: the {@code with...} methods return a modified copy.
+ * </p>
+ *
+ * @since 1.9.40.1
+ */
+public final class RequestBatch {
+
+    /**
+     * The default maximum number of requests of a batch in flight.
+     */
+    public static final int DEFAULT_PARALLELISM = 8;
+
+    private final AsyncHttpClient client;
+
+    private final int parallelism;
+
+    private final int perHostParallelism;
+
+    /**
+     * The deadline, in milliseconds after the start of the batch, {@code 0} for none.
+     */
+    private final long deadlineMillis;
+
+    private final Executor executor;
+
+    /**
+     * Constructor, for {@link #DEFAULT_PARALLELISM} requests in flight, no per host limit and no deadline.
+     *
+     * @param client the client sending the requests, e.g. {@link AHC#instance()}.
+     */
+    public RequestBatch(@NonNull AsyncHttpClient client) {
+        this(client, DEFAULT_PARALLELISM, Integer.MAX_VALUE, 0, AHCAsync.defaultExecutor());
+    }
+
+    private RequestBatch(AsyncHttpClient client, int parallelism, int perHostParallelism, long deadlineMillis,
+                         Executor executor) {
+        this.client = client;
+        this.parallelism = parallelism;
+        this.perHostParallelism = perHostParallelism;
+        this.deadlineMillis = deadlineMillis;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns a copy with another maximum number of requests in flight.
+     *
+     * @param parallelism the maximum number of requests in flight, at least {@code 1}.
+     * @return the modified copy.
+     */
+    @NonNull
+    public RequestBatch withParallelism(int parallelism) {
+        return new RequestBatch(client, Math.max(1, parallelism), perHostParallelism, deadlineMillis, executor);
+    }
+
+    /**
+     * Returns a copy with another maximum number of requests in flight to any one host.
+     *
+     * @param perHostParallelism the maximum number of requests in flight to a host, at least {@code 1}.
+     * @return the modified copy.
+     */
+    @NonNull
+    public RequestBatch withPerHostParallelism(int perHostParallelism) {
+        return new RequestBatch(client, parallelism, Math.max(1, perHostParallelism), deadlineMillis, executor);
+    }
+
+    /**
+     * Returns a copy with another deadline.
+     *
+     * @param deadline how long the batch may take, {@code 0} for as long as it takes.
+     * @param unit     the unit of {@code deadline}.
+     * @return the modified copy.
+     */
+    @NonNull
+    public RequestBatch withDeadline(long deadline, @NonNull TimeUnit unit) {
+        return new RequestBatch(client, parallelism, perHostParallelism, Math.max(0, unit.toMillis(deadline)),
+                executor);
+    }
+
+    /**
+     * Returns a copy that sends the requests and completes the outcomes on another executor. Sending a request runs
+     * the request filters of the client, which may do blocking work, so the executor should not be an I/O thread.
+     *
+     * @param executor the executor.
+     * @return the modified copy.
+     */
+    @NonNull
+    public RequestBatch withExecutor(@NonNull Executor executor) {
+        return new RequestBatch(client, parallelism, perHostParallelism, deadlineMillis, executor);
+    }
+
+    /**
+     * Starts sending a batch of requests.
+     *
+     * @param requests the requests.
+     * @return the running batch.
+     */
+    @NonNull
+    public Execution execute(@NonNull Collection<Request> requests) {
+        Execution execution = new Execution(new ArrayList<Request>(requests));
+        execution.start();
+        return execution;
+    }
+
+    /**
+     * The outcome of a request of a batch.
+     *
+     * @since 1.9.40.1
+     */
+    public static final class Outcome {
+
+        private final int index;
+
+        private final Request request;
+
+        @CheckForNull
+        private final Response response;
+
+        @CheckForNull
+        private final Throwable failure;
+
+        private final long durationMillis;
+
+        private Outcome(int index, Request request, @CheckForNull Response response, @CheckForNull Throwable failure,
+                        long durationMillis) {
+            this.index = index;
+            this.request = request;
+            this.response = response;
+            this.failure = failure;
+            this.durationMillis = durationMillis;
+        }
+
+        /**
+         * Returns the position of the request in the batch.
+         *
+         * @return the 0-based position of the request.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Returns the request.
+         *
+         * @return the request.
+         */
+        @NonNull
+        public Request getRequest() {
+            return request;
+        }
+
+        /**
+         * Returns the response, if any.
+         *
+         * @return the response or {@code null} if the request failed.
+         */
+        @CheckForNull
+        public Response getResponse() {
+            return response;
+        }
+
+        /**
+         * Returns why the request failed, if it did.
+         *
+         * @return the failure, a {@link TimeoutException} if the deadline passed, or {@code null} if there is a
+         * response.
+         */
+        @CheckForNull
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        /**
+         * Returns whether there is a response, whatever its status.
+         *
+         * @return {@code true} if there is a response.
+         */
+        public boolean hasResponse() {
+            return response != null;
+        }
+
+        /**
+         * Returns how long the request took, from when it was sent.
+         *
+         * @return the duration, in milliseconds, {@code 0} if the request was never sent.
+         */
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return "Outcome{#" + index + ' ' + request.getMethod() + ' ' + request.getUrl() + ": "
+                    + (response != null ? Integer.toString(response.getStatusCode()) : String.valueOf(failure)) + '}';
+        }
+    }
+
+    /**
+     * A running batch.
+     *
+     * @since 1.9.40.1
+     */
+    public final class Execution {
+
+        private final List<Request> requests;
+
+        /**
+         * The requests not sent yet, by host, the hosts in turn order. Guards all the mutable state.
+         */
+        private final LinkedHashMap<String, ArrayDeque<Integer>> queued = new LinkedHashMap<String, ArrayDeque<Integer>>();
+
+        /**
+         * The requests in flight, by host.
+         */
+        private final Map<String, Integer> inFlightByHost = new LinkedHashMap<String, Integer>();
+
+        /**
+         * The requests in flight, by index.
+         */
+        private final Map<Integer, ListenableFuture<Response>> inFlight =
+                new LinkedHashMap<Integer, ListenableFuture<Response>>();
+
+        /**
+         * The outcomes, by index.
+         */
+        private final Outcome[] outcomes;
+
+        /**
+         * The outcomes, in completion order.
+         */
+        private final BlockingQueue<Outcome> completed = new LinkedBlockingQueue<Outcome>();
+
+        private final CompletableFuture<List<Outcome>> all = new CompletableFuture<List<Outcome>>();
+
+        private int remaining;
+
+        /**
+         * The number of outcomes handed out by {@link #take()}.
+         */
+        private int taken;
+
+        private boolean over;
+
+        @CheckForNull
+        private ScheduledFuture<?> deadline;
+
+        private Execution(List<Request> requests) {
+            this.requests = requests;
+            this.outcomes = new Outcome[requests.size()];
+            this.remaining = requests.size();
+            for (int i = 0; i < requests.size(); i++) {
+                String host = requests.get(i).getUri().getHost();
+                ArrayDeque<Integer> queue = queued.get(host);
+                if (queue == null) {
+                    queue = new ArrayDeque<Integer>();
+                    queued.put(host, queue);
+                }
+                queue.add(i);
+            }
+        }
+
+        /**
+         * Starts the first requests and the deadline.
+         */
+        private void start() {
+            if (requests.isEmpty()) {
+                all.complete(Collections.<Outcome>emptyList());
+                return;
+            }
+            if (deadlineMillis > 0) {
+                deadline = Timer.get().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        stop(new TimeoutException("The batch did not complete within " + deadlineMillis + " ms"));
+                    }
+                }, deadlineMillis, TimeUnit.MILLISECONDS);
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    dispatch();
+                }
+            });
+        }
+
+        /**
+         * Sends the next requests, as far as the limits allow, taking the hosts in turn.
+         */
+        private void dispatch() {
+            while (true) {
+                int index;
+                String host;
+                synchronized (this) {
+                    if (over || inFlight.size() >= parallelism) {
+                        return;
+                    }
+                    index = -1;
+                    host = null;
+                    for (Iterator<Map.Entry<String, ArrayDeque<Integer>>> it = queued.entrySet().iterator();
+                         it.hasNext(); ) {
+                        Map.Entry<String, ArrayDeque<Integer>> entry = it.next();
+                        Integer count = inFlightByHost.get(entry.getKey());
+                        if (count == null || count < perHostParallelism) {
+                            host = entry.getKey();
+                            index = entry.getValue().poll();
+                            it.remove();
+                            if (!entry.getValue().isEmpty()) {
+                                // back of the line
+                                queued.put(host, entry.getValue());
+                            }
+                            inFlightByHost.put(host, count == null ? 1 : count + 1);
+                            break;
+                        }
+                    }
+                    if (host == null) {
+                        return;
+                    }
+                    // reserve the slot until the request is sent
+                    inFlight.put(index, null);
+                }
+                send(index, host);
+            }
+        }
+
+        /**
+         * Sends a request.
+         *
+         * @param index the index of the request.
+         * @param host  the host of the request.
+         */
+        private void send(final int index, final String host) {
+            final long start = System.nanoTime();
+            final ListenableFuture<Response> future;
+            try {
+                future = client.executeRequest(requests.get(index));
+            } catch (RuntimeException e) {
+                completed(index, host, null, e, start);
+                return;
+            }
+            synchronized (this) {
+                if (!over) {
+                    inFlight.put(index, future);
+                }
+            }
+            if (isOver()) {
+                future.cancel(true);
+            }
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        completed(index, host, future.get(), null, start);
+                    } catch (ExecutionException e) {
+                        completed(index, host, null, e.getCause(), start);
+                    } catch (CancellationException e) {
+                        completed(index, host, null, e, start);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        completed(index, host, null, e, start);
+                    }
+                }
+            }, executor);
+        }
+
+        /**
+         * Records the outcome of a request, then sends the next ones.
+         *
+         * @param index    the index of the request.
+         * @param host     the host of the request.
+         * @param response the response, if any.
+         * @param failure  the failure, if any.
+         * @param start    when the request was sent, from {@link System#nanoTime()}.
+         */
+        private void completed(int index, String host, @CheckForNull Response response,
+                               @CheckForNull Throwable failure, long start) {
+            synchronized (this) {
+                inFlight.remove(index);
+                Integer count = inFlightByHost.get(host);
+                if (count != null && count > 1) {
+                    inFlightByHost.put(host, count - 1);
+                } else {
+                    inFlightByHost.remove(host);
+                }
+            }
+            record(new Outcome(index, requests.get(index), response, failure,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+            dispatch();
+        }
+
+        /**
+         * Records an outcome, unless the request already has one.
+         *
+         * @param outcome the outcome.
+         */
+        private void record(Outcome outcome) {
+            boolean last;
+            synchronized (this) {
+                if (outcomes[outcome.index] != null) {
+                    return;
+                }
+                outcomes[outcome.index] = outcome;
+                completed.add(outcome);
+                last = --remaining == 0;
+                if (last) {
+                    over = true;
+                }
+            }
+            if (last) {
+                ScheduledFuture<?> d = deadline;
+                if (d != null) {
+                    d.cancel(false);
+                }
+                all.complete(Collections.unmodifiableList(Arrays.asList(outcomes)));
+            }
+        }
+
+        /**
+         * Fails the requests that have no outcome yet and cancels those in flight.
+         *
+         * @param failure why.
+         */
+        private void stop(Throwable failure) {
+            List<Integer> pending = new ArrayList<Integer>();
+            List<ListenableFuture<Response>> cancelled = new ArrayList<ListenableFuture<Response>>();
+            synchronized (this) {
+                if (over) {
+                    return;
+                }
+                over = true;
+                for (ArrayDeque<Integer> queue : queued.values()) {
+                    pending.addAll(queue);
+                }
+                queued.clear();
+                for (Map.Entry<Integer, ListenableFuture<Response>> entry : inFlight.entrySet()) {
+                    pending.add(entry.getKey());
+                    if (entry.getValue() != null) {
+                        cancelled.add(entry.getValue());
+                    }
+                }
+            }
+            Collections.sort(pending);
+            for (int index : pending) {
+                Outcome outcome = new Outcome(index, requests.get(index), null, failure, 0);
+                synchronized (this) {
+                    // as record() does, the batch completing below
+                    if (outcomes[index] != null) {
+                        continue;
+                    }
+                    outcomes[index] = outcome;
+                    completed.add(outcome);
+                    remaining--;
+                }
+            }
+            for (ListenableFuture<Response> future : cancelled) {
+                future.cancel(true);
+            }
+            ScheduledFuture<?> d = deadline;
+            if (d != null) {
+                d.cancel(false);
+            }
+            all.complete(Collections.unmodifiableList(Arrays.asList(outcomes)));
+        }
+
+        /**
+         * Returns whether every request has an outcome, or the batch was stopped.
+         *
+         * @return {@code true} if no more requests will be sent.
+         */
+        private synchronized boolean isOver() {
+            return over;
+        }
+
+        /**
+         * Returns the next outcome, in completion order, waiting for it if needed.
+         *
+         * @return the next outcome or {@code null} once all the outcomes have been returned.
+         * @throws InterruptedException if interrupted while waiting.
+         */
+        @CheckForNull
+        public Outcome take() throws InterruptedException {
+            synchronized (this) {
+                if (taken == outcomes.length) {
+                    return null;
+                }
+                taken++;
+            }
+            return completed.take();
+        }
+
+        /**
+         * Returns the outcomes of all the requests, in request order, once they all have one.
+         *
+         * @return the future of the outcomes.
+         */
+        @NonNull
+        public CompletableFuture<List<Outcome>> getOutcomes() {
+            return all;
+        }
+
+        /**
+         * Stops the batch: the requests not sent yet are not sent, the requests in flight are cancelled, and all of
+         * them get a {@link CancellationException} outcome.
+         */
+        public void cancel() {
+            stop(new CancellationException("The batch was cancelled"));
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.ListenableFuture;
+import com.ning.http.client.Request;
+import com.ning.http.client.Response;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Collapses identical concurrent {@code GET} and {@code HEAD} requests into a single upstream request.
+ * <p>
+ * While a request is in flight, every identical request (see {@link RequestKey}) sent through the same client joins it
+ * instead of going to the server, and all of them get the same {@link Response} when it completes. Once the response
+ * has arrived the next request goes to the server again: nothing is cached. This takes the load off the servers, and
+ * off the connection pool, when many builds start at once and ask for the same resource at the same moment.
+ * </p>
+ * <p>
+ * The callers share the {@link Response}, which must therefore be treated as read-only. Cancelling the future of one
+ * caller does not affect the others; the upstream request is only cancelled when all of them have cancelled.
+ * </p>
+ * <pre>
+ * Response response = AHC.coalescer().execute(AHC.instance(), new RequestBuilder().setUrl(url).build()).get();
+ * </pre>
+ *
+ * @since 1.9.40.1
+ */
+@ExportedBean
+public final class RequestCoalescer implements RequestCoalescerMXBean {
+
+    /**
+     * Runs the completion listeners on the thread completing the request.
+     */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * The requests in flight.
+     */
+    private final ConcurrentMap<RequestKey, Flight> flights = new ConcurrentHashMap<RequestKey, Flight>();
+
+    private final LongAdder requests = new LongAdder();
+
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Returns the name the coalescer is registered under in JMX.
+     *
+     * @return the JMX object name.
+     */
+    static ObjectName getObjectName() {
+        try {
+            return new ObjectName("jenkins.plugins.asynchttpclient:type=RequestCoalescer");
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalStateException("The name is constant", e);
+        }
+    }
+
+    /**
+     * Sends a request, or joins the identical request in flight if it is an idempotent {@code GET} or {@code HEAD}.
+     *
+     * @param client  the client sending the request.
+     * @param request the request.
+     * @return the future of the response, shared with the identical requests in flight.
+     */
+    @NonNull
+    public ListenableFuture<Response> execute(@NonNull AsyncHttpClient client, @NonNull Request request) {
+        String method = request.getMethod();
+        RequestKey key = "GET".equalsIgnoreCase(method) || "HEAD".equalsIgnoreCase(method)
+                ? RequestKey.of(request) : null;
+        if (key == null) {
+            return client.executeRequest(request);
+        }
+        requests.increment();
+        while (true) {
+            Flight flight = flights.get(key);
+            if (flight == null) {
+                Flight started = new Flight(client, key);
+                Follower follower = started.join();
+                if (flights.putIfAbsent(key, started) == null) {
+                    started.start(request);
+                    return follower;
+                }
+            } else if (flight.client != client) {
+                // a replaced or a named instance: the connection settings may differ
+                return client.executeRequest(request);
+            } else {
+                Follower follower = flight.join();
+                if (follower != null) {
+                    coalesced.increment();
+                    return follower;
+                }
+                // completed or cancelled meanwhile
+                flights.remove(key, flight);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Exported
+    @Override
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Exported
+    @Override
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Exported
+    @Override
+    public int getInFlight() {
+        return flights.size();
+    }
+
+    /**
+     * An upstream request and the callers waiting for its response.
+     */
+    private final class Flight {
+
+        private final AsyncHttpClient client;
+
+        private final RequestKey key;
+
+        /**
+         * The callers still waiting, guarded by {@code this}.
+         */
+        private final List<Follower> followers = new ArrayList<Follower>();
+
+        /**
+         * Whether the flight accepts no more callers, guarded by {@code this}.
+         */
+        private boolean closed;
+
+        /**
+         * The upstream request, once sent.
+         */
+        @CheckForNull
+        private volatile ListenableFuture<Response> upstream;
+
+        private Flight(AsyncHttpClient client, RequestKey key) {
+            this.client = client;
+            this.key = key;
+        }
+
+        /**
+         * Adds a caller.
+         *
+         * @return the future of the caller or {@code null} if the flight is over.
+         */
+        @CheckForNull
+        synchronized Follower join() {
+            if (closed) {
+                return null;
+            }
+            Follower follower = new Follower(this);
+            followers.add(follower);
+            return follower;
+        }
+
+        /**
+         * Removes a caller that cancelled, and cancels the upstream request if it was the last one.
+         *
+         * @param follower the caller.
+         */
+        void leave(Follower follower) {
+            synchronized (this) {
+                followers.remove(follower);
+                if (closed || !followers.isEmpty()) {
+                    return;
+                }
+                closed = true;
+            }
+            flights.remove(key, this);
+            ListenableFuture<Response> request = upstream;
+            if (request != null) {
+                request.cancel(true);
+            }
+        }
+
+        /**
+         * Sends the upstream request.
+         *
+         * @param request the request.
+         */
+        void start(Request request) {
+            final ListenableFuture<Response> sent;
+            try {
+                sent = client.executeRequest(request);
+            } catch (RuntimeException e) {
+                for (Follower follower : close()) {
+                    follower.fail(e);
+                }
+                return;
+            }
+            upstream = sent;
+            synchronized (this) {
+                if (closed && followers.isEmpty()) {
+                    // everybody left before the request was sent
+                    sent.cancel(true);
+                    return;
+                }
+            }
+            sent.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    completed(sent);
+                }
+            }, DIRECT);
+        }
+
+        /**
+         * Stops accepting callers.
+         *
+         * @return the callers waiting.
+         */
+        private List<Follower> close() {
+            flights.remove(key, this);
+            synchronized (this) {
+                closed = true;
+                return new ArrayList<Follower>(followers);
+            }
+        }
+
+        /**
+         * Hands the response of the upstream request to all the callers.
+         *
+         * @param request the upstream request, which is done.
+         */
+        private void completed(ListenableFuture<Response> request) {
+            List<Follower> waiting = close();
+            Response response;
+            try {
+                response = request.get();
+            } catch (ExecutionException e) {
+                for (Follower follower : waiting) {
+                    follower.fail(e.getCause());
+                }
+                return;
+            } catch (CancellationException e) {
+                for (Follower follower : waiting) {
+                    follower.fail(e);
+                }
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (Follower follower : waiting) {
+                    follower.fail(e);
+                }
+                return;
+            }
+            for (Follower follower : waiting) {
+                follower.complete(response);
+            }
+        }
+
+        /**
+         * Keeps the upstream request alive.
+         */
+        void touch() {
+            ListenableFuture<Response> request = upstream;
+            if (request != null) {
+                request.touch();
+            }
+        }
+    }
+
+    /**
+     * The future of one caller of a {@link Flight}.
+     */
+    private static final class Follower extends CompletableListenableFuture<Response> {
+
+        private final Flight flight;
+
+        private Follower(Flight flight) {
+            this.flight = flight;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void touch() {
+            flight.touch();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void abort(Throwable t) {
+            if (fail(t)) {
+                flight.leave(this);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!super.cancel(mayInterruptIfRunning)) {
+                return false;
+            }
+            flight.leave(this);
+            return true;
+        }
+    }
+}
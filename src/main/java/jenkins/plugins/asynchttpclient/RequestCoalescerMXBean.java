@@ -0,0 +1,34 @@
+package jenkins.plugins.asynchttpclient;
+
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * The JMX view of the {@link RequestCoalescer}.
+ *
+ * @since 1.9.40.1
+ */
+@Restricted(NoExternalUse.class)
+public interface RequestCoalescerMXBean {
+
+    /**
+     * Returns the number of requests that went through the coalescer.
+     *
+     * @return the number of coalescable requests.
+     */
+    long getRequests();
+
+    /**
+     * Returns the number of requests that joined an identical request in flight instead of going to the server.
+     *
+     * @return the number of coalesced requests.
+     */
+    long getCoalesced();
+
+    /**
+     * Returns the number of upstream requests in flight.
+     *
+     * @return the number of upstream requests in flight.
+     */
+    int getInFlight();
+}
@@ -0,0 +1,120 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.ning.http.client.FluentCaseInsensitiveStringsMap;
+import com.ning.http.client.Request;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Identifies the requests that get the same response: same method, same URL and same values for the request headers
+ * the response commonly depends on.
+ *
+ * @since 1.9.40.1
+ */
+final class RequestKey {
+
+    /**
+     * The request headers that are part of the key.
+     */
+    private static final String[] HEADERS = {"Accept", "Accept-Encoding", "Accept-Language", "Authorization"};
+
+    private final String method;
+
+    private final String url;
+
+    /**
+     * The values of {@link #HEADERS}, in the same order.
+     */
+    private final List<List<String>> headers;
+
+    private final int hash;
+
+    private RequestKey(String method, String url, List<List<String>> headers) {
+        this.method = method;
+        this.url = url;
+        this.headers = headers;
+        this.hash = 31 * (31 * method.hashCode() + url.hashCode()) + headers.hashCode();
+    }
+
+    /**
+     * Returns the key of a request that only depends on its method, URL and headers.
+     *
+     * @param request the request.
+     * @return the key or {@code null} if the request has a body, cookies or a realm, which are not part of the key.
+     */
+    @CheckForNull
+    static RequestKey of(Request request) {
+        if (request.getStringData() != null || request.getByteData() != null || request.getStreamData() != null
+                || request.getBodyGenerator() != null || request.getFile() != null
+                || !request.getParts().isEmpty() || !request.getFormParams().isEmpty()
+                || !request.getCookies().isEmpty() || request.getRealm() != null) {
+            return null;
+        }
+        FluentCaseInsensitiveStringsMap requestHeaders = request.getHeaders();
+        List<List<String>> values = new ArrayList<List<String>>(HEADERS.length);
+        for (String name : HEADERS) {
+            List<String> value = requestHeaders.get(name);
+            values.add(value == null ? Collections.<String>emptyList() : new ArrayList<String>(value));
+        }
+        return new RequestKey(request.getMethod().toUpperCase(Locale.ENGLISH), request.getUrl(), values);
+    }
+
+    /**
+     * Returns whether a request header is part of the key, so that responses that vary with it can be told apart.
+     *
+     * @param name the name of the header.
+     * @return {@code true} if requests with different values of the header have different keys.
+     */
+    static boolean covers(String name) {
+        for (String header : HEADERS) {
+            if (header.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the method of the request.
+     *
+     * @return the method, in upper case.
+     */
+    String getMethod() {
+        return method;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RequestKey)) {
+            return false;
+        }
+        RequestKey that = (RequestKey) o;
+        return hash == that.hash && method.equals(that.method) && url.equals(that.url)
+                && headers.equals(that.headers);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return method + ' ' + url;
+    }
+}
@@ -0,0 +1,628 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.FluentCaseInsensitiveStringsMap;
+import com.ning.http.client.ListenableFuture;
+import com.ning.http.client.Request;
+import com.ning.http.client.RequestBuilder;
+import com.ning.http.client.Response;
+import com.ning.http.client.cookie.Cookie;
+import com.ning.http.client.uri.Uri;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import jenkins.util.Timer;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * An opt-in cache of {@code GET} responses, revalidated with conditional requests.
+ * <p>
+ * The first response to a {@code GET} that carries an {@code ETag} or a {@code Last-Modified} header is stored. The
+ * next identical request (see {@link RequestKey}) is sent with {@code If-None-Match} or {@code If-Modified-Since}, and
+ * when the server answers {@code 304 Not Modified} the caller gets the stored response, with its headers refreshed,
+ * instead of the empty {@code 304}. Every request still goes to the server, so the responses are never stale, but
+ * unchanged bodies are not downloaded again, which spares bandwidth and, with many APIs, the rate limit.
+ * </p>
+ * <p>
+ * Bodies are kept in memory up to {@code maxMemoryBytes}, bodies larger than {@code spillThresholdBytes} on disk up to
+ * {@code maxDiskBytes}, the least recently used ones being evicted first. Responses marked
+ * {@code Cache-Control: no-store} are not stored, and neither are the responses that vary with request headers other
+ * than those of the {@link RequestKey}, nor the responses to requests with a body, cookies or a realm. The responses
+ * are stored and served from a {@link Timer} thread rather than from the I/O thread completing the request, as the
+ * bodies on disk are written and read with blocking calls.
+ * </p>
+ * <p>
+ * The cache hands out complete {@link Response}s, which the client only builds once it has read the whole body into
+ * memory, so every body goes through the heap in full, even one that ends up on disk: storing it copies it once more,
+ * into memory or into its file. Bodies larger than {@code maxBodyBytes}, going by their {@code Content-Length} when
+ * they have one, are therefore never stored. This cache is meant for the API responses polled over and over, not for
+ * downloads, which should be streamed with an {@link com.ning.http.client.AsyncHandler} of their own instead. All
+ * four limits can be changed with the system properties of the same name prefixed with this class name.
+ * </p>
+ * <pre>
+ * Response response = AHC.responseCache().execute(AHC.instance(), new RequestBuilder().setUrl(url).build()).get();
+ * </pre>
+ *
+ * @since 1.9.40.1
+ */
+@ExportedBean
+public final class ResponseCache implements ResponseCacheMXBean {
+
+    /**
+     * Our logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(ResponseCache.class.getName());
+
+    /**
+     * The default maximum size of the bodies kept in memory.
+     */
+    static final long MAX_MEMORY_BYTES =
+            Long.getLong(ResponseCache.class.getName() + ".maxMemoryBytes", 16L * 1024 * 1024);
+
+    /**
+     * The default maximum size of the bodies kept on disk.
+     */
+    static final long MAX_DISK_BYTES =
+            Long.getLong(ResponseCache.class.getName() + ".maxDiskBytes", 256L * 1024 * 1024);
+
+    /**
+     * The default size above which bodies are kept on disk.
+     */
+    static final long SPILL_THRESHOLD_BYTES =
+            Long.getLong(ResponseCache.class.getName() + ".spillThresholdBytes", 256L * 1024);
+
+    /**
+     * The default size above which bodies are not stored at all.
+     */
+    static final long MAX_BODY_BYTES =
+            Long.getLong(ResponseCache.class.getName() + ".maxBodyBytes", 8L * 1024 * 1024);
+
+    private final long maxMemoryBytes;
+
+    private final long maxDiskBytes;
+
+    private final long spillThresholdBytes;
+
+    private final long maxBodyBytes;
+
+    /**
+     * Where the large bodies are kept.
+     */
+    private final File directory;
+
+    /**
+     * The stored responses, least recently used first. Guards itself and the byte counts.
+     */
+    private final LinkedHashMap<RequestKey, Entry> entries = new LinkedHashMap<RequestKey, Entry>(16, 0.75f, true);
+
+    private long memoryBytes;
+
+    private long diskBytes;
+
+    private final LongAdder requests = new LongAdder();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param maxMemoryBytes      the maximum size of the bodies kept in memory.
+     * @param maxDiskBytes        the maximum size of the bodies kept on disk.
+     * @param spillThresholdBytes the size above which bodies are kept on disk.
+     * @param maxBodyBytes        the size above which bodies are not stored at all.
+     * @param directory           where the large bodies are kept, emptied now as the bodies left there by a previous
+     *                            run cannot be used.
+     */
+    ResponseCache(long maxMemoryBytes, long maxDiskBytes, long spillThresholdBytes, long maxBodyBytes,
+                  File directory) {
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxDiskBytes = maxDiskBytes;
+        this.spillThresholdBytes = spillThresholdBytes;
+        this.maxBodyBytes = maxBodyBytes;
+        this.directory = directory;
+        deleteBodies();
+    }
+
+    /**
+     * Returns the name the cache is registered under in JMX.
+     *
+     * @return the JMX object name.
+     */
+    static ObjectName getObjectName() {
+        try {
+            return new ObjectName("jenkins.plugins.asynchttpclient:type=ResponseCache");
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalStateException("The name is constant", e);
+        }
+    }
+
+    /**
+     * Sends a request, through the cache if it is a {@code GET} without validators of its own.
+     *
+     * @param client  the client sending the request.
+     * @param request the request.
+     * @return the future of the response: the stored response if the server answered {@code 304 Not Modified}.
+     */
+    @NonNull
+    public ListenableFuture<Response> execute(@NonNull AsyncHttpClient client, @NonNull Request request) {
+        RequestKey key = "GET".equalsIgnoreCase(request.getMethod())
+                && request.getHeaders().getFirstValue("If-None-Match") == null
+                && request.getHeaders().getFirstValue("If-Modified-Since") == null
+                ? RequestKey.of(request) : null;
+        if (key == null) {
+            return client.executeRequest(request);
+        }
+        requests.increment();
+        CompletableListenableFuture<Response> result = new CompletableListenableFuture<Response>();
+        send(client, request, key, get(key), result);
+        return result;
+    }
+
+    /**
+     * Sends a request, conditional if a response is stored.
+     *
+     * @param client  the client sending the request.
+     * @param request the request, without validators.
+     * @param key     the key of the request.
+     * @param entry   the stored response, if any.
+     * @param result  where the response goes.
+     */
+    private void send(final AsyncHttpClient client, final Request request, final RequestKey key,
+                      @CheckForNull final Entry entry, final CompletableListenableFuture<Response> result) {
+        Request sent = request;
+        if (entry != null) {
+            RequestBuilder builder = new RequestBuilder(request);
+            if (entry.etag != null) {
+                builder.setHeader("If-None-Match", entry.etag);
+            }
+            if (entry.lastModified != null) {
+                builder.setHeader("If-Modified-Since", entry.lastModified);
+            }
+            sent = builder.build();
+        }
+        final ListenableFuture<Response> upstream;
+        try {
+            upstream = client.executeRequest(sent);
+        } catch (RuntimeException e) {
+            result.fail(e);
+            return;
+        }
+        result.setUpstream(upstream);
+        // off the I/O thread: storing or serving the response may touch the disk
+        upstream.addListener(new Runnable() {
+            @Override
+            public void run() {
+                completed(client, request, key, entry, upstream, result);
+            }
+        }, Timer.get());
+    }
+
+    /**
+     * Called when a request completes: serves the stored response or stores the new one.
+     *
+     * @param client   the client that sent the request.
+     * @param request  the request, without validators.
+     * @param key      the key of the request.
+     * @param entry    the stored response the request was conditional on, if any.
+     * @param upstream the request, which is done.
+     * @param result   where the response goes.
+     */
+    private void completed(AsyncHttpClient client, Request request, RequestKey key, @CheckForNull Entry entry,
+                           ListenableFuture<Response> upstream, CompletableListenableFuture<Response> result) {
+        Response response;
+        try {
+            response = upstream.get();
+        } catch (ExecutionException e) {
+            result.fail(e.getCause());
+            return;
+        } catch (CancellationException e) {
+            result.cancel(false);
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.fail(e);
+            return;
+        }
+        try {
+            if (entry != null && response.getStatusCode() == 304) {
+                Response cached = revalidated(key, entry, response);
+                if (cached != null) {
+                    hits.increment();
+                    result.complete(cached);
+                } else {
+                    // the body is gone: ask for it
+                    send(client, request, key, null, result);
+                }
+                return;
+            }
+            misses.increment();
+            if (response.getStatusCode() == 200) {
+                store(key, response);
+            } else {
+                remove(key);
+            }
+            result.complete(response);
+        } catch (IOException e) {
+            result.fail(e);
+        } catch (RuntimeException e) {
+            result.fail(e);
+        }
+    }
+
+    /**
+     * Returns the stored response to a request, if any.
+     *
+     * @param key the key of the request.
+     * @return the stored response or {@code null}.
+     */
+    @CheckForNull
+    private Entry get(RequestKey key) {
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    /**
+     * Refreshes a stored response with the headers of a {@code 304 Not Modified}.
+     *
+     * @param key         the key of the request.
+     * @param entry       the stored response.
+     * @param notModified the {@code 304} response.
+     * @return the response to serve or {@code null} if the body is gone.
+     */
+    @CheckForNull
+    private Response revalidated(RequestKey key, Entry entry, Response notModified) {
+        FluentCaseInsensitiveStringsMap headers;
+        synchronized (entries) {
+            for (Map.Entry<String, List<String>> header : notModified.getHeaders()) {
+                String name = header.getKey().toLowerCase(Locale.ENGLISH);
+                // a 304 has no body: keep the headers describing the stored one
+                if (!name.equals("content-length") && !name.equals("transfer-encoding")
+                        && !name.equals("content-encoding") && !name.equals("content-type")) {
+                    entry.headers.replaceWith(header.getKey(), header.getValue());
+                }
+            }
+            entry.etag = entry.headers.getFirstValue("ETag");
+            entry.lastModified = entry.headers.getFirstValue("Last-Modified");
+            headers = new FluentCaseInsensitiveStringsMap(entry.headers);
+        }
+        byte[] body = entry.body;
+        if (body == null) {
+            try {
+                body = Files.readAllBytes(entry.file.toPath());
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Lost the stored body of " + key, e);
+                remove(key);
+                return null;
+            }
+        }
+        return new CachedResponse(200, entry.statusText, entry.uri, headers, entry.cookies, body);
+    }
+
+    /**
+     * Stores a response if it can be revalidated and its body is not too large.
+     *
+     * @param key      the key of the request.
+     * @param response the response.
+     * @throws IOException if the body cannot be read.
+     */
+    private void store(RequestKey key, Response response) throws IOException {
+        String etag = response.getHeader("ETag");
+        String lastModified = response.getHeader("Last-Modified");
+        String cacheControl = String.valueOf(response.getHeaders("Cache-Control")).toLowerCase(Locale.ENGLISH);
+        if ((etag == null && lastModified == null) || cacheControl.contains("no-store") || !isKeyed(response)) {
+            remove(key);
+            return;
+        }
+        if (contentLength(response) > maxBodyBytes) {
+            // not worth copying
+            remove(key);
+            return;
+        }
+        byte[] body = response.getResponseBodyAsBytes();
+        if (body.length > maxBodyBytes) {
+            remove(key);
+            return;
+        }
+        Entry entry = new Entry(response.getStatusText(), response.getUri(),
+                new FluentCaseInsensitiveStringsMap(response.getHeaders()),
+                new ArrayList<Cookie>(response.getCookies()), etag, lastModified, body.length);
+        if (body.length > spillThresholdBytes) {
+            if (body.length > maxDiskBytes) {
+                remove(key);
+                return;
+            }
+            try {
+                Files.createDirectories(directory.toPath());
+                Path file = Files.createTempFile(directory.toPath(), "body", ".bin");
+                Files.write(file, body);
+                entry.file = file.toFile();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Could not store the body of " + key, e);
+                remove(key);
+                return;
+            }
+        } else {
+            if (body.length > maxMemoryBytes) {
+                remove(key);
+                return;
+            }
+            entry.body = body;
+        }
+        List<Entry> dropped = new ArrayList<Entry>();
+        synchronized (entries) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                release(previous);
+                dropped.add(previous);
+            }
+            add(entry);
+            for (Iterator<Entry> i = entries.values().iterator();
+                 i.hasNext() && (memoryBytes > maxMemoryBytes || diskBytes > maxDiskBytes); ) {
+                Entry eldest = i.next();
+                if (eldest != entry && (eldest.file != null ? diskBytes > maxDiskBytes : memoryBytes > maxMemoryBytes)) {
+                    i.remove();
+                    release(eldest);
+                    dropped.add(eldest);
+                    evictions.increment();
+                }
+            }
+        }
+        delete(dropped);
+    }
+
+    /**
+     * Returns whether a response only varies with request headers that are part of the {@link RequestKey}, so that it
+     * is only served to requests that would get the same response.
+     *
+     * @param response the response.
+     * @return {@code false} if the response has {@code Vary: *} or names any other request header.
+     */
+    private static boolean isKeyed(Response response) {
+        for (String vary : response.getHeaders("Vary")) {
+            for (String name : vary.split(",")) {
+                name = name.trim();
+                if (!name.isEmpty() && !RequestKey.covers(name)) {
+                    // including *
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the length of the body of a response, as announced by the server.
+     *
+     * @param response the response.
+     * @return the {@code Content-Length} or {@code -1} if there is none or it is not a number.
+     */
+    private static long contentLength(Response response) {
+        String length = response.getHeader("Content-Length");
+        if (length == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(length.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Forgets the stored response to a request, if any.
+     *
+     * @param key the key of the request.
+     */
+    private void remove(RequestKey key) {
+        Entry removed;
+        synchronized (entries) {
+            removed = entries.remove(key);
+            if (removed != null) {
+                release(removed);
+            }
+        }
+        if (removed != null) {
+            delete(Collections.singletonList(removed));
+        }
+    }
+
+    /**
+     * Forgets all the stored responses.
+     */
+    void clear() {
+        List<Entry> dropped;
+        synchronized (entries) {
+            dropped = new ArrayList<Entry>(entries.values());
+            entries.clear();
+            memoryBytes = 0;
+            diskBytes = 0;
+        }
+        delete(dropped);
+    }
+
+    private void add(Entry entry) {
+        if (entry.file != null) {
+            diskBytes += entry.size;
+        } else {
+            memoryBytes += entry.size;
+        }
+    }
+
+    private void release(Entry entry) {
+        if (entry.file != null) {
+            diskBytes -= entry.size;
+        } else {
+            memoryBytes -= entry.size;
+        }
+    }
+
+    /**
+     * Deletes the bodies kept on disk of responses no longer stored.
+     *
+     * @param dropped the responses no longer stored.
+     */
+    private static void delete(List<Entry> dropped) {
+        for (Entry entry : dropped) {
+            if (entry.file != null) {
+                try {
+                    Files.deleteIfExists(entry.file.toPath());
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Could not delete " + entry.file, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the bodies left in the directory.
+     */
+    private void deleteBodies() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith("body") && !file.delete()) {
+                    LOGGER.log(Level.FINE, "Could not delete {0}", file);
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public int getEntries() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public long getMemoryBytes() {
+        synchronized (entries) {
+            return memoryBytes;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Exported
+    public long getDiskBytes() {
+        synchronized (entries) {
+            return diskBytes;
+        }
+    }
+
+    /**
+     * A stored response. The validators and headers change when the response is revalidated, under the lock of
+     * {@link #entries}.
+     */
+    private static final class Entry {
+        private final String statusText;
+        private final Uri uri;
+        private final FluentCaseInsensitiveStringsMap headers;
+        private final List<Cookie> cookies;
+        private volatile String etag;
+        private volatile String lastModified;
+        /**
+         * The size of the body.
+         */
+        private final long size;
+        /**
+         * The body, if kept in memory.
+         */
+        private byte[] body;
+        /**
+         * The body, if kept on disk.
+         */
+        private File file;
+
+        private Entry(String statusText, Uri uri, FluentCaseInsensitiveStringsMap headers, List<Cookie> cookies,
+                      String etag, String lastModified, long size) {
+            this.statusText = statusText;
+            this.uri = uri;
+            this.headers = headers;
+            this.cookies = cookies;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package jenkins.plugins.asynchttpclient;
+
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * The JMX view of the {@link ResponseCache}.
+ *
+ * @since 1.9.40.1
+ */
+@Restricted(NoExternalUse.class)
+public interface ResponseCacheMXBean {
+
+    /**
+     * Returns the number of requests that went through the cache.
+     *
+     * @return the number of cacheable requests.
+     */
+    long getRequests();
+
+    /**
+     * Returns the number of requests answered with a stored response after a {@code 304 Not Modified}.
+     *
+     * @return the number of cache hits.
+     */
+    long getHits();
+
+    /**
+     * Returns the number of requests that downloaded the response.
+     *
+     * @return the number of cache misses.
+     */
+    long getMisses();
+
+    /**
+     * Returns the share of the requests answered with a stored response.
+     *
+     * @return the hit rate, between {@code 0} and {@code 1}.
+     */
+    double getHitRate();
+
+    /**
+     * Returns the number of responses evicted to make room for newer ones.
+     *
+     * @return the number of evictions.
+     */
+    long getEvictions();
+
+    /**
+     * Returns the number of stored responses.
+     *
+     * @return the number of stored responses.
+     */
+    int getEntries();
+
+    /**
+     * Returns the size of the bodies kept in memory.
+     *
+     * @return the size of the bodies kept in memory, in bytes.
+     */
+    long getMemoryBytes();
+
+    /**
+     * Returns the size of the bodies kept on disk.
+     *
+     * @return the size of the bodies kept on disk, in bytes.
+     */
+    long getDiskBytes();
+}
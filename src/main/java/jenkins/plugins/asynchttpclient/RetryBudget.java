@@ -0,0 +1,93 @@
+package jenkins.plugins.asynchttpclient;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket bounding retries to a percentage of the requests, shared by all the instances managed by {@link AHC}.
+ * <p>
+ * Every request deposits a fraction of a token and every retry withdraws a whole one, so that during an outage the
+ * retries stop once the bucket is empty instead of multiplying the load. At 100% retries can at most double the load.
+ * The bucket holds at most {@link #CAPACITY} tokens, which lets a handful of retries through after a quiet period.
+ * </p>
+ *
+ * @since 1.9.40.1
+ */
+final class RetryBudget {
+
+    /**
+     * The number of thousandths of a token in a token.
+     */
+    private static final long TOKEN = 1000L;
+
+    /**
+     * The maximum number of tokens in the bucket.
+     */
+    static final int CAPACITY = 100;
+
+    /**
+     * The thousandths of a token in the bucket.
+     */
+    private final AtomicLong tokens = new AtomicLong(CAPACITY * TOKEN);
+
+    /**
+     * The percentage of the requests that may be retried.
+     */
+    private volatile int percent;
+
+    /**
+     * Constructor.
+     *
+     * @param percent the percentage of the requests that may be retried, between 0 and 100.
+     */
+    RetryBudget(int percent) {
+        setPercent(percent);
+    }
+
+    /**
+     * Changes the percentage of the requests that may be retried.
+     *
+     * @param percent the percentage, between 0 and 100.
+     */
+    void setPercent(int percent) {
+        this.percent = Math.max(0, Math.min(100, percent));
+    }
+
+    /**
+     * Records a request, which earns a fraction of a retry.
+     */
+    void deposit() {
+        long amount = percent * TOKEN / 100;
+        long current;
+        do {
+            current = tokens.get();
+            if (current >= CAPACITY * TOKEN) {
+                return;
+            }
+        } while (!tokens.compareAndSet(current, Math.min(CAPACITY * TOKEN, current + amount)));
+    }
+
+    /**
+     * Takes a token for a retry, if there is one.
+     *
+     * @return {@code true} if the retry may go ahead.
+     */
+    boolean tryWithdraw() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current < TOKEN) {
+                return false;
+            }
+        } while (!tokens.compareAndSet(current, current - TOKEN));
+        return true;
+    }
+
+    /**
+     * Returns the number of whole tokens in the bucket.
+     *
+     * @return the number of retries that may go ahead right now.
+     */
+    long getTokens() {
+        return tokens.get() / TOKEN;
+    }
+}
@@ -0,0 +1,174 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.ning.http.client.Request;
+import java.net.ConnectException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * When and after how long the instances managed by {@link AHC} retry a request.
+ * <p>
+ * Only requests with an idempotent method and a body that can be sent again are retried, and only when the
+ * connection could not be established or the server answered {@code 429 Too Many Requests} or
+ * {@code 503 Service Unavailable}. The delay before a retry grows exponentially with jitter, or follows the
+ * {@code Retry-After} header when there is one. Every retry also needs a token from the shared {@link RetryBudget}.
+ * </p>
+ *
+ * @since 1.9.40.1
+ */
+final class RetryPolicy {
+
+    /**
+     * The longest delay before a retry, in milliseconds. A server asking to retry later than that gets its answer
+     * passed on instead.
+     */
+    private static final long MAX_DELAY_MILLIS =
+            Long.getLong(RetryPolicy.class.getName() + ".maxDelayMillis", 30000L);
+
+    /**
+     * The idempotent methods.
+     */
+    private static final Set<String> IDEMPOTENT_METHODS =
+            new HashSet<String>(Arrays.asList("GET", "HEAD", "OPTIONS", "TRACE", "PUT", "DELETE"));
+
+    /**
+     * The maximum number of retries of a request.
+     */
+    private final int maxRetries;
+
+    /**
+     * The delay before the first retry, in milliseconds, doubled for every retry.
+     */
+    private final long backoffMillis;
+
+    /**
+     * The shared budget.
+     */
+    private final RetryBudget budget;
+
+    /**
+     * Constructor.
+     *
+     * @param maxRetries    the maximum number of retries of a request.
+     * @param backoffMillis the delay before the first retry, in milliseconds, doubled for every retry.
+     * @param budget        the shared budget.
+     */
+    RetryPolicy(int maxRetries, long backoffMillis, RetryBudget budget) {
+        this.maxRetries = maxRetries;
+        this.backoffMillis = Math.max(1L, backoffMillis);
+        this.budget = budget;
+    }
+
+    /**
+     * Checks whether a request may be retried at all.
+     *
+     * @param request the request.
+     * @return {@code true} if its method is idempotent and its body can be sent again.
+     */
+    boolean appliesTo(Request request) {
+        return IDEMPOTENT_METHODS.contains(request.getMethod())
+                && request.getStreamData() == null
+                && request.getBodyGenerator() == null;
+    }
+
+    /**
+     * Checks whether a request that has been retried a number of times may be retried again.
+     *
+     * @param retries the number of retries so far.
+     * @return {@code true} if the maximum number of retries is not reached yet.
+     */
+    boolean hasRetriesLeft(int retries) {
+        return retries < maxRetries;
+    }
+
+    /**
+     * Returns the shared budget.
+     *
+     * @return the shared budget.
+     */
+    RetryBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Checks whether a response status calls for a retry.
+     *
+     * @param statusCode the status code.
+     * @return {@code true} for {@code 429} and {@code 503}.
+     */
+    static boolean isRetryableStatus(int statusCode) {
+        return statusCode == 429 || statusCode == 503;
+    }
+
+    /**
+     * Checks whether a failure means the connection could not be established, so that the server never saw the
+     * request.
+     *
+     * @param t the failure.
+     * @return {@code true} for connect failures, connect timeouts included.
+     */
+    static boolean isConnectFailure(Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Works out the delay before a retry.
+     *
+     * @param retries    the number of retries so far.
+     * @param retryAfter the {@code Retry-After} header of the response, if any.
+     * @return the delay, in milliseconds, or {@code -1} if the server asks to wait longer than we are prepared to.
+     */
+    long delay(int retries, String retryAfter) {
+        long cap = Math.min(MAX_DELAY_MILLIS, backoffMillis << Math.min(retries, 20));
+        // "equal jitter": at least half of the exponential backoff, so that retries still back off
+        long backoff = cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1);
+        long requested = parseRetryAfter(retryAfter);
+        if (requested < 0) {
+            return backoff;
+        }
+        if (requested > MAX_DELAY_MILLIS) {
+            return -1;
+        }
+        // spread the clients told to come back at the same time
+        return requested + ThreadLocalRandom.current().nextLong(backoffMillis + 1);
+    }
+
+    /**
+     * Parses a {@code Retry-After} header.
+     *
+     * @param value the value of the header, either a number of seconds or an HTTP date.
+     * @return the delay it asks for, in milliseconds, or {@code -1} if there is none.
+     */
+    static long parseRetryAfter(String value) {
+        if (StringUtils.isBlank(value)) {
+            return -1;
+        }
+        String trimmed = value.trim();
+        try {
+            long seconds = Long.parseLong(trimmed);
+            if (seconds < 0) {
+                return -1;
+            }
+            return seconds > Long.MAX_VALUE / 1000L ? Long.MAX_VALUE : seconds * 1000L;
+        } catch (NumberFormatException e) {
+            // not a number of seconds, try a date
+        }
+        try {
+            long at = ZonedDateTime.parse(trimmed, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return Math.max(0L, at - System.currentTimeMillis());
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
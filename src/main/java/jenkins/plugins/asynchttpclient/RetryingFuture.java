@@ -0,0 +1,368 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.HttpResponseHeaders;
+import com.ning.http.client.HttpResponseStatus;
+import com.ning.http.client.ListenableFuture;
+import com.ning.http.client.Request;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import jenkins.util.Timer;
+
+/**
+ * The future of a request that the {@link RetryPolicy} may retry, standing for all its attempts.
+ * <p>
+ * Each attempt goes to the actual handler through a {@link RetryHandler}, which holds back the responses and failures
+ * that lead to a retry, so the actual handler only ever sees the attempt that is returned to the caller. The delay
+ * between attempts is scheduled on the Jenkins {@link Timer}: no thread sleeps while a request waits for its retry.
+ * </p>
+ *
+ * @param <T> the type of the result.
+ * @since 1.9.40.1
+ */
+final class RetryingFuture<T> implements ListenableFuture<T> {
+
+    /**
+     * Runs the completion listeners on the thread completing the attempt.
+     */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final ManagedAsyncHttpClient client;
+
+    private final RetryPolicy policy;
+
+    private final Request request;
+
+    private final AsyncHandler<T> handler;
+
+    private final ClientMetrics metrics;
+
+    /**
+     * The outcome of the last attempt.
+     */
+    private final CompletableFuture<T> result = new CompletableFuture<T>();
+
+    /**
+     * The current attempt.
+     */
+    private volatile ListenableFuture<T> attempt;
+
+    /**
+     * The scheduled retry, if any.
+     */
+    private volatile ScheduledFuture<?> pending;
+
+    /**
+     * The number of retries so far.
+     */
+    private volatile int retries;
+
+    /**
+     * Constructor.
+     *
+     * @param client  the client sending the attempts.
+     * @param policy  the retry policy.
+     * @param request the request.
+     * @param handler the actual handler.
+     * @param metrics where the retries are recorded.
+     */
+    RetryingFuture(ManagedAsyncHttpClient client, RetryPolicy policy, Request request, AsyncHandler<T> handler,
+                   ClientMetrics metrics) {
+        this.client = client;
+        this.policy = policy;
+        this.request = request;
+        this.handler = handler;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sends the first attempt.
+     *
+     * @return {@code this}.
+     */
+    RetryingFuture<T> start() {
+        policy.getBudget().deposit();
+        RetryHandler attemptHandler = new RetryHandler();
+        follow(client.attempt(request, attemptHandler), attemptHandler);
+        return this;
+    }
+
+    /**
+     * Sends another attempt.
+     */
+    private void retry() {
+        if (result.isDone()) {
+            return;
+        }
+        RetryHandler attemptHandler = new RetryHandler();
+        ListenableFuture<T> next;
+        try {
+            next = client.attempt(request, attemptHandler);
+        } catch (RuntimeException e) {
+            // e.g. the client was closed while the retry was pending
+            handler.onThrowable(e);
+            result.completeExceptionally(e);
+            return;
+        }
+        follow(next, attemptHandler);
+    }
+
+    /**
+     * Follows an attempt.
+     *
+     * @param next           the attempt.
+     * @param attemptHandler the handler of the attempt.
+     */
+    private void follow(final ListenableFuture<T> next, final RetryHandler attemptHandler) {
+        attempt = next;
+        if (result.isCancelled()) {
+            next.cancel(true);
+            return;
+        }
+        next.addListener(new Runnable() {
+            @Override
+            public void run() {
+                completed(next, attemptHandler);
+            }
+        }, DIRECT);
+    }
+
+    /**
+     * Called when an attempt completes, either schedules a retry or passes the outcome on.
+     *
+     * @param done           the attempt.
+     * @param attemptHandler the handler of the attempt.
+     */
+    private void completed(ListenableFuture<T> done, RetryHandler attemptHandler) {
+        long delay = attemptHandler.retryDelay;
+        if (delay >= 0 && !result.isDone()) {
+            retries++;
+            metrics.retried();
+            pending = Timer.get().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    retry();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+            if (result.isDone()) {
+                pending.cancel(false);
+            }
+            return;
+        }
+        try {
+            result.complete(done.get());
+        } catch (ExecutionException e) {
+            result.completeExceptionally(e.getCause());
+        } catch (CancellationException e) {
+            result.cancel(false);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void done() {
+        ListenableFuture<T> current = attempt;
+        if (current != null) {
+            current.done();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void abort(Throwable t) {
+        ScheduledFuture<?> scheduled = pending;
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+        ListenableFuture<T> current = attempt;
+        if (current != null && !current.isDone()) {
+            current.abort(t);
+        } else if (!result.isDone()) {
+            handler.onThrowable(t);
+        }
+        result.completeExceptionally(t);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void touch() {
+        ListenableFuture<T> current = attempt;
+        if (current != null) {
+            current.touch();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ListenableFuture<T> addListener(final Runnable listener, final Executor exec) {
+        result.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable failure) {
+                exec.execute(listener);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!result.cancel(mayInterruptIfRunning)) {
+            return false;
+        }
+        ScheduledFuture<?> scheduled = pending;
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+        ListenableFuture<T> current = attempt;
+        if (current != null && !current.isDone()) {
+            current.cancel(mayInterruptIfRunning);
+        } else {
+            // waiting for a retry: nobody else will tell the handler
+            handler.onThrowable(new CancellationException());
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancelled() {
+        return result.isCancelled();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isDone() {
+        return result.isDone();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        return result.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        return result.get(timeout, unit);
+    }
+
+    /**
+     * The handler of an attempt: holds back what leads to a retry, passes everything else on to the actual handler.
+     */
+    private final class RetryHandler extends ForwardingAsyncHandler<T> {
+
+        /**
+         * The delay before the retry, in milliseconds, or {@code -1} if the attempt is not retried.
+         */
+        private volatile long retryDelay = -1;
+
+        /**
+         * A status that may lead to a retry, held back until the headers tell for sure.
+         */
+        private HttpResponseStatus held;
+
+        private RetryHandler() {
+            super(handler);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public STATE onStatusReceived(HttpResponseStatus responseStatus) throws Exception {
+            if (RetryPolicy.isRetryableStatus(responseStatus.getStatusCode()) && policy.hasRetriesLeft(retries)) {
+                held = responseStatus;
+                return STATE.CONTINUE;
+            }
+            return super.onStatusReceived(responseStatus);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public STATE onHeadersReceived(HttpResponseHeaders headers) throws Exception {
+            HttpResponseStatus status = held;
+            if (status != null) {
+                held = null;
+                long delay = policy.delay(retries, headers.getHeaders().getFirstValue("Retry-After"));
+                if (delay >= 0 && policy.getBudget().tryWithdraw()) {
+                    retryDelay = delay;
+                    return STATE.ABORT;
+                }
+                STATE state = super.onStatusReceived(status);
+                if (state != STATE.CONTINUE) {
+                    return state;
+                }
+            }
+            return super.onHeadersReceived(headers);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public STATE onBodyPartReceived(HttpResponseBodyPart bodyPart) throws Exception {
+            return retryDelay >= 0 ? STATE.ABORT : super.onBodyPartReceived(bodyPart);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public T onCompleted() throws Exception {
+            return retryDelay >= 0 ? null : super.onCompleted();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onThrowable(Throwable t) {
+            if (retryDelay >= 0) {
+                return;
+            }
+            if (held == null && policy.hasRetriesLeft(retries) && RetryPolicy.isConnectFailure(t)
+                    && policy.getBudget().tryWithdraw()) {
+                retryDelay = policy.delay(retries, null);
+                return;
+            }
+            super.onThrowable(t);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.ning.http.client.providers.netty.NettyAsyncHttpProviderConfig;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.socket.SocketChannel;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.handler.codec.http.HttpContentDecompressor;
+import org.jboss.netty.util.HashedWheelTimer;
+
+/**
+ * The Netty boss and worker threads and the timer shared by all the clients created through the plugin.
+ * <p>
+ * Without this, every {@link com.ning.http.client.AsyncHttpClient} starts its own boss thread, its own set of
+ * worker threads and its own timer thread. The resources are reference counted: the plugin holds one reference
+ * for as long as it is running and every client created through {@link AHCUtils#newAsyncHttpClient} holds one
+ * until it is closed. The threads are only started when the first client is created and stopped when the last
+ * reference is released. The connections opened through the shared resources are counted.
+ * </p>
+ * <p>
+ * Netty 3 opens its selectors and sockets through {@link SelectorProvider#provider()}, so the I/O threads poll with
+ * the selector implementation of the JVM, which is chosen once per JVM by the
+ * {@code java.nio.channels.spi.SelectorProvider} system property: e.g.
+ * {@code -Djava.nio.channels.spi.SelectorProvider=sun.nio.ch.PollSelectorProvider} on the {@code java} command line
+ * to poll with {@code poll(2)} rather than {@code epoll(7)} on Linux. The property has to be set before anything in
+ * the JVM uses NIO, so setting it from Jenkins is too late, which is logged when the threads start.
+ * </p>
+ *
+ * @since 1.9.40.1
+ */
+final class SharedNettyResources {
+
+    /**
+     * Our logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(SharedNettyResources.class.getName());
+
+    /**
+     * The system property choosing the selector implementation of the JVM.
+     */
+    static final String SELECTOR_PROVIDER_PROPERTY = "java.nio.channels.spi.SelectorProvider";
+
+    /**
+     * The number of Netty I/O worker threads shared by all the clients.
+     */
+    private static final int WORKER_COUNT = Integer.getInteger(SharedNettyResources.class.getName() + ".workerCount",
+            Runtime.getRuntime().availableProcessors() * 2);
+
+    /**
+     * The number of connections currently open, across all the clients.
+     */
+    private static final AtomicInteger openConnections = new AtomicInteger();
+
+    /**
+     * The number of connections ever opened, across all the clients.
+     */
+    private static final LongAdder connectionsOpened = new LongAdder();
+
+    /**
+     * Keeps {@link #openConnections} up to date.
+     */
+    private static final ChannelFutureListener CONNECTION_CLOSED = new ChannelFutureListener() {
+        @Override
+        public void operationComplete(ChannelFuture future) {
+            openConnections.decrementAndGet();
+        }
+    };
+
+    /**
+     * Takes the decompressor the provider puts in the pipeline of every connection out of it, so that encoded bodies
+     * reach the handlers as they are sent.
+     */
+    private static final NettyAsyncHttpProviderConfig.AdditionalPipelineInitializer KEEP_BODIES_ENCODED =
+            new NettyAsyncHttpProviderConfig.AdditionalPipelineInitializer() {
+                @Override
+                public void initPipeline(ChannelPipeline pipeline) {
+                    if (pipeline.get(HttpContentDecompressor.class) != null) {
+                        pipeline.remove(HttpContentDecompressor.class);
+                    }
+                }
+            };
+
+    /**
+     * The live instance, if any.
+     */
+    private static SharedNettyResources current; // guarded by SharedNettyResources.class
+
+    /**
+     * The number of outstanding references.
+     */
+    private int references; // guarded by SharedNettyResources.class
+
+    /**
+     * The boss and worker threads, created on demand.
+     */
+    private ExecutorService bossExecutor; // guarded by this
+
+    private ExecutorService workerExecutor; // guarded by this
+
+    private CountingChannelFactory channelFactory; // guarded by this
+
+    /**
+     * The timer, created on demand.
+     */
+    private HashedWheelTimer timer; // guarded by this
+
+    private SharedNettyResources() {
+    }
+
+    /**
+     * Acquires a reference to the shared resources, creating them if needed.
+     *
+     * @return the shared resources, which must be {@link #release() released} exactly once.
+     */
+    static SharedNettyResources retain() {
+        synchronized (SharedNettyResources.class) {
+            if (current == null) {
+                current = new SharedNettyResources();
+            }
+            current.references++;
+            return current;
+        }
+    }
+
+    /**
+     * Releases a reference acquired by {@link #retain()}, stopping the threads once the last one is released.
+     */
+    void release() {
+        synchronized (SharedNettyResources.class) {
+            if (references <= 0) {
+                throw new IllegalStateException("Shared Netty resources released more often than retained");
+            }
+            if (--references > 0) {
+                return;
+            }
+            if (current == this) {
+                current = null;
+            }
+        }
+        dispose();
+    }
+
+    /**
+     * Returns the number of connections currently open by the clients using the shared resources.
+     *
+     * @return the number of open connections.
+     */
+    static int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    /**
+     * Returns the number of connections ever opened by the clients using the shared resources.
+     *
+     * @return the number of connections opened.
+     */
+    static long getConnectionsOpened() {
+        return connectionsOpened.sum();
+    }
+
+    /**
+     * Returns the selector implementation the I/O threads poll the connections with. Netty 3 only has the NIO
+     * transport, which uses the JVM's selectors: {@code EPollSelectorProvider} on Linux, {@code KQueueSelectorProvider}
+     * on macOS, unless {@link #SELECTOR_PROVIDER_PROPERTY} chose another one.
+     *
+     * @return the class name of the selector provider.
+     */
+    static String getSelectorProvider() {
+        return SelectorProvider.provider().getClass().getName();
+    }
+
+    /**
+     * Creates a provider configuration that makes a client use the shared resources.
+     *
+     * @param directBuffers whether the client reads and writes through chunked direct buffers, see
+     *                      {@link ChunkedDirectBufferFactory}, rather than heap buffers.
+     * @param encodedBodies whether the client leaves {@code gzip} and {@code deflate} bodies encoded for its handlers
+     *                      to decompress, see {@link DecompressingAsyncHandler}, rather than decompressing them all.
+     * @return the provider configuration.
+     */
+    synchronized NettyAsyncHttpProviderConfig newProviderConfig(boolean directBuffers, boolean encodedBodies) {
+        if (channelFactory == null) {
+            String selectorProvider = getSelectorProvider();
+            LOGGER.log(Level.FINE, "Starting shared Netty resources, polling with {0}", selectorProvider);
+            String requested = System.getProperty(SELECTOR_PROVIDER_PROPERTY);
+            if (requested != null && !requested.equals(selectorProvider)) {
+                LOGGER.log(Level.WARNING, "{0}={1} was set after the JVM chose {2}, which the I/O threads keep "
+                        + "polling with: set it on the java command line instead",
+                        new Object[]{SELECTOR_PROVIDER_PROPERTY, requested, selectorProvider});
+            }
+            bossExecutor = Executors.newCachedThreadPool(
+                    new NamingThreadFactory(new DaemonThreadFactory(), "AsyncHttpClient boss"));
+            workerExecutor = Executors.newCachedThreadPool(
+                    new NamingThreadFactory(new DaemonThreadFactory(), "AsyncHttpClient worker"));
+            channelFactory = new CountingChannelFactory(bossExecutor, workerExecutor, 1, WORKER_COUNT);
+            timer = new HashedWheelTimer(new NamingThreadFactory(new DaemonThreadFactory(), "AsyncHttpClient timer"));
+        }
+        NettyAsyncHttpProviderConfig config = new NettyAsyncHttpProviderConfig();
+        config.setBossExecutorService(bossExecutor);
+        config.setSocketChannelFactory(channelFactory);
+        config.setNettyTimer(timer);
+        if (directBuffers) {
+            // a channel option, set on every connection the client opens
+            config.addProperty("bufferFactory", ChunkedDirectBufferFactory.INSTANCE);
+        }
+        if (encodedBodies) {
+            config.setHttpAdditionalPipelineInitializer(KEEP_BODIES_ENCODED);
+            config.setHttpsAdditionalPipelineInitializer(KEEP_BODIES_ENCODED);
+        }
+        return config;
+    }
+
+    /**
+     * Stops the threads, if they were ever started.
+     */
+    private synchronized void dispose() {
+        if (channelFactory != null) {
+            LOGGER.fine("Stopping shared Netty resources");
+            timer.stop();
+            // also shuts down the boss and worker executors
+            channelFactory.releaseExternalResources();
+            channelFactory = null;
+            timer = null;
+            bossExecutor = null;
+            workerExecutor = null;
+        }
+    }
+
+    /**
+     * A channel factory that counts the connections it opens.
+     */
+    private static final class CountingChannelFactory extends NioClientSocketChannelFactory {
+
+        private CountingChannelFactory(Executor bossExecutor, Executor workerExecutor, int bossCount,
+                                       int workerCount) {
+            super(bossExecutor, workerExecutor, bossCount, workerCount);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public SocketChannel newChannel(ChannelPipeline pipeline) {
+            SocketChannel channel = super.newChannel(pipeline);
+            connectionsOpened.increment();
+            openConnections.incrementAndGet();
+            channel.getCloseFuture().addListener(CONNECTION_CLOSED);
+            return channel;
+        }
+    }
+}
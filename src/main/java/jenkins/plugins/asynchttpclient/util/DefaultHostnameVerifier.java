@@ -23,7 +23,7 @@ import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 
 /**
- * Uses the internal HostnameChecker to verify the server's hostname matches with the
+ * Uses a HostnameChecker to verify the server's hostname matches with the
  * certificate.  This is a requirement for HTTPS, but the raw SSLEngine does not have
  * this functionality.  As such, it has to be added in manually.  For a more complete
  * description of hostname verification and why it's important,
@@ -33,6 +33,10 @@ import java.security.cert.X509Certificate;
  * <p>
  * This code is based on Kevin Locke's <a href="http://kevinlocke.name/bits/2012/10/03/ssl-certificate-verification-in-dispatch-and-asynchttpclient/">guide</a> .
  * </p>
+ * <p>
+ * Successful certificate matches are remembered in a {@link VerificationCache}, so that resumed sessions to the same
+ * host are not verified again.
+ * </p>
  */
 @Restricted(NoExternalUse.class)
 public class DefaultHostnameVerifier implements HostnameVerifier {
@@ -41,14 +45,16 @@ public class DefaultHostnameVerifier implements HostnameVerifier {
 
     private HostnameVerifier extraHostnameVerifier;
 
+    private final VerificationCache cache = new VerificationCache();
+
     // Logger to log exceptions.
     private static final Logger log = LoggerFactory.getLogger(DefaultHostnameVerifier.class.getName());
 
     /**
-     * A hostname verifier that uses the {{sun.security.util.HostnameChecker}} under the hood.
+     * A hostname verifier that uses the {@link Rfc6125HostnameChecker} under the hood.
      */
     public DefaultHostnameVerifier() {
-        this.checker = new ProxyHostnameChecker();
+        this.checker = new Rfc6125HostnameChecker();
     }
 
     /**
@@ -66,7 +72,7 @@ public class DefaultHostnameVerifier implements HostnameVerifier {
      * @param extraHostnameVerifier another hostname verifier.
      */
     public DefaultHostnameVerifier(HostnameVerifier extraHostnameVerifier) {
-        this.checker = new ProxyHostnameChecker();
+        this.checker = new Rfc6125HostnameChecker();
         this.extraHostnameVerifier = extraHostnameVerifier;
     }
 
@@ -101,9 +107,14 @@ public class DefaultHostnameVerifier implements HostnameVerifier {
             if (peerCertificates[0] instanceof X509Certificate) {
                 X509Certificate peerCertificate = (X509Certificate) peerCertificates[0];
                 log.debug("peerCertificate = {}", peerCertificate);
+                if (cache.isVerified(hostname, peerCertificate)) {
+                    log.debug("Certificate already verified for hostname");
+                    return true;
+                }
                 try {
                     checker.match(hostname, peerCertificate);
                     // Certificate matches hostname if no exception is thrown.
+                    cache.verified(hostname, peerCertificate);
                     return true;
                 } catch (CertificateException ex) {
                     log.debug("Certificate does not match hostname", ex);
@@ -130,6 +141,16 @@ public class DefaultHostnameVerifier implements HostnameVerifier {
         }
     }
 
+    /**
+     * Returns the cache of hostname and certificate pairs that have already been verified, for its hit and miss
+     * counters.
+     *
+     * @return the cache of verified hostname and certificate pairs.
+     */
+    public VerificationCache getVerificationCache() {
+        return cache;
+    }
+
     /**
      * Verifies the hostname against the peer certificates in a session.  Falls back to extraHostnameVerifier if
      * there is no match.
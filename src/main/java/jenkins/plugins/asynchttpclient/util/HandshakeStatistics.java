@@ -0,0 +1,97 @@
+package jenkins.plugins.asynchttpclient.util;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLSession;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Counts full and resumed TLS handshakes.
+ * <p>
+ * The client verifies the hostname once at the end of every handshake, so the {@link HostnameVerifier}s returned by
+ * {@link #wrap(HostnameVerifier)} see every handshake. A handshake counts as resumed when its session id has been
+ * seen before, which is how TLS 1.2 session resumption works. Handshakes without a session id count as full.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public class HandshakeStatistics {
+
+    /**
+     * How many session ids are remembered.
+     */
+    private static final int MAX_SESSIONS = 4096;
+
+    private final LongAdder full = new LongAdder();
+
+    private final LongAdder resumed = new LongAdder();
+
+    /**
+     * The most recently seen session ids.
+     */
+    private final Map<ByteBuffer, Boolean> sessions = new LinkedHashMap<ByteBuffer, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+            return size() > MAX_SESSIONS;
+        }
+    };
+
+    /**
+     * Records a completed handshake.
+     *
+     * @param session the session negotiated by the handshake.
+     */
+    public void record(SSLSession session) {
+        byte[] id = session.getId();
+        if (id == null || id.length == 0) {
+            full.increment();
+            return;
+        }
+        boolean seen;
+        synchronized (sessions) {
+            seen = sessions.put(ByteBuffer.wrap(id.clone()), Boolean.TRUE) != null;
+        }
+        if (seen) {
+            resumed.increment();
+        } else {
+            full.increment();
+        }
+    }
+
+    /**
+     * Wraps a {@link HostnameVerifier} so that it records every handshake.
+     *
+     * @param verifier the verifier.
+     * @return the recording verifier.
+     */
+    public HostnameVerifier wrap(final HostnameVerifier verifier) {
+        return new HostnameVerifier() {
+            @Override
+            public boolean verify(String hostname, SSLSession session) {
+                record(session);
+                return verifier.verify(hostname, session);
+            }
+        };
+    }
+
+    /**
+     * Returns the number of full handshakes.
+     *
+     * @return the number of full handshakes.
+     */
+    public long getFullHandshakes() {
+        return full.sum();
+    }
+
+    /**
+     * Returns the number of resumed handshakes.
+     *
+     * @return the number of resumed handshakes.
+     */
+    public long getResumedHandshakes() {
+        return resumed.sum();
+    }
+}
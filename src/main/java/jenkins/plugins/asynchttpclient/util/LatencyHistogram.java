@@ -0,0 +1,210 @@
+package jenkins.plugins.asynchttpclient.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * A fixed size, lock free histogram of latencies, in the spirit of HdrHistogram.
+ * <p>
+ * Latencies are recorded in microseconds into log-linear buckets: every power of two is split into eight buckets,
+ * so a percentile is reported with at most 12.5% error whatever the magnitude. Recording does not allocate and is a
+ * handful of atomic increments, so it can be done on the I/O threads.
+ * </p>
+ */
+@ExportedBean
+@Restricted(NoExternalUse.class)
+public class LatencyHistogram {
+
+    /**
+     * The number of bits of the bucket index below the power of two, 3 for eight buckets per power of two.
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The largest recorded power of two, 2<sup>40</sup> microseconds is about 12 days.
+     */
+    private static final int MAX_EXPONENT = 40;
+
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    /**
+     * What the latencies are for, e.g. a status class.
+     */
+    private final String outcome;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Creates an empty histogram.
+     *
+     * @param outcome what the latencies are for.
+     */
+    public LatencyHistogram(String outcome) {
+        this.outcome = outcome;
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency, in nanoseconds.
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0L, TimeUnit.NANOSECONDS.toMicros(nanos));
+        counts.incrementAndGet(indexOf(micros));
+        count.increment();
+        sum.add(micros);
+        long highest;
+        while (micros > (highest = max.get()) && !max.compareAndSet(highest, micros)) {
+            // retry
+        }
+    }
+
+    /**
+     * Returns the bucket of a value.
+     *
+     * @param value the value.
+     * @return the index of its bucket.
+     */
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the highest value that falls in a bucket.
+     *
+     * @param index the index of the bucket.
+     * @return the highest value of the bucket.
+     */
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+        return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * Returns the value below which a given percentage of the recorded latencies fall.
+     *
+     * @param percentile the percentage, between 0 and 100.
+     * @return the latency, in milliseconds, {@code 0} if nothing was recorded.
+     */
+    public double getValueAtPercentile(double percentile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1L, (long) Math.ceil(Math.min(100.0, percentile) / 100.0 * total));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulative += snapshot[i];
+            if (cumulative >= target) {
+                return toMillis(Math.min(highestValueOf(i), max.get()));
+            }
+        }
+        return toMillis(max.get());
+    }
+
+    private static double toMillis(long micros) {
+        return micros / 1000.0;
+    }
+
+    /**
+     * Returns what the latencies are for.
+     *
+     * @return what the latencies are for.
+     */
+    @Exported
+    public String getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * Returns the number of recorded latencies.
+     *
+     * @return the number of recorded latencies.
+     */
+    @Exported
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the mean latency.
+     *
+     * @return the mean latency, in milliseconds.
+     */
+    @Exported
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : toMillis(sum.sum()) / n;
+    }
+
+    /**
+     * Returns the median latency.
+     *
+     * @return the median latency, in milliseconds.
+     */
+    @Exported
+    public double getP50() {
+        return getValueAtPercentile(50);
+    }
+
+    /**
+     * Returns the 90th percentile latency.
+     *
+     * @return the 90th percentile latency, in milliseconds.
+     */
+    @Exported
+    public double getP90() {
+        return getValueAtPercentile(90);
+    }
+
+    /**
+     * Returns the 99th percentile latency.
+     *
+     * @return the 99th percentile latency, in milliseconds.
+     */
+    @Exported
+    public double getP99() {
+        return getValueAtPercentile(99);
+    }
+
+    /**
+     * Returns the highest latency.
+     *
+     * @return the highest latency, in milliseconds.
+     */
+    @Exported
+    public double getMax() {
+        return toMillis(max.get());
+    }
+}
@@ -0,0 +1,236 @@
+package jenkins.plugins.asynchttpclient.util;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Decides whether a host bypasses the proxy, from the "no proxy host" patterns of the proxy settings, in time
+ * proportional to the length of the host name rather than to the number of patterns.
+ * <p>
+ * The patterns have the same meaning as for {@link com.ning.http.client.ProxyServer#addNonProxyHost(String)}, all
+ * comparisons ignoring case:
+ * </p>
+ * <ul>
+ * <li>{@code *.example.com} (leading wildcard) matches the host names ending with {@code .example.com}, they are kept
+ * in a trie of the reversed suffixes;</li>
+ * <li>{@code 192.168.*} (trailing wildcard) matches the host names starting with {@code 192.168.}, they are kept in a
+ * trie of the prefixes;</li>
+ * <li>anything else matches the host name exactly, they are kept in a hash set;</li>
+ * </ul>
+ * <p>
+ * In addition, CIDR ranges such as {@code 10.0.0.0/8} or {@code fd00::/8} match the IP literals in the range, they are
+ * kept in a binary trie of the address bits.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class NonProxyHostMatcher {
+
+    /**
+     * How the patterns are separated in the proxy settings.
+     */
+    private static final String SEPARATORS = "[ \t\n,|]+";
+
+    /**
+     * Matches nothing.
+     */
+    public static final NonProxyHostMatcher NONE = new NonProxyHostMatcher();
+
+    private final Set<String> exact = new HashSet<String>();
+
+    private final CharNode suffixes = new CharNode();
+
+    private final CharNode prefixes = new CharNode();
+
+    private final BitNode ipv4 = new BitNode();
+
+    private final BitNode ipv6 = new BitNode();
+
+    private boolean hasSuffixes;
+
+    private boolean hasPrefixes;
+
+    private boolean hasRanges;
+
+    private NonProxyHostMatcher() {
+    }
+
+    /**
+     * Compiles the "no proxy host" patterns of the proxy settings.
+     *
+     * @param noProxyHost the patterns, separated by white space, commas or {@code |}, may be {@code null}.
+     * @return the matcher.
+     */
+    public static NonProxyHostMatcher compile(String noProxyHost) {
+        if (noProxyHost == null || noProxyHost.trim().isEmpty()) {
+            return NONE;
+        }
+        NonProxyHostMatcher matcher = new NonProxyHostMatcher();
+        for (String pattern : noProxyHost.split(SEPARATORS)) {
+            if (pattern.length() > 0) {
+                matcher.add(pattern.toLowerCase(Locale.ENGLISH));
+            }
+        }
+        return matcher;
+    }
+
+    /**
+     * Splits the "no proxy host" patterns of the proxy settings.
+     *
+     * @param noProxyHost the patterns, separated by white space, commas or {@code |}, may be {@code null}.
+     * @return the patterns.
+     */
+    public static String[] split(String noProxyHost) {
+        if (noProxyHost == null || noProxyHost.trim().isEmpty()) {
+            return new String[0];
+        }
+        return noProxyHost.trim().split(SEPARATORS);
+    }
+
+    private void add(String pattern) {
+        int slash = pattern.indexOf('/');
+        if (slash > 0 && addRange(pattern.substring(0, slash), pattern.substring(slash + 1))) {
+            return;
+        }
+        if (pattern.length() > 1 && pattern.charAt(0) == '*') {
+            CharNode node = suffixes;
+            for (int i = pattern.length() - 1; i >= 1; i--) {
+                node = node.child(pattern.charAt(i));
+            }
+            node.terminal = true;
+            hasSuffixes = true;
+        } else if (pattern.length() > 1 && pattern.charAt(pattern.length() - 1) == '*') {
+            CharNode node = prefixes;
+            for (int i = 0; i < pattern.length() - 1; i++) {
+                node = node.child(pattern.charAt(i));
+            }
+            node.terminal = true;
+            hasPrefixes = true;
+        } else {
+            exact.add(pattern);
+        }
+    }
+
+    private boolean addRange(String address, String prefixLength) {
+        InetAddress network = Rfc6125HostnameChecker.parseAddress(address);
+        if (network == null) {
+            return false;
+        }
+        byte[] bits = network.getAddress();
+        int length;
+        try {
+            length = Integer.parseInt(prefixLength);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (length < 0 || length > bits.length * 8) {
+            return false;
+        }
+        BitNode node = bits.length == 4 ? ipv4 : ipv6;
+        for (int i = 0; i < length; i++) {
+            node = node.child(bit(bits, i));
+        }
+        node.terminal = true;
+        hasRanges = true;
+        return true;
+    }
+
+    /**
+     * Checks whether a host bypasses the proxy.
+     *
+     * @param host the host name or IP literal.
+     * @return {@code true} if the host matches one of the patterns.
+     */
+    public boolean matches(String host) {
+        if (this == NONE) {
+            return false;
+        }
+        String target = host.toLowerCase(Locale.ENGLISH);
+        if (exact.contains(target)) {
+            return true;
+        }
+        if (hasSuffixes) {
+            CharNode node = suffixes;
+            for (int i = target.length() - 1; i >= 0 && node != null; i--) {
+                node = node.children.get(target.charAt(i));
+                if (node != null && node.terminal) {
+                    return true;
+                }
+            }
+        }
+        if (hasPrefixes) {
+            CharNode node = prefixes;
+            for (int i = 0; i < target.length() && node != null; i++) {
+                node = node.children.get(target.charAt(i));
+                if (node != null && node.terminal) {
+                    return true;
+                }
+            }
+        }
+        if (hasRanges) {
+            InetAddress address = Rfc6125HostnameChecker.parseAddress(target);
+            if (address != null) {
+                byte[] bits = address.getAddress();
+                BitNode node = bits.length == 4 ? ipv4 : ipv6;
+                for (int i = 0; node != null; i++) {
+                    if (node.terminal) {
+                        return true;
+                    }
+                    if (i == bits.length * 8) {
+                        break;
+                    }
+                    node = bit(bits, i) ? node.one : node.zero;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean bit(byte[] bits, int index) {
+        return (bits[index >> 3] & (0x80 >> (index & 7))) != 0;
+    }
+
+    /**
+     * A node of a character trie.
+     */
+    private static final class CharNode {
+        private final Map<Character, CharNode> children = new HashMap<Character, CharNode>();
+        private boolean terminal;
+
+        private CharNode child(char c) {
+            CharNode node = children.get(c);
+            if (node == null) {
+                node = new CharNode();
+                children.put(c, node);
+            }
+            return node;
+        }
+    }
+
+    /**
+     * A node of a binary trie.
+     */
+    private static final class BitNode {
+        private BitNode zero;
+        private BitNode one;
+        private boolean terminal;
+
+        private BitNode child(boolean bit) {
+            if (bit) {
+                if (one == null) {
+                    one = new BitNode();
+                }
+                return one;
+            }
+            if (zero == null) {
+                zero = new BitNode();
+            }
+            return zero;
+        }
+    }
+}
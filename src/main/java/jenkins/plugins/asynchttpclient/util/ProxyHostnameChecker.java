@@ -12,76 +12,126 @@
  */
 package jenkins.plugins.asynchttpclient.util;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.security.Principal;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 /**
  * A HostnameChecker proxy.
+ * <p>
+ * The methods of the JDK internal {@code sun.security.util.HostnameChecker} are resolved once, as method handles, when
+ * the proxy is created. If they are not accessible, as is the case on recent JDKs with strong encapsulation, the proxy
+ * falls back to the pure Java {@link Rfc6125HostnameChecker}.
+ * </p>
  */
 @Restricted(NoExternalUse.class)
 public class ProxyHostnameChecker implements HostnameChecker {
 
     public final static byte TYPE_TLS = 1;
 
-    private final Object checker = getHostnameChecker();
+    /**
+     * Our logger, for the fallbacks.
+     */
+    private static final Logger LOGGER = Logger.getLogger(ProxyHostnameChecker.class.getName());
 
-    public ProxyHostnameChecker() {
-    }
+    /**
+     * {@code void match(String, X509Certificate)}, bound to the JDK checker, or {@code null} to use the fallback.
+     */
+    private final MethodHandle matchCertificate;
+
+    /**
+     * {@code boolean match(String, Principal)}, or {@code null} to use the fallback.
+     */
+    private final MethodHandle matchPrincipal;
 
-    private Object getHostnameChecker() {
+    /**
+     * Used when the JDK checker is not accessible.
+     */
+    private final HostnameChecker fallback;
+
+    public ProxyHostnameChecker() {
+        MethodHandle certificate = null;
+        MethodHandle principal = null;
         final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
         try {
-            @SuppressWarnings("unchecked")
-            final Class<Object> hostnameCheckerClass =
-                    (Class<Object>) classLoader.loadClass("sun.security.util.HostnameChecker");
-            final Method instanceMethod = hostnameCheckerClass.getMethod("getInstance", Byte.TYPE);
-            return instanceMethod.invoke(null, TYPE_TLS);
-        } catch (ClassNotFoundException e) {
-            throw new IllegalStateException(e);
-        } catch (NoSuchMethodException e) {
-            throw new IllegalStateException(e);
-        } catch (InvocationTargetException e) {
-            throw new IllegalStateException(e);
-        } catch (IllegalAccessException e) {
-            throw new IllegalStateException(e);
+            final Class<?> hostnameCheckerClass = classLoader.loadClass("sun.security.util.HostnameChecker");
+            final Object checker = hostnameCheckerClass.getMethod("getInstance", Byte.TYPE).invoke(null, TYPE_TLS);
+            final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            certificate = bind(lookup, hostnameCheckerClass.getMethod("match", String.class, X509Certificate.class),
+                    checker).asType(MethodType.methodType(void.class, String.class, X509Certificate.class));
+            principal = bind(lookup, hostnameCheckerClass.getMethod("match", String.class, Principal.class),
+                    checker).asType(MethodType.methodType(boolean.class, String.class, Principal.class));
+        } catch (ReflectiveOperationException e) {
+            LOGGER.log(Level.FINE, "sun.security.util.HostnameChecker is not available, using the RFC 6125 hostname "
+                    + "checker", e);
+            certificate = null;
+            principal = null;
+        } catch (RuntimeException e) {
+            // InaccessibleObjectException with strong encapsulation
+            LOGGER.log(Level.FINE, "sun.security.util.HostnameChecker is not accessible, using the RFC 6125 hostname "
+                    + "checker", e);
+            certificate = null;
+            principal = null;
         }
+        this.matchCertificate = certificate;
+        this.matchPrincipal = principal;
+        this.fallback = certificate == null ? new Rfc6125HostnameChecker() : null;
+    }
+
+    /**
+     * Converts a method to a method handle, bound to the receiver if the method is not static.
+     *
+     * @param lookup   the lookup.
+     * @param method   the method.
+     * @param receiver the receiver.
+     * @return the method handle.
+     * @throws IllegalAccessException if the method is not accessible.
+     */
+    private static MethodHandle bind(MethodHandles.Lookup lookup, Method method, Object receiver)
+            throws IllegalAccessException {
+        MethodHandle handle = lookup.unreflect(method);
+        return Modifier.isStatic(method.getModifiers()) ? handle : handle.bindTo(receiver);
     }
 
     public void match(String hostname, X509Certificate peerCertificate) throws CertificateException {
+        if (matchCertificate == null) {
+            fallback.match(hostname, peerCertificate);
+            return;
+        }
         try {
-            final Class<?> hostnameCheckerClass = checker.getClass();
-            final Method checkMethod = hostnameCheckerClass.getMethod("match", String.class, X509Certificate.class);
-            checkMethod.invoke(checker, hostname, peerCertificate);
-        } catch (NoSuchMethodException e) {
-            throw new IllegalStateException(e);
-        } catch (InvocationTargetException e) {
-            Throwable t = e.getCause();
-            if (t instanceof CertificateException) {
-                throw (CertificateException) t;
-            } else {
-                throw new IllegalStateException(e);
-            }
-        } catch (IllegalAccessException e) {
-            throw new IllegalStateException(e);
+            matchCertificate.invokeExact(hostname, peerCertificate);
+        } catch (CertificateException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
         }
     }
 
     public boolean match(String hostname, Principal principal) {
+        if (matchPrincipal == null) {
+            return fallback.match(hostname, principal);
+        }
         try {
-            final Class<?> hostnameCheckerClass = checker.getClass();
-            final Method checkMethod = hostnameCheckerClass.getMethod("match", String.class, Principal.class);
-            return (Boolean) checkMethod.invoke(null, hostname, principal);
-        } catch (NoSuchMethodException e) {
-            throw new IllegalStateException(e);
-        } catch (InvocationTargetException e) {
-            throw new IllegalStateException(e);
-        } catch (IllegalAccessException e) {
-            throw new IllegalStateException(e);
+            return (boolean) matchPrincipal.invokeExact(hostname, principal);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
         }
     }
 
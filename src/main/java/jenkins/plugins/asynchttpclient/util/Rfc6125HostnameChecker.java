@@ -0,0 +1,292 @@
+package jenkins.plugins.asynchttpclient.util;
+
+import java.net.IDN;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.security.Principal;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.x500.X500Principal;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * A self-contained {@link HostnameChecker} following the server identity rules of
+ * <a href="https://tools.ietf.org/html/rfc6125">RFC 6125</a> and
+ * <a href="https://tools.ietf.org/html/rfc2818#section-3.1">RFC 2818</a>, without any dependency on the JDK internal
+ * {@code sun.security.util.HostnameChecker}.
+ * <ul>
+ * <li>IP addresses only match {@code iPAddress} subject alternative names.</li>
+ * <li>Host names match {@code dNSName} subject alternative names, the most specific common name of the subject is
+ * only used when the certificate has no {@code dNSName}.</li>
+ * <li>A wildcard is only allowed as the complete left-most label of a name with at least three labels and matches
+ * exactly one label.</li>
+ * <li>Internationalized host names are compared in their ASCII (punycode) form.</li>
+ * </ul>
+ * The names of the most recently checked certificates are kept in their parsed form, so checking the same
+ * certificate again does not parse it again.
+ */
+@Restricted(NoExternalUse.class)
+public class Rfc6125HostnameChecker implements HostnameChecker {
+
+    /**
+     * The {@code dNSName} general name type.
+     */
+    private static final int SAN_DNS_NAME = 2;
+
+    /**
+     * The {@code iPAddress} general name type.
+     */
+    private static final int SAN_IP_ADDRESS = 7;
+
+    /**
+     * How many parsed certificates are kept.
+     */
+    private static final int CACHE_SIZE = 256;
+
+    /**
+     * The parsed names of the most recently checked certificates.
+     */
+    private final Map<X509Certificate, ServerNames> cache =
+            new LinkedHashMap<X509Certificate, ServerNames>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<X509Certificate, ServerNames> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
+    public void match(String hostname, X509Certificate peerCertificate) throws CertificateException {
+        ServerNames names;
+        synchronized (cache) {
+            names = cache.get(peerCertificate);
+        }
+        if (names == null) {
+            names = new ServerNames(peerCertificate);
+            synchronized (cache) {
+                cache.put(peerCertificate, names);
+            }
+        }
+        if (!names.matches(hostname)) {
+            throw new CertificateException("No name matching " + hostname + " found");
+        }
+    }
+
+    public boolean match(String hostname, Principal principal) {
+        if (!(principal instanceof KerberosPrincipal)) {
+            return false;
+        }
+        // service/host@REALM
+        String name = principal.getName();
+        int start = name.indexOf('/') + 1;
+        int end = name.indexOf('@', start);
+        String serverName = end < 0 ? name.substring(start) : name.substring(start, end);
+        String expected = toAscii(hostname);
+        return expected != null && expected.equals(toAscii(serverName));
+    }
+
+    /**
+     * The names a certificate is valid for, parsed once.
+     */
+    private static final class ServerNames {
+        /**
+         * The {@code dNSName} entries, normalized. Wildcard entries keep their leading {@code *}.
+         */
+        private final List<String> dnsNames;
+        /**
+         * The {@code iPAddress} entries.
+         */
+        private final List<InetAddress> addresses;
+
+        private ServerNames(X509Certificate certificate) throws CertificateException {
+            Collection<List<?>> subjectAltNames;
+            try {
+                subjectAltNames = certificate.getSubjectAlternativeNames();
+            } catch (CertificateParsingException e) {
+                throw new CertificateException("Could not parse the subject alternative names", e);
+            }
+            List<String> dnsNames = new ArrayList<String>();
+            List<InetAddress> addresses = new ArrayList<InetAddress>();
+            boolean hasDnsNames = false;
+            if (subjectAltNames != null) {
+                for (List<?> entry : subjectAltNames) {
+                    int type = (Integer) entry.get(0);
+                    if (type == SAN_DNS_NAME) {
+                        hasDnsNames = true;
+                        addPattern(dnsNames, (String) entry.get(1));
+                    } else if (type == SAN_IP_ADDRESS) {
+                        InetAddress address = parseAddress((String) entry.get(1));
+                        if (address != null) {
+                            addresses.add(address);
+                        }
+                    }
+                }
+            }
+            if (!hasDnsNames) {
+                String commonName = getCommonName(certificate.getSubjectX500Principal());
+                if (commonName != null) {
+                    addPattern(dnsNames, commonName);
+                }
+            }
+            this.dnsNames = Collections.unmodifiableList(dnsNames);
+            this.addresses = Collections.unmodifiableList(addresses);
+        }
+
+        private static void addPattern(List<String> dnsNames, String pattern) {
+            String normalized = pattern.startsWith("*.") ? toAsciiWildcard(pattern) : toAscii(pattern);
+            if (normalized != null) {
+                dnsNames.add(normalized);
+            }
+        }
+
+        private boolean matches(String hostname) {
+            InetAddress address = parseAddress(hostname);
+            if (address != null) {
+                return addresses.contains(address);
+            }
+            String expected = toAscii(hostname);
+            if (expected == null) {
+                return false;
+            }
+            for (String pattern : dnsNames) {
+                if (matchesDnsName(expected, pattern)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Checks a normalized host name against a normalized {@code dNSName} or common name, which may contain a wildcard.
+     *
+     * @param hostname the normalized host name.
+     * @param pattern  the normalized name from the certificate.
+     * @return {@code true} if the host name matches.
+     */
+    static boolean matchesDnsName(String hostname, String pattern) {
+        if (!pattern.startsWith("*.")) {
+            return hostname.equals(pattern);
+        }
+        String suffix = pattern.substring(1); // ".example.com"
+        if (suffix.indexOf('*') >= 0 || suffix.indexOf('.', 1) < 0) {
+            // only one wildcard, and not directly under a top level domain
+            return false;
+        }
+        int firstDot = hostname.indexOf('.');
+        return firstDot > 0 && hostname.substring(firstDot).equals(suffix);
+    }
+
+    /**
+     * Converts a host name to its lower case ASCII form without the trailing dot of a fully qualified name.
+     *
+     * @param hostname the host name, possibly internationalized.
+     * @return the normalized host name or {@code null} if it is not a valid host name.
+     */
+    static String toAscii(String hostname) {
+        String result = hostname.endsWith(".") ? hostname.substring(0, hostname.length() - 1) : hostname;
+        try {
+            result = IDN.toASCII(result);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return result.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Converts a wildcard name to its lower case ASCII form, leaving the wildcard label alone.
+     *
+     * @param pattern the wildcard name, starting with {@code *.}.
+     * @return the normalized wildcard name or {@code null} if it is not valid.
+     */
+    private static String toAsciiWildcard(String pattern) {
+        String suffix = toAscii(pattern.substring(2));
+        return suffix == null ? null : "*." + suffix;
+    }
+
+    /**
+     * Parses an IPv4 or IPv6 literal, without ever resolving a host name.
+     *
+     * @param value the value.
+     * @return the address or {@code null} if the value is not an IP literal.
+     */
+    static InetAddress parseAddress(String value) {
+        if (value.startsWith("[") && value.endsWith("]")) {
+            value = value.substring(1, value.length() - 1);
+        }
+        if (!isIPv4Literal(value) && value.indexOf(':') < 0) {
+            return null;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!(Character.digit(c, 16) >= 0 || c == '.' || c == ':' || c == '%')) {
+                return null;
+            }
+        }
+        try {
+            return InetAddress.getByName(value);
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks for a dotted quad IPv4 literal.
+     *
+     * @param value the value.
+     * @return {@code true} if the value is an IPv4 literal.
+     */
+    private static boolean isIPv4Literal(String value) {
+        String[] parts = value.split("\\.", -1);
+        if (parts.length != 4) {
+            return false;
+        }
+        for (String part : parts) {
+            if (part.isEmpty() || part.length() > 3) {
+                return false;
+            }
+            for (int i = 0; i < part.length(); i++) {
+                if (!Character.isDigit(part.charAt(i))) {
+                    return false;
+                }
+            }
+            if (Integer.parseInt(part) > 255) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the most specific common name of a subject.
+     *
+     * @param subject the subject.
+     * @return the common name or {@code null} if there is none.
+     */
+    static String getCommonName(X500Principal subject) {
+        try {
+            List<Rdn> rdns = new LdapName(subject.getName(X500Principal.RFC2253)).getRdns();
+            // LdapName lists the RDNs starting with the least specific one
+            for (int i = rdns.size() - 1; i >= 0; i--) {
+                Rdn rdn = rdns.get(i);
+                if ("CN".equalsIgnoreCase(rdn.getType()) && rdn.getValue() instanceof String) {
+                    return (String) rdn.getValue();
+                }
+            }
+        } catch (InvalidNameException e) {
+            // ignore, treat as no common name
+        }
+        return null;
+    }
+}
@@ -0,0 +1,221 @@
+package jenkins.plugins.asynchttpclient.util;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.KeyManagementException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * An {@link SSLContext} that restricts the protocols and cipher suites of the {@link SSLEngine}s and of the client
+ * {@link SSLSocket}s it creates.
+ * <p>
+ * Everything else, including the client session cache, is delegated to another context. Only the protocols and
+ * cipher suites the engine actually supports are enabled, and the engine's defaults are left alone when none of the
+ * requested ones is supported.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public class TunedSSLContext extends SSLContext {
+
+    /**
+     * Creates a tuned context.
+     *
+     * @param delegate     the context to delegate to, already initialized.
+     * @param protocols    the protocols to enable, {@code null} or empty for the delegate's defaults.
+     * @param cipherSuites the cipher suites to enable, {@code null} or empty for the delegate's defaults.
+     */
+    public TunedSSLContext(SSLContext delegate, String[] protocols, String[] cipherSuites) {
+        super(new Spi(delegate, protocols, cipherSuites), delegate.getProvider(), delegate.getProtocol());
+    }
+
+    /**
+     * Keeps the requested values the engine supports.
+     *
+     * @param requested the requested values.
+     * @param supported the supported values.
+     * @return the supported requested values, in the requested order.
+     */
+    static String[] supported(String[] requested, String[] supported) {
+        List<String> supportedList = Arrays.asList(supported);
+        List<String> result = new ArrayList<String>();
+        for (String value : requested) {
+            if (supportedList.contains(value)) {
+                result.add(value);
+            }
+        }
+        return result.toArray(new String[0]);
+    }
+
+    /**
+     * The service provider interface doing the actual work.
+     */
+    private static final class Spi extends SSLContextSpi {
+        private final SSLContext delegate;
+        private final String[] protocols;
+        private final String[] cipherSuites;
+
+        private Spi(SSLContext delegate, String[] protocols, String[] cipherSuites) {
+            this.delegate = delegate;
+            this.protocols = protocols == null ? new String[0] : protocols.clone();
+            this.cipherSuites = cipherSuites == null ? new String[0] : cipherSuites.clone();
+        }
+
+        @Override
+        protected void engineInit(KeyManager[] km, TrustManager[] tm, SecureRandom sr) throws KeyManagementException {
+            throw new KeyManagementException("Already initialized");
+        }
+
+        @Override
+        protected SSLSocketFactory engineGetSocketFactory() {
+            return new TunedSocketFactory(delegate.getSocketFactory(), this);
+        }
+
+        @Override
+        protected SSLServerSocketFactory engineGetServerSocketFactory() {
+            return delegate.getServerSocketFactory();
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine() {
+            return tune(delegate.createSSLEngine());
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine(String host, int port) {
+            return tune(delegate.createSSLEngine(host, port));
+        }
+
+        @Override
+        protected SSLSessionContext engineGetServerSessionContext() {
+            return delegate.getServerSessionContext();
+        }
+
+        @Override
+        protected SSLSessionContext engineGetClientSessionContext() {
+            return delegate.getClientSessionContext();
+        }
+
+        @Override
+        protected SSLParameters engineGetDefaultSSLParameters() {
+            return delegate.getDefaultSSLParameters();
+        }
+
+        @Override
+        protected SSLParameters engineGetSupportedSSLParameters() {
+            return delegate.getSupportedSSLParameters();
+        }
+
+        private SSLEngine tune(SSLEngine engine) {
+            String[] enabled = enabled(protocols, engine.getSupportedProtocols());
+            if (enabled != null) {
+                engine.setEnabledProtocols(enabled);
+            }
+            enabled = enabled(cipherSuites, engine.getSupportedCipherSuites());
+            if (enabled != null) {
+                engine.setEnabledCipherSuites(enabled);
+            }
+            return engine;
+        }
+
+        private Socket tune(Socket socket) {
+            if (socket instanceof SSLSocket) {
+                SSLSocket ssl = (SSLSocket) socket;
+                String[] enabled = enabled(protocols, ssl.getSupportedProtocols());
+                if (enabled != null) {
+                    ssl.setEnabledProtocols(enabled);
+                }
+                enabled = enabled(cipherSuites, ssl.getSupportedCipherSuites());
+                if (enabled != null) {
+                    ssl.setEnabledCipherSuites(enabled);
+                }
+            }
+            return socket;
+        }
+
+        /**
+         * Works out the values to enable.
+         *
+         * @param requested the requested values.
+         * @param supported the supported values.
+         * @return the supported requested values, or {@code null} to leave the defaults alone.
+         */
+        private static String[] enabled(String[] requested, String[] supported) {
+            if (requested.length == 0) {
+                return null;
+            }
+            String[] enabled = supported(requested, supported);
+            return enabled.length > 0 ? enabled : null;
+        }
+    }
+
+    /**
+     * Tunes the sockets of another factory, for the clients that use {@link SSLContext#getSocketFactory()}.
+     */
+    private static final class TunedSocketFactory extends SSLSocketFactory {
+        private final SSLSocketFactory delegate;
+        private final Spi spi;
+
+        private TunedSocketFactory(SSLSocketFactory delegate, Spi spi) {
+            this.delegate = delegate;
+            this.spi = spi;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            String[] enabled = Spi.enabled(spi.cipherSuites, delegate.getSupportedCipherSuites());
+            return enabled != null ? enabled : delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return spi.tune(delegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            return spi.tune(delegate.createSocket(socket, host, port, autoClose));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return spi.tune(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return spi.tune(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return spi.tune(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            return spi.tune(delegate.createSocket(address, port, localAddress, localPort));
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package jenkins.plugins.asynchttpclient.util;
+
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * A bounded cache of the hostname and peer certificate pairs that have already been verified.
+ * <p>
+ * Entries are keyed by the certificate itself rather than by the TLS session id: the session id is chosen by the
+ * server, so it cannot be trusted to stand for a verified identity. A resumed session hands back the same certificate,
+ * so resumed handshakes still skip the verification. Entries expire with the certificate's {@code notAfter} and the
+ * least recently used entries are evicted once the cache is full.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public class VerificationCache {
+
+    /**
+     * The default maximum number of entries.
+     */
+    public static final int DEFAULT_SIZE = 1024;
+
+    /**
+     * The verified pairs, mapped to the time they expire.
+     */
+    private final Map<Key, Long> entries;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates a cache with the default size.
+     */
+    public VerificationCache() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxSize the maximum number of entries.
+     */
+    public VerificationCache(final int maxSize) {
+        this.entries = new LinkedHashMap<Key, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Long> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Checks whether a hostname has already been verified against a certificate.
+     *
+     * @param hostname    the hostname.
+     * @param certificate the peer certificate.
+     * @return {@code true} if the pair was verified and the certificate has not expired since.
+     */
+    public boolean isVerified(String hostname, X509Certificate certificate) {
+        Key key = new Key(hostname, certificate);
+        Long expiry;
+        synchronized (entries) {
+            expiry = entries.get(key);
+            if (expiry != null && expiry <= System.currentTimeMillis()) {
+                entries.remove(key);
+                expiry = null;
+            }
+        }
+        if (expiry == null) {
+            misses.increment();
+            return false;
+        }
+        hits.increment();
+        return true;
+    }
+
+    /**
+     * Records that a hostname has been verified against a certificate.
+     *
+     * @param hostname    the hostname.
+     * @param certificate the peer certificate.
+     */
+    public void verified(String hostname, X509Certificate certificate) {
+        long expiry = certificate.getNotAfter().getTime();
+        if (expiry <= System.currentTimeMillis()) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(new Key(hostname, certificate), expiry);
+        }
+    }
+
+    /**
+     * Returns the number of lookups that found a verified pair.
+     *
+     * @return the number of cache hits.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that did not find a verified pair.
+     *
+     * @return the number of cache misses.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return the number of entries.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Removes all the entries.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * A hostname and certificate pair.
+     */
+    private static final class Key {
+        private final String hostname;
+        private final X509Certificate certificate;
+
+        private Key(String hostname, X509Certificate certificate) {
+            this.hostname = hostname;
+            this.certificate = certificate;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) o;
+            return hostname.equals(that.hostname) && certificate.equals(that.certificate);
+        }
+
+        @Override
+        public int hashCode() {
+            return hostname.hashCode() * 31 + certificate.hashCode();
+        }
+    }
+}
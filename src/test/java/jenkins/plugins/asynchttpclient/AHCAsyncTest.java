@@ -0,0 +1,87 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.ning.http.client.RequestBuilder;
+import com.ning.http.client.Response;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class AHCAsyncTest {
+
+    private static final Function<Response, String> THREAD_NAME = new Function<Response, String>() {
+        @Override
+        public String apply(Response response) {
+            return Thread.currentThread().getName();
+        }
+    };
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Rule
+    public StandInServer server = new StandInServer();
+
+    @Test
+    public void fansOutWithoutAThreadPerRequest() throws Exception {
+        server.script(StandInServer.slow(300, "ok"));
+        List<CompletableFuture<String>> bodies = new ArrayList<CompletableFuture<String>>();
+        for (int i = 0; i < 100; i++) {
+            bodies.add(AHCAsync.execute(new RequestBuilder().setUrl(server.url("/" + i)).build())
+                    .thenApply(new Function<Response, String>() {
+                        @Override
+                        public String apply(Response response) {
+                            return Thread.currentThread().getName() + ":" + response.getResponseBody();
+                        }
+                    }));
+        }
+        // nothing waits for the responses but the test itself
+        CompletableFuture.allOf(bodies.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+        for (CompletableFuture<String> body : bodies) {
+            assertThat(body.get(), allOf(startsWith("AsyncHttpClient callback"), endsWith(":ok")));
+        }
+        assertThat(server.getHits(), is(100));
+    }
+
+    @Test
+    public void runsOnTheGivenExecutorAndCancelsRequests() throws Exception {
+        server.script(StandInServer.slow(2000, "late"));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            String thread = executor.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return Thread.currentThread().getName();
+                }
+            }).get();
+            CompletableFuture<Response> response =
+                    AHCAsync.execute(AHC.instance(), new RequestBuilder().setUrl(server.url("/")).build(), executor);
+            CompletableFuture<String> runOn = response.thenApply(THREAD_NAME);
+            server.script(StandInServer.ok("ok"));
+            assertTrue(response.cancel(true));
+            try {
+                runOn.get(5, TimeUnit.SECONDS);
+                fail("cancelled");
+            } catch (ExecutionException | CancellationException e) {
+                // expected
+            }
+            String name = AHCAsync.execute(AHC.instance(), new RequestBuilder().setUrl(server.url("/")).build(),
+                    executor).thenApply(THREAD_NAME).get(10, TimeUnit.SECONDS);
+            assertThat(name, is(thread));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
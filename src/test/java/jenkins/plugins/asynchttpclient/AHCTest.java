@@ -1,25 +1,50 @@
 package jenkins.plugins.asynchttpclient;
 
 import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
 import com.ning.http.client.ListenableFuture;
 import com.ning.http.client.RequestBuilder;
 import com.ning.http.client.Response;
+import com.ning.http.client.filter.FilterException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpsExchange;
+import hudson.Functions;
 import hudson.ProxyConfiguration;
 import hudson.model.FreeStyleProject;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
 import java.net.HttpURLConnection;
 import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
 import javax.net.ssl.TrustManagerFactory;
 import jenkins.model.Jenkins;
+import jenkins.plugins.asynchttpclient.util.HandshakeStatistics;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.IOUtils;
 import org.junit.AssumptionViolatedException;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
 import java.security.cert.CertPathBuilderException;
 
 import static org.hamcrest.Matchers.*;
@@ -31,6 +56,12 @@ public class AHCTest {
     @Rule
     public JenkinsRule j = new JenkinsRule();
 
+    @Rule
+    public StandInServer server = new StandInServer();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
     @Test
     public void closeCausesRecycle() {
         assertThat(AHC.instance(), notNullValue());
@@ -39,6 +70,226 @@ public class AHCTest {
         assertThat(AHC.instance(), hasProperty("closed", is(false)));
     }
 
+    @Test
+    public void proxyChangeLetsRequestsInFlightComplete() throws Exception {
+        server.script(StandInServer.slow(2000, "slow"));
+        AsyncHttpClient before = AHC.instance();
+        List<ListenableFuture<Response>> responses = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            responses.add(before.prepareGet(server.url("/slow/" + i)).execute());
+        }
+        j.jenkins.proxy = new ProxyConfiguration("proxy.invalid", 3128);
+        AsyncHttpClient after = AHC.instance();
+        assertThat(after, not(sameInstance(before)));
+        assertThat(before, hasProperty("closed", is(false)));
+        for (ListenableFuture<Response> response : responses) {
+            assertThat(response.get().getStatusCode(), is(200));
+            assertThat(response.get().getResponseBody(), is("slow"));
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!before.isClosed() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(before, hasProperty("closed", is(true)));
+        assertThat(after, hasProperty("closed", is(false)));
+    }
+
+    @Test
+    public void configurationChangeRecyclesInstance() throws Exception {
+        AHC ahc = j.jenkins.getDescriptorByType(AHC.class);
+        AsyncHttpClient before = AHC.instance();
+        ahc.setMaxConnectionsPerHost(7);
+        ahc.setRequestTimeout(12345);
+        j.configRoundtrip();
+        assertThat(ahc.getMaxConnectionsPerHost(), is(7));
+        assertThat(ahc.getRequestTimeout(), is(12345));
+        AsyncHttpClient after = AHC.instance();
+        assertThat(after, not(sameInstance(before)));
+        assertThat(after.getConfig().getMaxConnectionsPerHost(), is(7));
+        assertThat(after.getConfig().getRequestTimeout(), is(12345));
+    }
+
+    @Test
+    public void namedInstancesAreIsolatedAndTuned() throws Exception {
+        AsyncHttpClient shared = AHC.instance();
+        AsyncHttpClient tuned = AHC.instance("tuned");
+        AsyncHttpClient other = AHC.instance("other");
+        assertThat(tuned, allOf(not(sameInstance(shared)), not(sameInstance(other))));
+        assertThat(AHC.instance("tuned"), sameInstance(tuned));
+        assertThat(AHC.instance(""), sameInstance(shared));
+        assertThat(tuned.getConfig().getMaxConnectionsPerHost(), is(3));
+        assertThat(other.getConfig().getMaxConnectionsPerHost(), is(shared.getConfig().getMaxConnectionsPerHost()));
+        assertThat(tuned.prepareGet(server.url("/")).execute().get().getResponseBody(), is("ok"));
+
+        j.jenkins.getDescriptorByType(AHC.class).shutdown();
+        assertThat(tuned, hasProperty("closed", is(true)));
+        assertThat(other, hasProperty("closed", is(true)));
+    }
+
+    @TestExtension("namedInstancesAreIsolatedAndTuned")
+    public static class TunedProfile extends ClientProfile {
+        @Override
+        public String getName() {
+            return "tuned";
+        }
+
+        @Override
+        public void configure(AsyncHttpClientConfig.Builder builder) {
+            builder.setMaxConnectionsPerHost(3);
+        }
+    }
+
+    @Test
+    public void requestsAreRecordedInMetrics() throws Exception {
+        AsyncHttpClient shared = AHC.instance();
+        for (int i = 0; i < 3; i++) {
+            assertThat(shared.prepareGet(server.url("/" + i)).execute().get().getStatusCode(), is(200));
+        }
+        ClientMetrics metrics = j.jenkins.getDescriptorByType(AHC.class).getMetrics().get(0);
+        assertThat(metrics.getName(), is(""));
+        assertThat(metrics.getRequests(), is(3L));
+        assertThat(metrics.getInFlight(), is(0));
+        assertThat(metrics.getHosts(), hasSize(1));
+        ClientMetrics.HostMetrics host = metrics.getHosts().get(0);
+        assertThat(host.getHost(), endsWith(":" + new URL(server.url("/")).getPort()));
+        assertThat(host.getLatencies(), hasSize(1));
+        assertThat(host.getLatencies().get(0).getOutcome(), is("2xx"));
+        assertThat(host.getLatencies().get(0).getCount(), is(3L));
+        assertThat(ManagementFactory.getPlatformMBeanServer().getAttribute(metrics.getObjectName(), "Requests"),
+                is((Object) 3L));
+
+        JSONObject json = j.getJSON("async-http-client/api/json").getJSONObject();
+        assertThat(json.getJSONArray("clients").getJSONObject(0).getLong("requests"), is(3L));
+        assertThat(json.getJSONObject("connections").getLong("connectionsOpened"), greaterThan(0L));
+
+        // the shared instance comes back after a shutdown, and so do its metrics
+        j.jenkins.getDescriptorByType(AHC.class).shutdown();
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(metrics.getObjectName()));
+        AHC.instance();
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(metrics.getObjectName()));
+    }
+
+    @Test
+    public void perHostLimitQueuesThenRejects() throws Exception {
+        server.script(StandInServer.slow(1000, "slow"));
+        AHC ahc = j.jenkins.getDescriptorByType(AHC.class);
+        ahc.setMaxRequestsPerHost(2);
+        ahc.setMaxQueuedRequestsPerHost(1);
+        ahc.invalidate();
+        final AsyncHttpClient client = AHC.instance();
+        ClientMetrics metrics = ahc.getMetrics().get(0);
+        List<ListenableFuture<Response>> responses = new ArrayList<>();
+        responses.add(client.prepareGet(server.url("/1")).execute());
+        responses.add(client.prepareGet(server.url("/2")).execute());
+        // the third request is queued without holding up the caller
+        long start = System.nanoTime();
+        ListenableFuture<Response> queued = client.prepareGet(server.url("/3")).execute();
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(500L));
+        assertFalse(queued.isDone());
+        assertThat(metrics.getQueued(), is(1));
+        // the fourth one does not fit in the queue
+        ListenableFuture<Response> rejected = client.prepareGet(server.url("/4")).execute();
+        try {
+            rejected.get();
+            fail("The request should have been rejected");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(FilterException.class));
+        }
+        responses.add(queued);
+        for (ListenableFuture<Response> response : responses) {
+            assertThat(response.get().getStatusCode(), is(200));
+        }
+        assertThat(server.getHits(), is(3));
+        assertThat(metrics.getRejected(), is(1L));
+        assertThat(metrics.getQueued(), is(0));
+        assertThat(metrics.getQueueWait().getCount(), is(1L));
+    }
+
+    @Test
+    public void circuitBreakerFailsFastThenProbes() throws Exception {
+        server.script(new StandInServer.Script() {
+            @Override
+            public void respond(int hit, HttpExchange exchange) throws Exception {
+                StandInServer.send(exchange, hit <= 4 ? 500 : 200, "hit " + hit);
+            }
+        });
+        AsyncHttpClient client = AHC.instance("breaker");
+        ClientMetrics metrics = j.jenkins.getDescriptorByType(AHC.class).getMetrics().get(1);
+        for (int i = 0; i < 4; i++) {
+            assertThat(client.prepareGet(server.url("/" + i)).execute().get().getStatusCode(), is(500));
+        }
+        assertThat(metrics.getCircuits(), hasSize(1));
+        assertThat(metrics.getCircuits().get(0).getState(), is("open"));
+        try {
+            client.prepareGet(server.url("/fast")).execute().get();
+            fail("The request should have failed fast");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(FilterException.class));
+        }
+        assertThat(server.getHits(), is(4));
+        assertThat(metrics.getShortCircuited(), is(1L));
+
+        Thread.sleep(600);
+        assertThat(client.prepareGet(server.url("/probe")).execute().get().getStatusCode(), is(200));
+        assertThat(metrics.getCircuits().get(0).getState(), is("closed"));
+        assertThat(metrics.getCircuits().get(0).getTrips(), is(1L));
+        JSONObject json = j.getJSON("async-http-client/api/json").getJSONObject();
+        assertThat(json.getJSONArray("clients").getJSONObject(1).getJSONArray("circuits").getJSONObject(0)
+                .getString("state"), is("closed"));
+
+        // idle for a whole window, the closed circuit is forgotten once another host comes along
+        Thread.sleep(1100);
+        URL url = new URL(server.url("/"));
+        String other = "localhost".equals(url.getHost()) ? "127.0.0.1" : "localhost";
+        try {
+            client.prepareGet("http://" + other + ":" + url.getPort() + "/other").execute().get();
+        } catch (ExecutionException e) {
+            // localhost may resolve to an address the server does not listen on, the circuit is there anyway
+        }
+        assertThat(metrics.getCircuits(), hasSize(1));
+        assertThat(metrics.getCircuits().get(0).getHost(), containsString(other));
+    }
+
+    @TestExtension("circuitBreakerFailsFastThenProbes")
+    public static class BreakerProfile extends ClientProfile {
+        @Override
+        public String getName() {
+            return "breaker";
+        }
+
+        @Override
+        public CircuitBreakerSettings getCircuitBreaker() {
+            return new CircuitBreakerSettings().withMinimumRequests(4).withOpenDuration(500).withProbes(1)
+                    .withWindow(1000);
+        }
+    }
+
+    @Test
+    public void newGenerationsPreWarmTheirConnections() throws Exception {
+        server.script(new StandInServer.Script() {
+            @Override
+            public void respond(int hit, HttpExchange exchange) throws Exception {
+                assertThat(exchange.getRequestMethod(), is("HEAD"));
+                StandInServer.send(exchange, 204, "");
+            }
+        });
+        AHC ahc = j.jenkins.getDescriptorByType(AHC.class);
+        URL url = new URL(server.url("/"));
+        ahc.setPreWarmHosts("http://" + url.getHost() + ":" + url.getPort() + ", ::invalid::");
+        ahc.setPreWarmConnections(3);
+        ahc.invalidate();
+        AHC.instance();
+        ClientMetrics metrics = ahc.getMetrics().get(0);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (metrics.getWarmUpMillis() < 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(metrics.getWarmUpMillis(), greaterThanOrEqualTo(0L));
+        assertThat(metrics.getWarmUpConnections(), is(3));
+        assertThat(metrics.getWarmUpFailures(), is(0));
+        assertThat(server.getHits(), is(3));
+    }
+
     @Test
     public void worksOnJenkinsClasspath() throws Exception {
         final Random entropy = new Random();
@@ -130,4 +381,95 @@ public class AHCTest {
         ListenableFuture<Response> response = ahc.prepareGet("https://letsencrypt.org").execute();
         assertTrue(response.get().hasResponseStatus());
     }
+
+    @Test
+    public void tlsSettingsAreAppliedAndSessionsResumed() throws Exception {
+        AHC ahc = j.jenkins.getDescriptorByType(AHC.class);
+        SSLContext before = ahc.getSSLContext();
+        ahc.setSslProtocols("TLSv1.2, TLSv0.9");
+        ahc.setSslCipherSuites("TLS_MADE_UP_SUITE TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256");
+        ahc.setSslSessionCacheSize(7);
+        ahc.setSslSessionTimeout(600);
+        SSLContext context = ahc.getSSLContext();
+        assertThat("the settings apply without a restart", context, not(sameInstance(before)));
+        assertThat(context.getClientSessionContext().getSessionCacheSize(), is(7));
+        assertThat(context.getClientSessionContext().getSessionTimeout(), is(600));
+        // only what the engines and sockets support is enabled
+        SSLEngine engine = context.createSSLEngine("localhost", 443);
+        assertThat(engine.getEnabledProtocols(), arrayContaining("TLSv1.2"));
+        assertThat(engine.getEnabledCipherSuites(), arrayContaining("TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256"));
+        try (SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket()) {
+            assertThat(socket.getEnabledProtocols(), arrayContaining("TLSv1.2"));
+            assertThat(socket.getEnabledCipherSuites(), arrayContaining("TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256"));
+        }
+
+        // the shared instance, trusting the self-signed certificate of the stand-in server
+        char[] password = "stand-in".toCharArray();
+        KeyStore keys = selfSigned(new File(tmp.getRoot(), "stand-in.p12"), password);
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keys, password);
+        SSLContext serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(keyManagers.getKeyManagers(), null, null);
+        KeyStore trusted = KeyStore.getInstance(KeyStore.getDefaultType());
+        trusted.load(null, null);
+        trusted.setCertificateEntry("stand-in", keys.getCertificate("stand-in"));
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(trusted);
+        ahc.setTrustManagers(trustManagers.getTrustManagers());
+        // a new connection, and so a new handshake, per request
+        ahc.setAllowPoolingSslConnections(false);
+        ahc.invalidate();
+
+        final List<String> negotiated = new CopyOnWriteArrayList<>();
+        StandInServer https = new StandInServer(serverContext).script(new StandInServer.Script() {
+            @Override
+            public void respond(int hit, HttpExchange exchange) throws Exception {
+                SSLSession session = ((HttpsExchange) exchange).getSSLSession();
+                negotiated.add(session.getProtocol() + " " + session.getCipherSuite());
+                StandInServer.send(exchange, 200, "ok");
+            }
+        });
+        HandshakeStatistics handshakes = AHCUtils.getHandshakeStatistics();
+        long full = handshakes.getFullHandshakes();
+        long resumed = handshakes.getResumedHandshakes();
+        https.before();
+        try {
+            for (int i = 0; i < 2; i++) {
+                assertThat(AHC.instance().prepareGet(https.url("/" + i)).execute().get().getResponseBody(),
+                        is("ok"));
+            }
+        } finally {
+            https.after();
+            ahc.setTrustManagers(null);
+        }
+        assertThat(negotiated, contains("TLSv1.2 TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256",
+                "TLSv1.2 TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256"));
+        // the second connection resumed the session of the first instead of a full handshake
+        assertThat(handshakes.getFullHandshakes() - full, is(1L));
+        assertThat(handshakes.getResumedHandshakes() - resumed, is(1L));
+    }
+
+    /**
+     * Generates a key pair with a self-signed certificate, for {@code localhost}, with the JDK's keytool.
+     *
+     * @param file     where to keep the key store.
+     * @param password the password of the key store and of the key.
+     * @return the key store, holding the key under the {@code stand-in} alias.
+     */
+    private static KeyStore selfSigned(File file, char[] password) throws Exception {
+        File keytool = new File(System.getProperty("java.home"),
+                Functions.isWindows() ? "bin/keytool.exe" : "bin/keytool");
+        Process process = new ProcessBuilder(keytool.getPath(), "-genkeypair", "-alias", "stand-in", "-keyalg", "RSA",
+                "-keysize", "2048", "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1",
+                "-validity", "1", "-storetype", "PKCS12",
+                "-keystore", file.getPath(), "-storepass", new String(password), "-keypass", new String(password))
+                .redirectErrorStream(true).start();
+        String output = IOUtils.toString(process.getInputStream(), StandardCharsets.UTF_8);
+        assertThat(output, process.waitFor(), is(0));
+        KeyStore keys = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(file)) {
+            keys.load(in, password);
+        }
+        return keys;
+    }
 }
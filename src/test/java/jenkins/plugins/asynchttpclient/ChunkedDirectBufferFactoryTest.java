@@ -0,0 +1,99 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.Response;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang.StringUtils;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class ChunkedDirectBufferFactoryTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Rule
+    public StandInServer server = new StandInServer();
+
+    @Test
+    public void carvesBuffersOutOfSharedChunks() {
+        ChunkedDirectBufferFactory factory = new ChunkedDirectBufferFactory(64 * 1024, -1);
+        List<ChannelBuffer> buffers = new ArrayList<ChannelBuffer>();
+        for (int i = 0; i < 16; i++) {
+            ChannelBuffer buffer = factory.getBuffer(1000);
+            assertTrue(buffer.isDirect());
+            assertThat(buffer.capacity(), is(1000));
+            assertThat(buffer.writerIndex(), is(0));
+            byte[] bytes = StringUtils.repeat(Integer.toString(i % 10), 1000).getBytes(StandardCharsets.US_ASCII);
+            buffer.writeBytes(bytes);
+            buffers.add(buffer);
+        }
+        for (int i = 0; i < 16; i++) {
+            // the buffers do not overlap
+            assertThat(buffers.get(i).getByte(0), is((byte) ('0' + i % 10)));
+            assertThat(buffers.get(i).getByte(999), is((byte) ('0' + i % 10)));
+        }
+        assertThat(factory.getChunks(), is(1));
+        assertThat(factory.getReservedBytes(), is(64 * 1024L));
+
+        // too large or in the other byte order to share a chunk
+        factory.getBuffer(32 * 1024);
+        factory.getBuffer(ByteOrder.LITTLE_ENDIAN, 100);
+        assertThat(factory.getChunksAllocated(), is(3L));
+        assertThat(factory.getBuffersAllocated(), is(18L));
+        assertThat(factory.getLeaks(), is(0L));
+    }
+
+    @Test
+    public void reportsBuffersHeldPastTheLeakDetectionAge() throws Exception {
+        ChunkedDirectBufferFactory factory = new ChunkedDirectBufferFactory(64 * 1024, TimeUnit.HOURS.toMillis(1));
+        ChannelBuffer held = factory.getBuffer(100);
+        assertThat(factory.detectLeaks(), is(0));
+        factory.setLeakDetection(0);
+        Thread.sleep(5);
+        assertThat(factory.detectLeaks(), is(1));
+        // once
+        assertThat(factory.detectLeaks(), is(0));
+        assertThat(factory.getLeaks(), is(1L));
+        // still reachable up to here
+        assertThat(held.capacity(), is(100));
+    }
+
+    @Test
+    public void clientsReadAndWriteThroughDirectBuffers() throws Exception {
+        final String body = StringUtils.repeat("0123456789abcdef", 64 * 1024);
+        server.script(StandInServer.ok(body));
+        AHC ahc = j.jenkins.getDescriptorByType(AHC.class);
+        ahc.setDirectBuffers(true);
+        ahc.invalidate();
+        long allocated = ConnectionMetrics.INSTANCE.getDirectBuffersAllocated();
+        AsyncHttpClient client = AHC.instance();
+        for (int i = 0; i < 4; i++) {
+            Response response = client.preparePost(server.url("/" + i)).setBody(StringUtils.repeat("ping", 256))
+                    .execute().get();
+            assertThat(response.getStatusCode(), is(200));
+            assertThat(response.getResponseBody(), is(body));
+        }
+        assertThat(ConnectionMetrics.INSTANCE.getDirectBuffersAllocated(), greaterThan(allocated));
+        assertThat(ConnectionMetrics.INSTANCE.getDirectBufferBytes(), greaterThan(0L));
+
+        AsyncHttpClient heap = AHCUtils.newAsyncHttpClient(new AsyncHttpClientConfig.Builder());
+        try {
+            allocated = ConnectionMetrics.INSTANCE.getDirectBuffersAllocated();
+            assertThat(heap.prepareGet(server.url("/")).execute().get().getResponseBody(), is(body));
+            assertThat(ConnectionMetrics.INSTANCE.getDirectBuffersAllocated(), is(allocated));
+        } finally {
+            heap.close();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.ProxyServer;
+import com.ning.http.client.Request;
+import com.ning.http.client.RequestBuilder;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class DnsCacheTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * A resolver answering from a table instead of the name service.
+     */
+    private static final class StubResolver implements DnsCache.Resolver {
+        private final AtomicInteger lookups = new AtomicInteger();
+        private volatile InetAddress[] answer;
+
+        private StubResolver(String... addresses) throws UnknownHostException {
+            answer(addresses);
+        }
+
+        private void answer(String... addresses) throws UnknownHostException {
+            InetAddress[] answer = new InetAddress[addresses.length];
+            for (int i = 0; i < addresses.length; i++) {
+                answer[i] = InetAddress.getByName(addresses[i]);
+            }
+            this.answer = answer;
+        }
+
+        @Override
+        public InetAddress[] resolve(String host) throws UnknownHostException {
+            lookups.incrementAndGet();
+            if (answer.length == 0) {
+                throw new UnknownHostException(host);
+            }
+            return answer;
+        }
+    }
+
+    /**
+     * Resolves a host through a cache, waiting for the lookup.
+     */
+    private static InetAddress resolve(DnsCache cache, String host) throws Exception {
+        try {
+            return cache.resolve(host).get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            throw (Exception) e.getCause();
+        }
+    }
+
+    @Test
+    public void roundRobinOverTheAddresses() throws Exception {
+        StubResolver resolver = new StubResolver("10.0.0.1", "10.0.0.2");
+        DnsCache cache = new DnsCache(resolver, DIRECT);
+        assertThat(resolve(cache, "example.com").getHostAddress(), is("10.0.0.1"));
+        assertThat(resolve(cache, "EXAMPLE.com").getHostAddress(), is("10.0.0.2"));
+        assertThat(resolve(cache, "example.com").getHostAddress(), is("10.0.0.1"));
+        assertThat(resolver.lookups.get(), is(1));
+        assertThat(cache.getMisses(), is(1L));
+        assertThat(cache.getHits(), is(2L));
+    }
+
+    @Test
+    public void takesTurnsWithinThePreferredFamily() throws Exception {
+        StubResolver resolver = new StubResolver("2001:db8::1", "10.0.0.1", "2001:db8::2", "10.0.0.2");
+        DnsCache cache = new DnsCache(resolver, DIRECT);
+        assertThat(resolve(cache, "example.com"), is(InetAddress.getByName("2001:db8::1")));
+        assertThat(resolve(cache, "example.com"), is(InetAddress.getByName("2001:db8::2")));
+        assertThat(resolve(cache, "example.com"), is(InetAddress.getByName("2001:db8::1")));
+
+        resolver.answer("10.0.0.1", "2001:db8::1", "10.0.0.2");
+        cache = new DnsCache(resolver, DIRECT);
+        assertThat(resolve(cache, "example.com").getHostAddress(), is("10.0.0.1"));
+        assertThat(resolve(cache, "example.com").getHostAddress(), is("10.0.0.2"));
+        assertThat(resolve(cache, "example.com").getHostAddress(), is("10.0.0.1"));
+    }
+
+    @Test
+    public void cachesFailedLookups() throws Exception {
+        StubResolver resolver = new StubResolver();
+        DnsCache cache = new DnsCache(resolver, DIRECT);
+        for (int i = 0; i < 2; i++) {
+            try {
+                resolve(cache, "nowhere.invalid");
+                fail("The host should not resolve");
+            } catch (UnknownHostException e) {
+                assertThat(e.getMessage(), containsString("nowhere.invalid"));
+            }
+        }
+        assertThat(resolver.lookups.get(), is(1));
+
+        cache.setTtl(60000, 0);
+        for (int i = 0; i < 2; i++) {
+            try {
+                resolve(cache, "elsewhere.invalid");
+                fail("The host should not resolve");
+            } catch (UnknownHostException e) {
+                // not cached this time
+            }
+        }
+        assertThat(resolver.lookups.get(), is(3));
+    }
+
+    @Test
+    public void refreshesBeforeExpiryAndExpires() throws Exception {
+        StubResolver resolver = new StubResolver("10.0.0.1");
+        DnsCache cache = new DnsCache(resolver, DIRECT);
+        cache.setTtl(2000, 0);
+        assertThat(resolve(cache, "example.com").getHostAddress(), is("10.0.0.1"));
+        resolver.answer("10.0.0.2");
+        Thread.sleep(1700);
+        // in the last fifth of the TTL: answered from the cache, refreshed in the background
+        assertThat(resolve(cache, "example.com").getHostAddress(), is("10.0.0.1"));
+        assertThat(cache.getRefreshes(), is(1L));
+        assertThat(resolve(cache, "example.com").getHostAddress(), is("10.0.0.2"));
+        assertThat(cache.getMisses(), is(1L));
+
+        resolver.answer("10.0.0.3");
+        Thread.sleep(2100);
+        assertThat(resolve(cache, "example.com").getHostAddress(), is("10.0.0.3"));
+        assertThat(cache.getMisses(), is(2L));
+    }
+
+    @Test
+    public void onlyPinsDirectRequestsWithoutRedirects() throws Exception {
+        StubResolver resolver = new StubResolver("10.0.0.1");
+        DnsCache cache = new DnsCache(resolver, DIRECT);
+        AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder().build();
+
+        Request pinned = cache.pin(new RequestBuilder("GET").setUrl("http://example.com/path").build(), config).get();
+        assertThat(pinned.getInetAddress().getHostAddress(), is("10.0.0.1"));
+        assertThat(pinned.getUri().getHost(), is("example.com"));
+
+        Request literal = new RequestBuilder("GET").setUrl("http://127.0.0.1:8080/").build();
+        assertThat(cache.pin(literal, config).getNow(null), sameInstance(literal));
+        Request redirects = new RequestBuilder("GET").setUrl("http://example.com/").setFollowRedirect(true).build();
+        assertThat(cache.pin(redirects, config).getNow(null), sameInstance(redirects));
+        Request proxied = new RequestBuilder("GET").setUrl("http://example.com/")
+                .setProxyServer(new ProxyServer("proxy.example.com", 3128)).build();
+        assertThat(cache.pin(proxied, config).getNow(null), sameInstance(proxied));
+        assertThat(resolver.lookups.get(), is(1));
+    }
+
+    @Test
+    public void concurrentMissesShareOneLookupOffTheCallingThread() throws Exception {
+        final StubResolver stub = new StubResolver("10.0.0.1", "10.0.0.2");
+        final CountDownLatch answer = new CountDownLatch(1);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            DnsCache cache = new DnsCache(new DnsCache.Resolver() {
+                @Override
+                public InetAddress[] resolve(String host) throws UnknownHostException {
+                    try {
+                        answer.await();
+                    } catch (InterruptedException e) {
+                        throw new UnknownHostException(host);
+                    }
+                    return stub.resolve(host);
+                }
+            }, executor);
+            CompletableFuture<InetAddress> first = cache.resolve("example.com");
+            CompletableFuture<InetAddress> second = cache.resolve("Example.com");
+            // the name service has not answered yet, and nobody waited for it
+            assertFalse(first.isDone());
+            assertFalse(second.isDone());
+            answer.countDown();
+            // each got the next address
+            assertThat(Arrays.asList(first.get(10, TimeUnit.SECONDS).getHostAddress(),
+                    second.get(10, TimeUnit.SECONDS).getHostAddress()), containsInAnyOrder("10.0.0.1", "10.0.0.2"));
+            assertThat(stub.lookups.get(), is(1));
+            assertThat(cache.getMisses(), is(2L));
+            // cached from now on
+            assertTrue(cache.resolve("example.com").isDone());
+            assertThat(stub.lookups.get(), is(1));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.ning.http.client.Request;
+import com.ning.http.client.RequestBuilder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class RequestBatchTest {
+
+    private static final long LATENCY = 300;
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Rule
+    public StandInServer server = new StandInServer();
+
+    private List<Request> requests(String host, int count) {
+        List<Request> requests = new ArrayList<Request>();
+        for (int i = 0; i < count; i++) {
+            requests.add(new RequestBuilder("POST").setUrl(server.url("/notify/" + i).replace("127.0.0.1", host))
+                    .setBody("{\"build\":42}").build());
+        }
+        return requests;
+    }
+
+    @Test
+    public void wallClockTimeFallsWithParallelism() throws Exception {
+        server.script(StandInServer.slow(LATENCY, "ok"));
+        List<Request> requests = requests("127.0.0.1", 20);
+        long start = System.nanoTime();
+        RequestBatch.Execution execution = new RequestBatch(AHC.instance()).withParallelism(5).execute(requests);
+        int count = 0;
+        for (RequestBatch.Outcome outcome = execution.take(); outcome != null; outcome = execution.take()) {
+            assertTrue(outcome.toString(), outcome.hasResponse());
+            assertThat(outcome.getResponse().getStatusCode(), is(200));
+            count++;
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertThat(count, is(20));
+        assertThat(server.getHits(), is(20));
+        // 20 / 5 x latency rather than 20 x latency
+        assertThat(elapsed, greaterThanOrEqualTo(4 * LATENCY));
+        assertThat(elapsed, lessThan(10 * LATENCY));
+        List<RequestBatch.Outcome> outcomes = execution.getOutcomes().get(1, TimeUnit.SECONDS);
+        for (int i = 0; i < outcomes.size(); i++) {
+            assertThat(outcomes.get(i).getIndex(), is(i));
+        }
+    }
+
+    @Test
+    public void hostsTakeTurns() throws Exception {
+        server.script(StandInServer.slow(LATENCY, "ok"));
+        List<Request> requests = requests("127.0.0.1", 6);
+        requests.addAll(requests("localhost", 2));
+        RequestBatch.Execution execution = new RequestBatch(AHC.instance())
+                .withParallelism(2)
+                .withPerHostParallelism(1)
+                .execute(requests);
+        List<String> hosts = new ArrayList<String>();
+        for (RequestBatch.Outcome outcome = execution.take(); outcome != null; outcome = execution.take()) {
+            assertTrue(outcome.toString(), outcome.hasResponse());
+            hosts.add(outcome.getRequest().getUri().getHost());
+        }
+        // the two requests to the second host do not wait behind the six to the first one
+        assertThat(hosts.subList(0, 4), hasItems("localhost", "localhost"));
+    }
+
+    @Test
+    public void deadlineFailsWhatIsLeft() throws Exception {
+        server.script(StandInServer.slow(3 * LATENCY, "ok"));
+        long start = System.nanoTime();
+        List<RequestBatch.Outcome> outcomes = new RequestBatch(AHC.instance())
+                .withParallelism(2)
+                .withDeadline(4 * LATENCY, TimeUnit.MILLISECONDS)
+                .execute(requests("127.0.0.1", 10))
+                .getOutcomes().get(10, TimeUnit.SECONDS);
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(6 * LATENCY));
+        int responses = 0;
+        int timeouts = 0;
+        for (RequestBatch.Outcome outcome : outcomes) {
+            if (outcome.hasResponse()) {
+                responses++;
+            } else if (outcome.getFailure() instanceof TimeoutException) {
+                timeouts++;
+            }
+        }
+        assertThat(responses, is(2));
+        assertThat(timeouts, is(8));
+    }
+}
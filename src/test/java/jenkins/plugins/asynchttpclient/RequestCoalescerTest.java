@@ -0,0 +1,90 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.ListenableFuture;
+import com.ning.http.client.RequestBuilder;
+import com.ning.http.client.Response;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class RequestCoalescerTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Rule
+    public StandInServer server = new StandInServer();
+
+    @Test
+    public void identicalConcurrentRequestsShareOneUpstreamRequest() throws Exception {
+        server.script(StandInServer.slow(1000, "metadata"));
+        final RequestCoalescer coalescer = AHC.coalescer();
+        final AsyncHttpClient client = AHC.instance();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService builds = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<ListenableFuture<Response>>> submitted = new ArrayList<Future<ListenableFuture<Response>>>();
+            for (int i = 0; i < 32; i++) {
+                submitted.add(builds.submit(new Callable<ListenableFuture<Response>>() {
+                    @Override
+                    public ListenableFuture<Response> call() throws Exception {
+                        start.await();
+                        return coalescer.execute(client,
+                                new RequestBuilder().setUrl(server.url("/repository/metadata.xml")).build());
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<ListenableFuture<Response>> future : submitted) {
+                Response response = future.get(10, TimeUnit.SECONDS).get(10, TimeUnit.SECONDS);
+                assertThat(response.getStatusCode(), is(200));
+                assertThat(response.getResponseBody(), is("metadata"));
+            }
+        } finally {
+            builds.shutdownNow();
+        }
+        assertThat(server.getHits(), is(1));
+        assertThat(coalescer.getRequests(), is(32L));
+        assertThat(coalescer.getCoalesced(), is(31L));
+        assertThat(coalescer.getInFlight(), is(0));
+
+        // nothing is cached: the next request goes to the server
+        Response next = coalescer.execute(client,
+                new RequestBuilder().setUrl(server.url("/repository/metadata.xml")).build()).get();
+        assertThat(next.getResponseBody(), is("metadata"));
+        assertThat(server.getHits(), is(2));
+        assertThat(j.getJSON("async-http-client/api/json").getJSONObject().getJSONObject("coalescer")
+                .getLong("coalesced"), is(31L));
+    }
+
+    @Test
+    public void differentRequestsAndCancellationsDoNotInterfere() throws Exception {
+        server.script(StandInServer.slow(500, "ok"));
+        RequestCoalescer coalescer = AHC.coalescer();
+        AsyncHttpClient client = AHC.instance();
+        ListenableFuture<Response> a1 = coalescer.execute(client, new RequestBuilder().setUrl(server.url("/a")).build());
+        ListenableFuture<Response> a2 = coalescer.execute(client, new RequestBuilder().setUrl(server.url("/a")).build());
+        ListenableFuture<Response> json = coalescer.execute(client,
+                new RequestBuilder().setUrl(server.url("/a")).addHeader("Accept", "application/json").build());
+        ListenableFuture<Response> post = coalescer.execute(client,
+                new RequestBuilder("POST").setUrl(server.url("/a")).setBody("x").build());
+        assertTrue(a1.cancel(true));
+        assertThat(a2.get().getStatusCode(), is(200));
+        assertThat(json.get().getStatusCode(), is(200));
+        assertThat(post.get().getStatusCode(), is(200));
+        assertThat(server.getHits(), is(3));
+        assertThat(coalescer.getCoalesced(), is(1L));
+    }
+}
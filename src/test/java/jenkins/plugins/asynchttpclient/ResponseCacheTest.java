@@ -0,0 +1,149 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.ning.http.client.RequestBuilder;
+import com.ning.http.client.Response;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.apache.commons.lang.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class ResponseCacheTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Rule
+    public StandInServer server = new StandInServer();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * Answers with a body per path and an {@code ETag}, or {@code 304} when the client already has it.
+     */
+    private static final class Versioned implements StandInServer.Script {
+        private final List<String> validators = new CopyOnWriteArrayList<>();
+        private final String body;
+        private final String vary;
+
+        private Versioned(String body) {
+            this(body, null);
+        }
+
+        private Versioned(String body, String vary) {
+            this.body = body;
+            this.vary = vary;
+        }
+
+        @Override
+        public void respond(int hit, HttpExchange exchange) throws Exception {
+            String etag = "\"" + exchange.getRequestURI().getPath() + "\"";
+            String validator = exchange.getRequestHeaders().getFirst("If-None-Match");
+            validators.add(String.valueOf(validator));
+            exchange.getResponseHeaders().set("ETag", etag);
+            if (vary != null) {
+                exchange.getResponseHeaders().set("Vary", vary);
+            }
+            if (etag.equals(validator)) {
+                StandInServer.send(exchange, 304, "");
+            } else {
+                StandInServer.send(exchange, 200, body);
+            }
+        }
+    }
+
+    @Test
+    public void servesTheStoredBodyOnNotModified() throws Exception {
+        Versioned script = new Versioned("{\"plugins\":[]}");
+        server.script(script);
+        ResponseCache cache = AHC.responseCache();
+        for (int i = 0; i < 3; i++) {
+            Response response = cache.execute(AHC.instance(), new RequestBuilder().setUrl(server.url("/uc")).build())
+                    .get();
+            assertThat(response.getStatusCode(), is(200));
+            assertThat(response.getResponseBody(), is("{\"plugins\":[]}"));
+            assertThat(response.getHeader("ETag"), is("\"/uc\""));
+        }
+        assertThat(script.validators, is(Arrays.asList("null", "\"/uc\"", "\"/uc\"")));
+        assertThat(cache.getHits(), is(2L));
+        assertThat(cache.getMisses(), is(1L));
+        assertThat(cache.getHitRate(), closeTo(2.0 / 3, 0.001));
+        assertThat(j.getJSON("async-http-client/api/json").getJSONObject().getJSONObject("responseCache")
+                .getLong("hits"), is(2L));
+
+        // requests with a body or their own validators go straight through
+        Response post = cache.execute(AHC.instance(),
+                new RequestBuilder("POST").setUrl(server.url("/uc")).setBody("x").build()).get();
+        assertThat(post.getStatusCode(), is(200));
+        assertThat(cache.getRequests(), is(3L));
+    }
+
+    @Test
+    public void spillsLargeBodiesToDiskAndEvicts() throws Exception {
+        String body = StringUtils.repeat("x", 1000);
+        Versioned script = new Versioned(body);
+        server.script(script);
+        File directory = tmp.newFolder();
+        ResponseCache cache = new ResponseCache(1024, 1500, 100, 1200, directory);
+        cache.execute(AHC.instance(), new RequestBuilder().setUrl(server.url("/a")).build()).get();
+        assertThat(directory.list(), arrayWithSize(1));
+        assertThat(cache.getDiskBytes(), is(1000L));
+        Response cached = cache.execute(AHC.instance(), new RequestBuilder().setUrl(server.url("/a")).build()).get();
+        assertThat(cached.getResponseBody(), is(body));
+        assertThat(cache.getHits(), is(1L));
+
+        cache.execute(AHC.instance(), new RequestBuilder().setUrl(server.url("/b")).build()).get();
+        assertThat(cache.getEvictions(), is(1L));
+        assertThat(cache.getEntries(), is(1));
+        assertThat(directory.list(), arrayWithSize(1));
+        // /a was evicted: downloaded again
+        Response again = cache.execute(AHC.instance(), new RequestBuilder().setUrl(server.url("/a")).build()).get();
+        assertThat(again.getResponseBody(), is(body));
+        assertThat(script.validators.get(script.validators.size() - 1), is("null"));
+    }
+
+    @Test
+    public void doesNotStoreBodiesOverTheCap() throws Exception {
+        Versioned script = new Versioned(StringUtils.repeat("x", 2000));
+        server.script(script);
+        ResponseCache cache = new ResponseCache(1024 * 1024, 1024 * 1024, 100, 1000, tmp.newFolder());
+        for (int i = 0; i < 2; i++) {
+            Response response = cache.execute(AHC.instance(), new RequestBuilder().setUrl(server.url("/big")).build())
+                    .get();
+            assertThat(response.getResponseBody().length(), is(2000));
+        }
+        assertThat(cache.getEntries(), is(0));
+        assertThat(cache.getDiskBytes(), is(0L));
+        assertThat(script.validators, is(Arrays.asList("null", "null")));
+    }
+
+    @Test
+    public void onlyStoresResponsesVaryingWithTheKey() throws Exception {
+        Versioned script = new Versioned("{}", "Accept-Encoding, accept");
+        server.script(script);
+        ResponseCache cache = new ResponseCache(1024 * 1024, 1024 * 1024, 1024, 1024, tmp.newFolder());
+        for (int i = 0; i < 2; i++) {
+            cache.execute(AHC.instance(), new RequestBuilder().setUrl(server.url("/keyed")).build()).get();
+        }
+        assertThat(script.validators, is(Arrays.asList("null", "\"/keyed\"")));
+
+        script = new Versioned("{}", "Accept-Encoding, User-Agent");
+        server.script(script);
+        for (int i = 0; i < 2; i++) {
+            Response response = cache.execute(AHC.instance(),
+                    new RequestBuilder().setUrl(server.url("/agent")).build()).get();
+            assertThat(response.getResponseBody(), is("{}"));
+        }
+        assertThat(script.validators, is(Arrays.asList("null", "null")));
+        assertThat(cache.getEntries(), is(1));
+    }
+}
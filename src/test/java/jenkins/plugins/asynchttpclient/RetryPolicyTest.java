@@ -0,0 +1,132 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.Response;
+import com.sun.net.httpserver.HttpExchange;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.util.concurrent.ExecutionException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class RetryPolicyTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Rule
+    public StandInServer server = new StandInServer();
+
+    @Test
+    public void retriesServiceUnavailableAfterRetryAfter() throws Exception {
+        server.script(new StandInServer.Script() {
+            @Override
+            public void respond(int hit, HttpExchange exchange) throws Exception {
+                if (hit == 1) {
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                    StandInServer.send(exchange, 503, "later");
+                } else {
+                    StandInServer.send(exchange, 200, "ok");
+                }
+            }
+        });
+        long start = System.currentTimeMillis();
+        Response response = AHC.instance().prepareGet(server.url("/")).execute().get();
+        assertThat(response.getStatusCode(), is(200));
+        assertThat(response.getResponseBody(), is("ok"));
+        assertThat(server.getHits(), is(2));
+        assertThat(System.currentTimeMillis() - start, greaterThanOrEqualTo(1000L));
+        assertThat(metrics().getRetries(), is(1L));
+    }
+
+    @Test
+    public void passesOnTheLastAnswerOnceRetriesAreExhausted() throws Exception {
+        server.script(new StandInServer.Script() {
+            @Override
+            public void respond(int hit, HttpExchange exchange) throws Exception {
+                StandInServer.send(exchange, 429, "slow down " + hit);
+            }
+        });
+        Response response = AHC.instance().prepareGet(server.url("/")).execute().get();
+        assertThat(response.getStatusCode(), is(429));
+        assertThat(response.getResponseBody(), is("slow down 3"));
+        assertThat(server.getHits(), is(3));
+    }
+
+    @Test
+    public void doesNotRetryNonIdempotentMethods() throws Exception {
+        server.script(new StandInServer.Script() {
+            @Override
+            public void respond(int hit, HttpExchange exchange) throws Exception {
+                StandInServer.send(exchange, 503, "unavailable");
+            }
+        });
+        Response response = AHC.instance().preparePost(server.url("/")).setBody("data").execute().get();
+        assertThat(response.getStatusCode(), is(503));
+        assertThat(server.getHits(), is(1));
+    }
+
+    @Test
+    public void doesNotRetryLongerThanTheServerIsPreparedToWait() throws Exception {
+        server.script(new StandInServer.Script() {
+            @Override
+            public void respond(int hit, HttpExchange exchange) throws Exception {
+                exchange.getResponseHeaders().set("Retry-After", "3600");
+                StandInServer.send(exchange, 503, "maintenance");
+            }
+        });
+        Response response = AHC.instance().prepareGet(server.url("/")).execute().get();
+        assertThat(response.getStatusCode(), is(503));
+        assertThat(server.getHits(), is(1));
+    }
+
+    @Test
+    public void retriesConnectFailures() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        AsyncHttpClient client = AHC.instance();
+        try {
+            client.prepareGet("http://127.0.0.1:" + port + "/").execute().get();
+            fail("Nothing should be listening on port " + port);
+        } catch (ExecutionException e) {
+            assertThat(RetryPolicy.isConnectFailure(e.getCause()), is(true));
+            assertThat(e.getCause(), instanceOf(ConnectException.class));
+        }
+        assertThat(metrics().getRetries(), is(2L));
+        assertThat(metrics().getRequests(), is(3L));
+    }
+
+    @Test
+    public void budgetBoundsRetries() {
+        RetryBudget budget = new RetryBudget(50);
+        for (int i = 0; i < RetryBudget.CAPACITY; i++) {
+            assertTrue(budget.tryWithdraw());
+        }
+        assertFalse(budget.tryWithdraw());
+        budget.deposit();
+        assertFalse(budget.tryWithdraw());
+        budget.deposit();
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+    }
+
+    @Test
+    public void parsesRetryAfter() {
+        assertThat(RetryPolicy.parseRetryAfter("120"), is(120000L));
+        assertThat(RetryPolicy.parseRetryAfter(" 0 "), is(0L));
+        assertThat(RetryPolicy.parseRetryAfter(null), is(-1L));
+        assertThat(RetryPolicy.parseRetryAfter("soon"), is(-1L));
+        assertThat(RetryPolicy.parseRetryAfter("-5"), is(-1L));
+        assertThat(RetryPolicy.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT"), is(0L));
+    }
+
+    private ClientMetrics metrics() {
+        return j.jenkins.getDescriptorByType(AHC.class).getMetrics().get(0);
+    }
+}
@@ -0,0 +1,191 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.SSLContext;
+import org.junit.rules.ExternalResource;
+
+/**
+ * A local HTTP server standing in for the remote services that plugins talk to through the shared client.
+ * Every request is counted, and the response is produced by a {@link Script} so that tests can inject latency or
+ * failures. The server answers over HTTPS when it is given a TLS context.
+ * <p>
+ * It is built on the {@code com.sun.net.httpserver} server of the JDK rather than on the Jetty of the Jenkins test
+ * harness: the JDK server does not depend on the Jetty version the harness happens to ship, which changes with the
+ * Jenkins baseline, it is the same server the benchmarks answer their requests with, and it exposes the negotiated
+ * TLS session of each exchange through {@code HttpsExchange}, which the TLS tests check.
+ * </p>
+ */
+public class StandInServer extends ExternalResource {
+
+    /**
+     * Produces the response to a request.
+     */
+    public interface Script {
+        /**
+         * Responds to a request.
+         *
+         * @param hit      the 1-based number of the request received by the server.
+         * @param exchange the exchange.
+         * @throws Exception if something goes wrong.
+         */
+        void respond(int hit, HttpExchange exchange) throws Exception;
+    }
+
+    private final AtomicInteger hits = new AtomicInteger();
+
+    private volatile Script script = ok("ok");
+
+    /**
+     * The TLS context of the server, {@code null} to answer over plain HTTP.
+     */
+    private final SSLContext tls;
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    /**
+     * Creates a server answering over plain HTTP.
+     */
+    public StandInServer() {
+        this(null);
+    }
+
+    /**
+     * Creates a server answering over HTTPS.
+     *
+     * @param tls the TLS context of the server, with its key, {@code null} to answer over plain HTTP.
+     */
+    public StandInServer(SSLContext tls) {
+        this.tls = tls;
+    }
+
+    @Override
+    protected void before() throws IOException {
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        if (tls == null) {
+            server = HttpServer.create(address, 0);
+        } else {
+            HttpsServer https = HttpsServer.create(address, 0);
+            https.setHttpsConfigurator(new HttpsConfigurator(tls));
+            server = https;
+        }
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    script.respond(hits.incrementAndGet(), exchange);
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    @Override
+    protected void after() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Replaces the script used to answer requests.
+     *
+     * @param script the script.
+     * @return {@code this} for method chaining.
+     */
+    public StandInServer script(Script script) {
+        this.script = script;
+        return this;
+    }
+
+    /**
+     * Returns the number of requests received so far.
+     *
+     * @return the number of requests received so far.
+     */
+    public int getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the URL of a path on this server.
+     *
+     * @param path the path, starting with a {@code /}.
+     * @return the URL.
+     */
+    public String url(String path) {
+        String scheme = tls == null ? "http://" : "https://";
+        return scheme + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + path;
+    }
+
+    /**
+     * A script that always answers {@code 200} with the given body.
+     *
+     * @param body the body.
+     * @return the script.
+     */
+    public static Script ok(final String body) {
+        return new Script() {
+            @Override
+            public void respond(int hit, HttpExchange exchange) throws Exception {
+                send(exchange, 200, body);
+            }
+        };
+    }
+
+    /**
+     * A script that waits before answering {@code 200} with the given body.
+     *
+     * @param delayMillis how long to wait.
+     * @param body        the body.
+     * @return the script.
+     */
+    public static Script slow(final long delayMillis, final String body) {
+        return new Script() {
+            @Override
+            public void respond(int hit, HttpExchange exchange) throws Exception {
+                Thread.sleep(delayMillis);
+                send(exchange, 200, body);
+            }
+        };
+    }
+
+    /**
+     * Sends a complete response.
+     *
+     * @param exchange the exchange.
+     * @param status   the status code.
+     * @param body     the body.
+     * @throws IOException if the response cannot be written.
+     */
+    public static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+}
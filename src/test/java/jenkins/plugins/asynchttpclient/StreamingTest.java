@@ -0,0 +1,189 @@
+package jenkins.plugins.asynchttpclient;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.Request;
+import com.ning.http.client.RequestBuilder;
+import com.ning.http.client.Response;
+import com.sun.net.httpserver.HttpExchange;
+import hudson.FilePath;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class StreamingTest {
+
+    private static final int SIZE = 8 * 1024 * 1024 + 17;
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Rule
+    public StandInServer server = new StandInServer();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * The byte at a position of the payload.
+     */
+    private static byte at(long position) {
+        return (byte) (position * 31 + 7);
+    }
+
+    private static byte[] payload(int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = at(i);
+        }
+        return bytes;
+    }
+
+    /**
+     * Serves the payload on {@code /artifact}, 404 elsewhere, and counts the bytes uploaded to it.
+     */
+    private static final class Artifacts implements StandInServer.Script {
+        private final AtomicLong uploaded = new AtomicLong();
+        private final byte[] payload = payload(SIZE);
+
+        @Override
+        public void respond(int hit, HttpExchange exchange) throws Exception {
+            if (!exchange.getRequestURI().getPath().equals("/artifact")) {
+                StandInServer.send(exchange, 404, "not found");
+                return;
+            }
+            if ("gzip".equals(exchange.getRequestHeaders().getFirst("Accept-Encoding"))) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                exchange.sendResponseHeaders(200, 0);
+                try (OutputStream out = new GZIPOutputStream(exchange.getResponseBody())) {
+                    out.write(payload);
+                }
+                return;
+            }
+            if (exchange.getRequestMethod().equals("PUT")) {
+                byte[] buffer = new byte[65536];
+                try (InputStream in = exchange.getRequestBody()) {
+                    for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                        uploaded.addAndGet(n);
+                    }
+                }
+                StandInServer.send(exchange, 201, "");
+                return;
+            }
+            exchange.sendResponseHeaders(200, payload.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(payload);
+            }
+        }
+    }
+
+    @Test
+    public void streamsDownloadsToChannelsAndFiles() throws Exception {
+        server.script(new Artifacts());
+        File file = tmp.newFile();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            long length = AHC.instance().executeRequest(
+                    new RequestBuilder().setUrl(server.url("/artifact")).build(), AHCUtils.streamTo(channel)).get();
+            assertThat(length, is((long) SIZE));
+        }
+        MessageDigest sha = MessageDigest.getInstance("SHA-256");
+        byte[] expected = sha.digest(payload(SIZE));
+        assertTrue(Arrays.equals(sha.digest(Files.readAllBytes(file.toPath())), expected));
+
+        FilePath target = new FilePath(new File(tmp.getRoot(), "workspace/artifact.bin"));
+        long length = AHCUtils.download(AHC.instance(), new RequestBuilder().setUrl(server.url("/artifact")).build(),
+                target).get();
+        assertThat(length, is((long) SIZE));
+        assertTrue(Arrays.equals(sha.digest(Files.readAllBytes(new File(target.getRemote()).toPath())), expected));
+    }
+
+    @Test
+    public void decompressesEncodedDownloadsWithinTheLimit() throws Exception {
+        server.script(new Artifacts());
+        Request encoded = new RequestBuilder().setUrl(server.url("/artifact")).setHeader("Accept-Encoding", "gzip")
+                .build();
+        // the provider decompresses the body of the shared instance, without a limit
+        Response response = AHC.instance().executeRequest(encoded).get();
+        assertThat(response.getHeader("Content-Encoding"), nullValue());
+        assertThat(response.getResponseBodyAsBytes().length, is(SIZE));
+        File file = tmp.newFile();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            long length = AHC.instance().executeRequest(encoded,
+                    AHCUtils.decompressing(AHCUtils.streamTo(channel), 1024 * 1024)).get();
+            assertThat(length, is((long) SIZE));
+        }
+        assertTrue(Arrays.equals(Files.readAllBytes(file.toPath()), payload(SIZE)));
+
+        // the instance of the profile leaves it to the handlers
+        AsyncHttpClient streaming = AHC.instance("streaming");
+        response = streaming.executeRequest(encoded).get();
+        assertThat(response.getHeader("Content-Encoding"), is("gzip"));
+        assertThat(response.getResponseBodyAsBytes().length, lessThan(SIZE));
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long length = streaming.executeRequest(encoded, AHCUtils.streamTo(channel)).get();
+            assertThat(length, is((long) SIZE));
+        }
+        assertTrue(Arrays.equals(Files.readAllBytes(file.toPath()), payload(SIZE)));
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            streaming.executeRequest(encoded, AHCUtils.decompressing(AHCUtils.streamTo(channel), 1024 * 1024)).get();
+            fail("the body is larger than the limit");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause().getMessage(), containsString("exceeds"));
+        }
+    }
+
+    @TestExtension("decompressesEncodedDownloadsWithinTheLimit")
+    public static class StreamingProfile extends ClientProfile {
+        @Override
+        public String getName() {
+            return "streaming";
+        }
+
+        @Override
+        public boolean isDecompressingInHandlers() {
+            return true;
+        }
+    }
+
+    @Test
+    public void unsuccessfulDownloadsFail() throws Exception {
+        server.script(new Artifacts());
+        File file = tmp.newFile();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            AHC.instance().executeRequest(new RequestBuilder().setUrl(server.url("/missing")).build(),
+                    AHCUtils.streamTo(channel)).get();
+            fail("a 404 is not a download");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause().getMessage(), containsString("404"));
+        }
+        assertThat(file.length(), is(0L));
+    }
+
+    @Test
+    public void uploadsFiles() throws Exception {
+        Artifacts artifacts = new Artifacts();
+        server.script(artifacts);
+        File file = tmp.newFile();
+        Files.write(file.toPath(), payload(SIZE));
+        Response response = AHC.instance().executeRequest(
+                AHCUtils.prepareUpload("PUT", server.url("/artifact"), file).build()).get();
+        assertThat(response.getStatusCode(), is(201));
+        assertThat(artifacts.uploaded.get(), is((long) SIZE));
+    }
+}
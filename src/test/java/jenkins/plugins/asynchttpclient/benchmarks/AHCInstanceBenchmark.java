@@ -0,0 +1,41 @@
+package jenkins.plugins.asynchttpclient.benchmarks;
+
+import com.ning.http.client.AsyncHttpClient;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import jenkins.plugins.asynchttpclient.AHC;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Measures the throughput of {@link AHC#instance()} under contention.
+ */
+@JmhBenchmark
+public class AHCInstanceBenchmark {
+
+    public static class JenkinsState extends JmhBenchmarkState {
+        @Override
+        public void setup() throws Exception {
+            // create the shared instance up front so that we only measure the steady state
+            AHC.instance();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public AsyncHttpClient instance1Thread(JenkinsState state) {
+        return AHC.instance();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public AsyncHttpClient instance8Threads(JenkinsState state) {
+        return AHC.instance();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public AsyncHttpClient instance64Threads(JenkinsState state) {
+        return AHC.instance();
+    }
+}
@@ -0,0 +1,52 @@
+package jenkins.plugins.asynchttpclient.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import jenkins.benchmark.jmh.BenchmarkFinder;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all the {@link jenkins.benchmark.jmh.JmhBenchmark} annotated benchmarks of this plugin.
+ * <p>
+ * Not picked up by a plain {@code mvn test}, run with {@code mvn test -Dbenchmark} (or {@code -Dtest=BenchmarkRunner}).
+ * The results, including the allocation rates of the GC profiler ({@code -prof gc}), are written to
+ * {@code jmh-report.json}.
+ * </p>
+ * <p>
+ * The benchmarks are forked with the JVM running this test. From JDK 9 on, the forks get
+ * {@code --add-exports java.base/sun.security.util=ALL-UNNAMED}, which {@link HostnameCheckerBenchmark} needs for its
+ * reflective baseline and for {@code ProxyHostnameChecker} to use the JDK checker at all; JDK 8 would not start with
+ * it.
+ * </p>
+ */
+public class BenchmarkRunner {
+
+    @Test
+    public void runJmhBenchmarks() throws Exception {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .mode(Mode.Throughput)
+                .timeUnit(TimeUnit.MICROSECONDS)
+                .warmupIterations(2)
+                .measurementIterations(5)
+                .forks(1)
+                .shouldFailOnError(true)
+                .shouldDoGC(true)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("jmh-report.json");
+
+        if (!System.getProperty("java.specification.version").startsWith("1.")) {
+            // prepended, so that the jvmArgsAppend of the @Fork annotations still apply
+            options.jvmArgsPrepend("--add-exports=java.base/sun.security.util=ALL-UNNAMED");
+        }
+
+        BenchmarkFinder finder = new BenchmarkFinder(getClass());
+        finder.findBenchmarks(options);
+        new Runner(options.build()).run();
+    }
+}
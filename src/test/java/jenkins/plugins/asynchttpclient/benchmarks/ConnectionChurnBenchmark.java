@@ -0,0 +1,129 @@
+package jenkins.plugins.asynchttpclient.benchmarks;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.Request;
+import com.ning.http.client.RequestBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import jenkins.plugins.asynchttpclient.AHC;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Measures requests per second and CPU per request of the shared client against a local server, with pooled
+ * connections against a new connection per request ({@code Connection: close}), which is the churn that keeps the
+ * selectors of the I/O threads busy. The CPU time of the whole process spent in each benchmark is reported as the
+ * {@code cpuMicros} secondary metric: divide it by the number of operations for the CPU per request. Netty 3 polls with
+ * the JVM's selectors, see {@code ConnectionMetrics.getSelectorProvider()}: the {@code Poll} variants run in a JVM
+ * forked with {@code poll(2)} selectors, to compare against the default {@code epoll(7)} ones on Linux.
+ */
+@JmhBenchmark
+public class ConnectionChurnBenchmark {
+
+    /**
+     * Makes the forked JVM poll with {@code poll(2)}: the selector provider can only be chosen on the command line.
+     */
+    private static final String POLL = "-Djava.nio.channels.spi.SelectorProvider=sun.nio.ch.PollSelectorProvider";
+
+    public static class JenkinsState extends JmhBenchmarkState {
+        @Override
+        public void setup() throws Exception {
+            AHC.instance();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Server {
+        LocalServer server;
+        Request pooled;
+        Request churned;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            final byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+            server = LocalServer.start(16, new HttpHandler() {
+                @Override
+                public void handle(HttpExchange exchange) throws IOException {
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                }
+            });
+            String url = server.url();
+            pooled = new RequestBuilder().setUrl(url).build();
+            churned = new RequestBuilder().setUrl(url).setHeader("Connection", "close").build();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            server.stop();
+        }
+    }
+
+    /**
+     * Adds up the CPU time of the process spent in the benchmark methods.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Cpu {
+        public long cpuMicros;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            cpuMicros = 0;
+        }
+
+        long now() {
+            return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                    .getProcessCpuTime();
+        }
+    }
+
+    private static int send(AsyncHttpClient client, Request request, Cpu cpu) throws Exception {
+        long start = cpu.now();
+        int status = client.executeRequest(request).get().getStatusCode();
+        cpu.cpuMicros += (cpu.now() - start) / 1000;
+        return status;
+    }
+
+    // a single thread, so that the process CPU time measured around each request is that request's
+    @Benchmark
+    @Threads(1)
+    public int pooledConnections(JenkinsState jenkins, Server server, Cpu cpu) throws Exception {
+        return send(AHC.instance(), server.pooled, cpu);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int connectionPerRequest(JenkinsState jenkins, Server server, Cpu cpu) throws Exception {
+        return send(AHC.instance(), server.churned, cpu);
+    }
+
+    @Benchmark
+    @Threads(1)
+    @Fork(jvmArgsAppend = POLL)
+    public int pooledConnectionsPoll(JenkinsState jenkins, Server server, Cpu cpu) throws Exception {
+        return send(AHC.instance(), server.pooled, cpu);
+    }
+
+    @Benchmark
+    @Threads(1)
+    @Fork(jvmArgsAppend = POLL)
+    public int connectionPerRequestPoll(JenkinsState jenkins, Server server, Cpu cpu) throws Exception {
+        return send(AHC.instance(), server.churned, cpu);
+    }
+}
@@ -0,0 +1,158 @@
+package jenkins.plugins.asynchttpclient.benchmarks;
+
+import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.FluentCaseInsensitiveStringsMap;
+import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.HttpResponseHeaders;
+import com.ning.http.client.HttpResponseStatus;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.plugins.asynchttpclient.AHCUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the decompression of a gzip encoded body received in 8 KiB parts: aggregating the compressed parts then
+ * inflating them with a {@link GZIPInputStream} into a fresh array, against streaming them through
+ * {@link AHCUtils#decompressing(AsyncHandler)}. The interesting figure is the {@code gc.alloc.rate.norm} reported by
+ * the GC profiler, in bytes allocated per decompressed body.
+ */
+@JmhBenchmark
+public class DecompressionBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Body {
+        @Param({"65536", "1048576", "16777216"})
+        int size;
+        List<byte[]> parts;
+        HttpResponseHeaders headers;
+
+        @Setup
+        public void setup() throws IOException {
+            // JSON like: compresses about tenfold
+            Random random = new Random(42);
+            StringBuilder json = new StringBuilder(size + 64);
+            while (json.length() < size) {
+                json.append("{\"name\":\"plugin-").append(random.nextInt(2000))
+                        .append("\",\"version\":\"").append(random.nextInt(100)).append('.')
+                        .append(random.nextInt(100)).append("\"},");
+            }
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+                out.write(json.substring(0, size).getBytes("UTF-8"));
+            }
+            byte[] bytes = compressed.toByteArray();
+            parts = new ArrayList<byte[]>();
+            for (int i = 0; i < bytes.length; i += 8192) {
+                parts.add(Arrays.copyOfRange(bytes, i, Math.min(bytes.length, i + 8192)));
+            }
+            final FluentCaseInsensitiveStringsMap map = new FluentCaseInsensitiveStringsMap()
+                    .add("Content-Encoding", "gzip")
+                    .add("Content-Length", Integer.toString(bytes.length));
+            headers = new HttpResponseHeaders() {
+                @Override
+                public FluentCaseInsensitiveStringsMap getHeaders() {
+                    return map;
+                }
+            };
+        }
+    }
+
+    /**
+     * Counts the bytes of a body, as a handler writing them somewhere would see them.
+     */
+    private static final class Counter implements AsyncHandler<Long> {
+        private long count;
+
+        @Override
+        public void onThrowable(Throwable t) {
+        }
+
+        @Override
+        public STATE onBodyPartReceived(HttpResponseBodyPart bodyPart) {
+            count += bodyPart.getBodyByteBuffer().remaining();
+            return STATE.CONTINUE;
+        }
+
+        @Override
+        public STATE onStatusReceived(HttpResponseStatus responseStatus) {
+            return STATE.CONTINUE;
+        }
+
+        @Override
+        public STATE onHeadersReceived(HttpResponseHeaders headers) {
+            return STATE.CONTINUE;
+        }
+
+        @Override
+        public Long onCompleted() {
+            return count;
+        }
+    }
+
+    private static HttpResponseBodyPart part(final byte[] bytes, boolean last) {
+        return new HttpResponseBodyPart(last) {
+            @Override
+            public int length() {
+                return bytes.length;
+            }
+
+            @Override
+            public byte[] getBodyPartBytes() {
+                return bytes;
+            }
+
+            @Override
+            public int writeTo(OutputStream outputStream) throws IOException {
+                outputStream.write(bytes);
+                return bytes.length;
+            }
+
+            @Override
+            public ByteBuffer getBodyByteBuffer() {
+                return ByteBuffer.wrap(bytes);
+            }
+        };
+    }
+
+    @Benchmark
+    public int aggregateThenInflate(Body body) throws IOException {
+        // what a completion handler does with an encoded body: keep the parts, then inflate them in one go
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        for (byte[] part : body.parts) {
+            compressed.write(part);
+        }
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()))) {
+            byte[] buffer = new byte[8192];
+            for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                decompressed.write(buffer, 0, n);
+            }
+        }
+        return decompressed.toByteArray().length;
+    }
+
+    @Benchmark
+    public long streamWithPooledInflaters(Body body) throws Exception {
+        AsyncHandler<Long> handler = AHCUtils.decompressing(new Counter());
+        handler.onHeadersReceived(body.headers);
+        for (int i = 0; i < body.parts.size(); i++) {
+            handler.onBodyPartReceived(part(body.parts.get(i), i == body.parts.size() - 1));
+        }
+        return handler.onCompleted();
+    }
+}
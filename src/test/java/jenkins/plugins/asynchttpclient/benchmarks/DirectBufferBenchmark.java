@@ -0,0 +1,100 @@
+package jenkins.plugins.asynchttpclient.benchmarks;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.Request;
+import com.ning.http.client.RequestBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import jenkins.plugins.asynchttpclient.AHC;
+import jenkins.plugins.asynchttpclient.AHCUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Compares the allocations per request of a client using heap buffers, the default, against one using chunked direct
+ * buffers, see {@link AHCUtils#newAsyncHttpClient(AsyncHttpClientConfig.Builder, boolean)}, for webhook sized
+ * exchanges against a local server. Read the {@code gc.alloc.rate.norm} secondary metric of the GC profiler, in bytes
+ * per request; the response body is consumed as a stream, so that it is not copied once more into a string.
+ */
+@JmhBenchmark
+public class DirectBufferBenchmark {
+
+    public static class JenkinsState extends JmhBenchmarkState {
+        @Override
+        public void setup() throws Exception {
+            AHC.instance();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Client {
+        @Param({"false", "true"})
+        boolean directBuffers;
+        @Param({"4", "64"})
+        int responseKiB;
+        LocalServer server;
+        AsyncHttpClient client;
+        Request request;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            final byte[] body = new byte[responseKiB * 1024];
+            Arrays.fill(body, (byte) 'x');
+            server = LocalServer.start(8, new HttpHandler() {
+                @Override
+                public void handle(HttpExchange exchange) throws IOException {
+                    byte[] buffer = new byte[8192];
+                    try (InputStream in = exchange.getRequestBody()) {
+                        while (in.read(buffer) != -1) {
+                            // drain the payload
+                        }
+                    }
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                }
+            });
+            client = AHCUtils.newAsyncHttpClient(new AsyncHttpClientConfig.Builder(), directBuffers);
+            char[] payload = new char[2048];
+            Arrays.fill(payload, 'p');
+            request = new RequestBuilder("POST")
+                    .setUrl(server.url())
+                    .setHeader("Content-Type", "application/json")
+                    .setBody(new String(payload))
+                    .build();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            client.close();
+            server.stop();
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long exchange(JenkinsState jenkins, Client client) throws Exception {
+        long length = 0;
+        try (InputStream in = client.client.executeRequest(client.request).get().getResponseBodyAsStream()) {
+            byte[] buffer = new byte[4096];
+            for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                length += n;
+            }
+        }
+        return length;
+    }
+}
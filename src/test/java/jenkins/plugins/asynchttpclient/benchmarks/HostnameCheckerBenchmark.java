@@ -0,0 +1,62 @@
+package jenkins.plugins.asynchttpclient.benchmarks;
+
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.plugins.asynchttpclient.util.ProxyHostnameChecker;
+import jenkins.plugins.asynchttpclient.util.Rfc6125HostnameChecker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures hostname verifications per second: the previous per call reflective lookup of
+ * {@code sun.security.util.HostnameChecker} against the method handles of {@link ProxyHostnameChecker} and the pure
+ * Java {@link Rfc6125HostnameChecker}. On JDK 17 and later the JDK checker is only accessible with
+ * {@code --add-exports java.base/sun.security.util=ALL-UNNAMED}, which {@link BenchmarkRunner} gives the forks:
+ * run from elsewhere without it, the setup fails.
+ */
+@JmhBenchmark
+public class HostnameCheckerBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Certificates {
+        X509Certificate certificate;
+        Object sunChecker;
+        ProxyHostnameChecker proxy;
+        Rfc6125HostnameChecker rfc6125;
+
+        @Setup
+        public void setup() throws Exception {
+            try (InputStream in = HostnameCheckerBenchmark.class
+                    .getResourceAsStream("/jenkins/plugins/asynchttpclient/util/certs/wildcard-san.pem")) {
+                certificate = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(in);
+            }
+            Class<?> hostnameCheckerClass = Class.forName("sun.security.util.HostnameChecker");
+            sunChecker = hostnameCheckerClass.getMethod("getInstance", Byte.TYPE)
+                    .invoke(null, ProxyHostnameChecker.TYPE_TLS);
+            proxy = new ProxyHostnameChecker();
+            rfc6125 = new Rfc6125HostnameChecker();
+        }
+    }
+
+    @Benchmark
+    public void reflectivePerCall(Certificates state) throws Exception {
+        // what ProxyHostnameChecker used to do on every verification
+        Method checkMethod = state.sunChecker.getClass().getMethod("match", String.class, X509Certificate.class);
+        checkMethod.invoke(state.sunChecker, "www.example.com", state.certificate);
+    }
+
+    @Benchmark
+    public void methodHandle(Certificates state) throws Exception {
+        state.proxy.match("www.example.com", state.certificate);
+    }
+
+    @Benchmark
+    public void pureJava(Certificates state) throws Exception {
+        state.rfc6125.match("www.example.com", state.certificate);
+    }
+}
@@ -0,0 +1,65 @@
+package jenkins.plugins.asynchttpclient.benchmarks;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A local HTTP server for the benchmarks to send their requests to, started in a {@code @Setup} and stopped in the
+ * matching {@code @TearDown}, together with the threads answering the requests.
+ */
+final class LocalServer {
+
+    /**
+     * The server.
+     */
+    private final HttpServer server;
+
+    /**
+     * The threads answering the requests.
+     */
+    private final ExecutorService executor;
+
+    private LocalServer(HttpServer server, ExecutorService executor) {
+        this.server = server;
+        this.executor = executor;
+    }
+
+    /**
+     * Starts a server on the loopback interface, answering every request with the given handler.
+     *
+     * @param threads the number of threads answering the requests.
+     * @param handler the handler.
+     * @return the server.
+     * @throws IOException if the server cannot be started.
+     */
+    static LocalServer start(int threads, HttpHandler handler) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/", handler);
+        server.start();
+        return new LocalServer(server, executor);
+    }
+
+    /**
+     * Returns the URL of the root of the server.
+     *
+     * @return the URL.
+     */
+    String url() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * Stops the server and the threads answering the requests.
+     */
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
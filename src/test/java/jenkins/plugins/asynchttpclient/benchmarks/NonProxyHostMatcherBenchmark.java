@@ -0,0 +1,77 @@
+package jenkins.plugins.asynchttpclient.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.plugins.asynchttpclient.util.NonProxyHostMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures proxy bypass decisions per second against growing "no proxy host" lists: the linear scan that
+ * {@code ProxyServer} performs on every request against the pre-compiled {@link NonProxyHostMatcher}.
+ * The host never matches, which is the common case and the worst one for the linear scan.
+ */
+@JmhBenchmark
+public class NonProxyHostMatcherBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Patterns {
+        @Param({"10", "100", "1000", "10000"})
+        int count;
+        List<String> patterns;
+        NonProxyHostMatcher matcher;
+
+        @Setup
+        public void setup() {
+            patterns = new ArrayList<String>();
+            StringBuilder noProxyHost = new StringBuilder();
+            for (int i = 0; i < count; i++) {
+                String pattern;
+                switch (i % 3) {
+                    case 0:
+                        pattern = "host" + i + ".example.com";
+                        break;
+                    case 1:
+                        pattern = "*.dept" + i + ".example.org";
+                        break;
+                    default:
+                        pattern = "10." + (i / 256 % 256) + "." + (i % 256) + ".*";
+                        break;
+                }
+                patterns.add(pattern);
+                noProxyHost.append(pattern).append('\n');
+            }
+            matcher = NonProxyHostMatcher.compile(noProxyHost.toString());
+        }
+    }
+
+    @Benchmark
+    public boolean linearScan(Patterns state) {
+        // what ProxyServer.matchNonProxyHost does
+        String target = "updates.jenkins.io";
+        for (String pattern : state.patterns) {
+            if (pattern.length() > 1 && pattern.charAt(0) == '*') {
+                if (target.regionMatches(true, target.length() - pattern.length() + 1, pattern, 1,
+                        pattern.length() - 1)) {
+                    return true;
+                }
+            } else if (pattern.length() > 1 && pattern.charAt(pattern.length() - 1) == '*') {
+                if (target.regionMatches(true, 0, pattern, 0, pattern.length() - 1)) {
+                    return true;
+                }
+            } else if (pattern.equalsIgnoreCase(target)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Benchmark
+    public boolean compiled(Patterns state) {
+        return state.matcher.matches("updates.jenkins.io");
+    }
+}
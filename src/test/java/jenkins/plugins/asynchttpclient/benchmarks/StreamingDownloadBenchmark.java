@@ -0,0 +1,136 @@
+package jenkins.plugins.asynchttpclient.benchmarks;
+
+import com.ning.http.client.Request;
+import com.ning.http.client.RequestBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import jenkins.plugins.asynchttpclient.AHC;
+import jenkins.plugins.asynchttpclient.AHCUtils;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the peak heap used by downloads of growing payloads: reading the whole body with
+ * {@code Response.getResponseBodyAsBytes()} against streaming it to a file with {@link AHCUtils#streamTo}. The peak is
+ * reported as the {@code peakHeapMiB} secondary metric; it grows with the payload for the former and stays flat for
+ * the latter.
+ */
+@JmhBenchmark
+public class StreamingDownloadBenchmark {
+
+    public static class JenkinsState extends JmhBenchmarkState {
+        @Override
+        public void setup() throws Exception {
+            AHC.instance();
+        }
+    }
+
+    /**
+     * A local server sending the payload from a single reused buffer, so that it does not weigh on the heap itself.
+     */
+    @State(Scope.Benchmark)
+    public static class Payload {
+        @Param({"16", "64", "256"})
+        int megabytes;
+        LocalServer server;
+        Request request;
+        File file;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            final byte[] buffer = new byte[64 * 1024];
+            final long length = megabytes * 1024L * 1024L;
+            server = LocalServer.start(4, new HttpHandler() {
+                @Override
+                public void handle(HttpExchange exchange) throws IOException {
+                    exchange.sendResponseHeaders(200, length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        for (long sent = 0; sent < length; sent += buffer.length) {
+                            out.write(buffer, 0, (int) Math.min(buffer.length, length - sent));
+                        }
+                    }
+                }
+            });
+            request = new RequestBuilder().setUrl(server.url()).build();
+            file = File.createTempFile("download", ".bin");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            server.stop();
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    /**
+     * Samples the used heap while the downloads run.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Heap {
+        public long peakHeapMiB;
+        private volatile boolean sampling;
+        private Thread sampler;
+
+        @Setup(Level.Iteration)
+        public void start() {
+            System.gc();
+            peakHeapMiB = 0;
+            sampling = true;
+            final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            sampler = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (sampling) {
+                        long used = memory.getHeapMemoryUsage().getUsed() / (1024 * 1024);
+                        if (used > peakHeapMiB) {
+                            peakHeapMiB = used;
+                        }
+                        try {
+                            Thread.sleep(5);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }, "heap sampler");
+            sampler.setDaemon(true);
+            sampler.start();
+        }
+
+        @TearDown(Level.Iteration)
+        public void stop() throws InterruptedException {
+            sampling = false;
+            sampler.join();
+        }
+    }
+
+    @Benchmark
+    public int buffered(JenkinsState jenkins, Payload payload, Heap heap) throws Exception {
+        return AHC.instance().executeRequest(payload.request).get().getResponseBodyAsBytes().length;
+    }
+
+    @Benchmark
+    public long streamed(JenkinsState jenkins, Payload payload, Heap heap) throws Exception {
+        try (FileChannel channel = FileChannel.open(payload.file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            return AHC.instance().executeRequest(payload.request, AHCUtils.streamTo(channel)).get();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package jenkins.plugins.asynchttpclient.util;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsAreContiguous() {
+        for (long value = 0; value < 1 << 20; value++) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(value + " above its bucket", value <= LatencyHistogram.highestValueOf(index));
+            if (index > 0) {
+                assertTrue(value + " below its bucket", value > LatencyHistogram.highestValueOf(index - 1));
+            }
+        }
+    }
+
+    @Test
+    public void percentilesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram("2xx");
+        for (int millis = 1; millis <= 1000; millis++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500.5, histogram.getMean(), 0.001);
+        assertEquals(500, histogram.getP50(), 500 * 0.125);
+        assertEquals(990, histogram.getP99(), 990 * 0.125);
+        assertEquals(1000, histogram.getMax(), 0.001);
+        assertEquals(1000, histogram.getValueAtPercentile(100), 0.001);
+    }
+
+    @Test
+    public void empty() {
+        LatencyHistogram histogram = new LatencyHistogram("error");
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean(), 0);
+        assertEquals(0, histogram.getP99(), 0);
+    }
+}
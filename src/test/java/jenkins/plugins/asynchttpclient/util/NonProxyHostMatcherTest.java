@@ -0,0 +1,54 @@
+package jenkins.plugins.asynchttpclient.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NonProxyHostMatcherTest {
+
+    private final NonProxyHostMatcher matcher = NonProxyHostMatcher.compile(
+            "localhost, *.internal.example.com|*corp.example.org\n192.168.* 10.0.0.0/8,172.16.0.0/12 fd00::/8\tEXACT.example.net");
+
+    @Test
+    public void exactNames() {
+        assertTrue(matcher.matches("localhost"));
+        assertTrue(matcher.matches("LocalHost"));
+        assertTrue(matcher.matches("exact.example.net"));
+        assertFalse(matcher.matches("www.exact.example.net"));
+        assertFalse(matcher.matches("localhost.localdomain"));
+    }
+
+    @Test
+    public void leadingWildcards() {
+        assertTrue(matcher.matches("jenkins.internal.example.com"));
+        assertTrue(matcher.matches("a.b.internal.example.com"));
+        assertFalse(matcher.matches("internal.example.com"));
+        assertTrue(matcher.matches("corp.example.org"));
+        assertTrue(matcher.matches("mycorp.example.org"));
+        assertFalse(matcher.matches("example.org"));
+    }
+
+    @Test
+    public void trailingWildcards() {
+        assertTrue(matcher.matches("192.168.1.1"));
+        assertFalse(matcher.matches("192.169.1.1"));
+    }
+
+    @Test
+    public void cidrRanges() {
+        assertTrue(matcher.matches("10.1.2.3"));
+        assertTrue(matcher.matches("172.31.255.255"));
+        assertFalse(matcher.matches("172.32.0.1"));
+        assertFalse(matcher.matches("11.0.0.1"));
+        assertTrue(matcher.matches("fd12::1"));
+        assertTrue(matcher.matches("[fd12::1]"));
+        assertFalse(matcher.matches("fe80::1"));
+    }
+
+    @Test
+    public void nothing() {
+        assertFalse(NonProxyHostMatcher.compile(null).matches("localhost"));
+        assertFalse(NonProxyHostMatcher.compile(" ").matches("localhost"));
+        assertFalse(NonProxyHostMatcher.compile("*").matches("localhost"));
+    }
+}
@@ -0,0 +1,135 @@
+package jenkins.plugins.asynchttpclient.util;
+
+import java.io.InputStream;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks {@link Rfc6125HostnameChecker} against certificates generated locally with {@code keytool}, see
+ * {@code src/test/resources/jenkins/plugins/asynchttpclient/util/certs}.
+ */
+public class Rfc6125HostnameCheckerTest {
+
+    private final Rfc6125HostnameChecker checker = new Rfc6125HostnameChecker();
+
+    @Test
+    public void wildcardSubjectAlternativeName() throws Exception {
+        // CN=www.example.com, SAN=dns:*.example.com,dns:example.com,ip:127.0.0.1
+        X509Certificate certificate = load("wildcard-san.pem");
+        assertMatches(certificate, "www.example.com");
+        assertMatches(certificate, "jenkins.example.com");
+        assertMatches(certificate, "JENKINS.Example.COM");
+        assertMatches(certificate, "example.com");
+        assertMatches(certificate, "example.com.");
+        assertMatches(certificate, "127.0.0.1");
+        assertDoesNotMatch(certificate, "a.b.example.com");
+        assertDoesNotMatch(certificate, ".example.com");
+        assertDoesNotMatch(certificate, "example.org");
+        assertDoesNotMatch(certificate, "127.0.0.2");
+        assertDoesNotMatch(certificate, "localhost");
+    }
+
+    @Test
+    public void commonNameWithoutSubjectAlternativeNames() throws Exception {
+        // CN=cn.example.org, O=Jenkins
+        X509Certificate certificate = load("cn-only.pem");
+        assertMatches(certificate, "cn.example.org");
+        assertDoesNotMatch(certificate, "jenkins");
+        assertDoesNotMatch(certificate, "www.cn.example.org");
+    }
+
+    @Test
+    public void subjectAlternativeNamesOverrideCommonName() throws Exception {
+        // CN=cn.example.org, SAN=dns:san.example.org
+        X509Certificate certificate = load("san-overrides-cn.pem");
+        assertMatches(certificate, "san.example.org");
+        assertDoesNotMatch(certificate, "cn.example.org");
+    }
+
+    @Test
+    public void mostSpecificCommonName() throws Exception {
+        // CN=outer.example.org, OU=Unit, CN=inner.example.org
+        X509Certificate certificate = load("multi-cn.pem");
+        assertMatches(certificate, "outer.example.org");
+        assertDoesNotMatch(certificate, "inner.example.org");
+    }
+
+    @Test
+    public void ipAddresses() throws Exception {
+        // CN=127.0.0.1, SAN=ip:10.0.0.1,ip:2001:db8::1
+        X509Certificate certificate = load("ip-addresses.pem");
+        assertMatches(certificate, "10.0.0.1");
+        assertMatches(certificate, "2001:db8::1");
+        assertMatches(certificate, "[2001:DB8:0:0:0:0:0:1]");
+        // IP addresses never match the common name
+        assertDoesNotMatch(certificate, "127.0.0.1");
+        assertDoesNotMatch(certificate, "2001:db8::2");
+    }
+
+    @Test
+    public void internationalizedNames() throws Exception {
+        // SAN=dns:xn--bcher-kva.example,dns:*.xn--caf-dma.example
+        X509Certificate certificate = load("idn.pem");
+        assertMatches(certificate, "bücher.example");
+        assertMatches(certificate, "xn--bcher-kva.example");
+        assertMatches(certificate, "www.café.example");
+        assertMatches(certificate, "www.xn--caf-dma.example");
+        assertDoesNotMatch(certificate, "bucher.example");
+        assertDoesNotMatch(certificate, "www.cafe.example");
+    }
+
+    @Test
+    public void noWildcardUnderTopLevelDomain() throws Exception {
+        // CN=*.com, SAN=dns:*.com
+        X509Certificate certificate = load("tld-wildcard.pem");
+        assertDoesNotMatch(certificate, "example.com");
+        assertDoesNotMatch(certificate, "www.example.com");
+    }
+
+    @Test
+    public void repeatedChecksGiveTheSameAnswer() throws Exception {
+        X509Certificate certificate = load("wildcard-san.pem");
+        X509Certificate sameCertificate = load("wildcard-san.pem");
+        for (int i = 0; i < 3; i++) {
+            assertMatches(certificate, "www.example.com");
+            assertMatches(sameCertificate, "www.example.com");
+            assertDoesNotMatch(sameCertificate, "example.org");
+        }
+    }
+
+    @Test
+    public void kerberosPrincipal() {
+        assertTrue(checker.match("host.example.com", new KerberosPrincipal("HTTP/host.example.com@EXAMPLE.COM")));
+        assertTrue(checker.match("HOST.example.com", new KerberosPrincipal("HTTP/host.example.com@EXAMPLE.COM")));
+        assertFalse(checker.match("other.example.com", new KerberosPrincipal("HTTP/host.example.com@EXAMPLE.COM")));
+    }
+
+    private void assertMatches(X509Certificate certificate, String hostname) {
+        try {
+            checker.match(hostname, certificate);
+        } catch (CertificateException e) {
+            throw new AssertionError(hostname + " should match " + certificate.getSubjectX500Principal(), e);
+        }
+    }
+
+    private void assertDoesNotMatch(X509Certificate certificate, String hostname) {
+        try {
+            checker.match(hostname, certificate);
+            fail(hostname + " should not match " + certificate.getSubjectX500Principal());
+        } catch (CertificateException e) {
+            // expected
+        }
+    }
+
+    private static X509Certificate load(String name) throws Exception {
+        try (InputStream in = Rfc6125HostnameCheckerTest.class.getResourceAsStream("certs/" + name)) {
+            assertNotNull("certs/" + name, in);
+            return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(in);
+        }
+    }
+}
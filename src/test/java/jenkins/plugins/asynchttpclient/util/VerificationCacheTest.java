@@ -0,0 +1,46 @@
+package jenkins.plugins.asynchttpclient.util;
+
+import java.io.InputStream;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class VerificationCacheTest {
+
+    @Test
+    public void countsHitsAndMisses() throws Exception {
+        VerificationCache cache = new VerificationCache();
+        X509Certificate certificate = load("wildcard-san.pem");
+        assertFalse(cache.isVerified("www.example.com", certificate));
+        cache.verified("www.example.com", certificate);
+        assertTrue(cache.isVerified("www.example.com", certificate));
+        // an equal certificate decoded again, as after a full handshake
+        assertTrue(cache.isVerified("www.example.com", load("wildcard-san.pem")));
+        assertFalse(cache.isVerified("other.example.com", certificate));
+        assertFalse(cache.isVerified("www.example.com", load("cn-only.pem")));
+        assertEquals(2, cache.getHits());
+        assertEquals(3, cache.getMisses());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        VerificationCache cache = new VerificationCache(2);
+        X509Certificate certificate = load("wildcard-san.pem");
+        cache.verified("a.example.com", certificate);
+        cache.verified("b.example.com", certificate);
+        assertTrue(cache.isVerified("a.example.com", certificate));
+        cache.verified("c.example.com", certificate);
+        assertEquals(2, cache.size());
+        assertTrue(cache.isVerified("a.example.com", certificate));
+        assertFalse(cache.isVerified("b.example.com", certificate));
+        assertTrue(cache.isVerified("c.example.com", certificate));
+    }
+
+    private static X509Certificate load(String name) throws Exception {
+        try (InputStream in = VerificationCacheTest.class.getResourceAsStream("certs/" + name)) {
+            return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(in);
+        }
+    }
+}